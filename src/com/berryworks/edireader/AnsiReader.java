@@ -65,6 +65,17 @@ public class AnsiReader extends StandardReader
   protected String groupDate;
 
 
+  @Override
+  protected void resetState()
+  {
+    super.resetState();
+    groupFunctionCode = null;
+    groupSender = null;
+    groupReceiver = null;
+    groupVersion = null;
+    groupDate = null;
+  }
+
   @Override
   protected Token recognizeBeginning() throws IOException,
     EDISyntaxException
@@ -149,6 +160,7 @@ public class AnsiReader extends StandardReader
     setInterchangeControlNumber(getFixedLengthISAField(9));
     getInterchangeAttributes().addCDATA(getXMLTags().getControl(),
       getInterchangeControlNumber());
+    getTransactionHeader().setInterchange("ANSI X.12", fromId.trim(), toId.trim(), getInterchangeControlNumber());
     // Go ahead and parse tokens until the end of the segment is reached
     while (getTokenizer().nextToken().getType() != Token.TokenType.SEGMENT_END)
       if (getTokenizer().getElementInSegmentCount() > 30)
@@ -359,6 +371,7 @@ public class AnsiReader extends StandardReader
       getGroupAttributes().addCDATA(getXMLTags().getStandardVersion(), groupVersion);
       getTokenizer().skipSegment();
     }
+    getTransactionHeader().setGroup(groupSender, groupReceiver, getGroupControlNumber(), groupVersion);
 
     startElement(getXMLTags().getGroupTag(), getGroupAttributes());
 
@@ -377,7 +390,7 @@ public class AnsiReader extends StandardReader
       if (sType.equals("ST"))
       {
         docCount++;
-        parseDocument(token);
+        dispatchDocument(token);
       }
       else if (sType.equals("GE"))
         break;
@@ -413,6 +426,24 @@ public class AnsiReader extends StandardReader
   {
   }
 
+  /**
+   * Creates a reader for a single transaction set that also knows the version and
+   * standard code of the enclosing functional group, on which the choice of plugin depends.
+   *
+   * @return StandardReader, or null if one cannot be created
+   */
+  @Override
+  protected StandardReader createDocumentReader()
+  {
+    StandardReader result = super.createDocumentReader();
+    if (result instanceof AnsiReader)
+    {
+      ((AnsiReader) result).groupVersion = groupVersion;
+      result.getGroupAttributes().setAttributes(getGroupAttributes());
+    }
+    return result;
+  }
+
   /**
    * Parse ANSI Document/Transaction Set (ST .. SE)
    *
@@ -435,43 +466,63 @@ public class AnsiReader extends StandardReader
     if (getTransactionCallback() != null)
       getTransactionCallback().startTransaction(token.getValue());
 
-    getDocumentAttributes().clear();
-    getDocumentAttributes().addCDATA(getXMLTags().getDocumentType(),
-      documentType = getTokenizer().nextSimpleValue());
-    PluginController.setDebug(debug);
-
-    String version = groupVersion;
-    if (version.length() > 6) version = version.substring(0, 6);
-    String code = getGroupAttributes().getValue(getXMLTags().getStandardCode());
-    PluginController pluginController = PluginController.create("ANSI", documentType, code, version, getTokenizer());
-    if (pluginController.isEnabled())
-      getDocumentAttributes().addCDATA(getXMLTags().getName(), pluginController.getDocumentName());
-    getDocumentAttributes().addCDATA(getXMLTags().getControl(), control = getTokenizer().nextSimpleValue());
+    documentType = getTokenizer().nextSimpleValue();
+    control = getTokenizer().nextSimpleValue();
     getTokenizer().skipSegment();
-    startElement(getXMLTags().getDocumentTag(), getDocumentAttributes());
+    getTransactionHeader().setDocument(documentType, null, null, control);
+    boolean selected = isSelected();
 
-    String segmentType;
-    while (!(segmentType = getTokenizer().nextSegment()).equals("SE"))
+    PluginController pluginController = null;
+    if (selected)
     {
-      if (debug)
-        trace("parsing segment " + segmentType + " within the "
-          + documentType + " document");
-      segCount++;
+      getDocumentAttributes().clear();
+      getDocumentAttributes().addCDATA(getXMLTags().getDocumentType(), documentType);
+      PluginController.setDebug(debug);
+
+      String version = groupVersion;
+      if (version.length() > 6) version = version.substring(0, 6);
+      String code = getGroupAttributes().getValue(getXMLTags().getStandardCode());
+      pluginController = PluginController.create("ANSI", documentType, code, version, getTokenizer());
+      if (pluginController.isEnabled())
+        getDocumentAttributes().addCDATA(getXMLTags().getName(), pluginController.getDocumentName());
+      getDocumentAttributes().addCDATA(getXMLTags().getControl(), control);
+      startElement(getXMLTags().getDocumentTag(), getDocumentAttributes());
+    }
+    else if (debug)
+      trace("skipping the " + documentType + " document " + control);
 
-      if ("BIN".equals(segmentType))
+    String segmentType;
+    if (!selected || isEnvelopeOnly())
+    {
+      segCount += skipDocumentBody();
+    }
+    else
+    {
+      while (!(segmentType = getTokenizer().nextSegment()).equals("SE"))
       {
-        parseBINSequence();
-        continue;
-      }
+        if (debug)
+          trace("parsing segment " + segmentType + " within the "
+            + documentType + " document");
+        segCount++;
+
+        if ("BIN".equals(segmentType))
+        {
+          parseBINSequence();
+          continue;
+        }
 
-      parseSegment(pluginController, segmentType);
+        parseSegment(pluginController, segmentType);
+      }
     }
 
-    int toClose = pluginController.getNestingLevel();
-    if (debug)
-      trace("closing all " + toClose + " loops");
-    for (; toClose > 0; toClose--)
-      endElement(getXMLTags().getLoopTag());
+    if (selected)
+    {
+      int toClose = pluginController.getNestingLevel();
+      if (debug)
+        trace("closing all " + toClose + " loops");
+      for (; toClose > 0; toClose--)
+        endElement(getXMLTags().getLoopTag());
+    }
 
     int n;
     if (segCount != (n = getTokenizer().nextIntValue()))
@@ -492,7 +543,8 @@ public class AnsiReader extends StandardReader
     }
 
     getAckGenerator().generateTransactionAcknowledgment(documentType, control);
-    endElement(getXMLTags().getDocumentTag());
+    if (selected)
+      endElement(getXMLTags().getDocumentTag());
 
     // Skip over this SE segment
     // return the SEGMENT_END token
@@ -504,7 +556,40 @@ public class AnsiReader extends StandardReader
     return t;
   }
 
+  /**
+   * Skips the segments of a transaction set at the character level, through but not including
+   * its SE segment. A BIN sequence is parsed only to find its end, without emitting SAX events.
+   *
+   * @return number of segments skipped
+   * @throws SAXException for problem emitting SAX events
+   * @throws IOException  for problem reading EDI data
+   */
+  protected int skipDocumentBody() throws SAXException, IOException
+  {
+    int count = 0;
+    while (true)
+    {
+      count += getTokenizer().skipSegmentsUntil("SE", "BIN");
+      if (getTokenizer().nextSegment().equals("SE"))
+        return count;
+      count++;
+      parseBINSequence(false);
+    }
+  }
+
   protected void parseBINSequence() throws SAXException, IOException
+  {
+    parseBINSequence(true);
+  }
+
+  /**
+   * Parse a BIN segment and the octet sequence that follows it
+   *
+   * @param emit false to parse it without emitting SAX events
+   * @throws SAXException for problem emitting SAX events
+   * @throws IOException  for problem reading EDI data
+   */
+  protected void parseBINSequence(boolean emit) throws SAXException, IOException
   {
     if (debug)
       trace("BIN detected, introducing an octet sequence object");
@@ -531,6 +616,8 @@ public class AnsiReader extends StandardReader
     if (debug)
       trace("Token after BIN: " + token);
 
+    if (!emit)
+      return;
     getDocumentAttributes().clear();
     startElement(getXMLTags().getPackageTag(), getDocumentAttributes());
     new ContentHandlerBase64Encoder().encode(dataObject, getContentHandler());
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader;
+
+import com.berryworks.edireader.error.RecoverableSyntaxException;
+import com.berryworks.edireader.tokenizer.EDITokenizerNIO;
+import com.berryworks.edireader.tokenizer.Token;
+import com.berryworks.edireader.tokenizer.Tokenizer;
+import com.berryworks.edireader.util.sax.SAXEventBuffer;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses the transaction sets or messages of an interchange in parallel on behalf of a StandardReader.
+ * <p/>
+ * While installed, the dispatcher stands in for the ContentHandler of the reader. Each
+ * time the reader encounters an ST or UNH segment, the dispatcher copies the raw segments
+ * through the matching SE or UNT from the tokenizer, without tokenizing them, and submits
+ * them to be parsed by a separate instance of the reader on a ForkJoinPool. The reader itself
+ * continues with the enveloping segments, counting each dispatched transaction so that the
+ * group and interchange trailers are validated as usual.
+ * <p/>
+ * SAX events are delivered to the real ContentHandler in their original order, on the thread
+ * that called parse(). Events of the reader that follow a transaction still being parsed are
+ * buffered until that transaction has been delivered. If a transaction cannot be parsed, its
+ * events up to the point of the error are delivered, later events are discarded, and the error
+ * is thrown from the reader, just as when transactions are parsed sequentially.
+ */
+class DocumentDispatcher
+{
+  private final StandardReader reader;
+  private final ForkJoinPool pool;
+  private final int maximumPending;
+  private final ContentHandler contentHandler;
+  private final LinkedList<Object> queue = new LinkedList<Object>();
+  private SAXEventBuffer tail;
+  private int pending;
+  private boolean failed;
+
+  /**
+   * Receives the SAX events of the reader itself, passing them to the ContentHandler
+   * directly unless they must wait for a transaction still being parsed.
+   */
+  private final ContentHandler front = new DefaultHandler()
+  {
+    @Override
+    public void startDocument() throws SAXException
+    {
+      target().startDocument();
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+      target().endDocument();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+      target().startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+      target().endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+      target().characters(ch, start, length);
+    }
+  };
+
+  /**
+   * Installs a dispatcher in place of the ContentHandler of a reader.
+   *
+   * @param reader whose transactions are to be parsed in parallel
+   * @param pool   on which the transactions are parsed
+   */
+  DocumentDispatcher(StandardReader reader, ForkJoinPool pool)
+  {
+    this.reader = reader;
+    this.pool = pool;
+    this.maximumPending = 4 * pool.getParallelism();
+    this.contentHandler = reader.getContentHandler();
+    reader.setContentHandler(front);
+  }
+
+  private ContentHandler target()
+  {
+    if (queue.isEmpty())
+      return contentHandler;
+    if (tail == null)
+    {
+      tail = new SAXEventBuffer();
+      queue.add(tail);
+    }
+    return tail;
+  }
+
+  /**
+   * Arranges for a transaction set or message to be parsed, in place of reader.parseDocument().
+   *
+   * @param token SEGMENT_START token of the ST or UNH segment
+   * @return token most recently parsed
+   * @throws SAXException for problem emitting SAX events, or for invalid EDI in an earlier transaction
+   * @throws IOException  for problem reading EDI data
+   */
+  Token dispatch(Token token) throws SAXException, IOException
+  {
+    String segmentType = token.getValue();
+    StandardReader documentReader = reader.createDocumentReader();
+    if (documentReader == null)
+      return reader.parseDocument(token);
+
+    Tokenizer tokenizer = reader.getTokenizer();
+    long offset = tokenizer.getSegmentStartOffset();
+    int segmentCount = tokenizer.getSegmentCount() - 1;
+    StringBuilder text = new StringBuilder();
+    if ("ST".equals(segmentType))
+      tokenizer.copySegmentsThrough("SE", "BIN", true, text);
+    else
+      tokenizer.copySegmentsThrough("UNT", "UNO", false, text);
+
+    Tokenizer documentTokenizer = new EDITokenizerNIO(new StringReader(text.toString()));
+    reader.configureTokenizer(documentTokenizer);
+    documentTokenizer.setStartingOffset(offset);
+    documentTokenizer.setStartingSegmentCount(segmentCount);
+    documentReader.setTokenizer(documentTokenizer);
+
+    DocumentTask task = new DocumentTask(documentReader);
+    pool.execute(task);
+    queue.add(task);
+    tail = null;
+    pending++;
+
+    deliver(false);
+    while (pending > maximumPending)
+      deliverFirst();
+    return token;
+  }
+
+  /**
+   * Delivers the events of every transaction, waiting for those still being parsed.
+   *
+   * @throws SAXException for problem emitting SAX events, or for invalid EDI in a transaction
+   * @throws IOException  for problem reading EDI data
+   */
+  void finish() throws SAXException, IOException
+  {
+    deliver(true);
+  }
+
+  /**
+   * Delivers the events that preceded an error encountered by the reader itself.
+   * If an earlier transaction failed, its error is thrown instead.
+   *
+   * @throws SAXException for problem emitting SAX events, or for invalid EDI in a transaction
+   * @throws IOException  for problem reading EDI data
+   */
+  void abandon() throws SAXException, IOException
+  {
+    if (!failed)
+      deliver(true);
+  }
+
+  /**
+   * Restores the ContentHandler of the reader and discards anything not yet delivered.
+   */
+  void close()
+  {
+    reader.setContentHandler(contentHandler);
+    for (Object item : queue)
+      if (item instanceof DocumentTask)
+      {
+        DocumentTask task = (DocumentTask) item;
+        task.cancel(false);
+        task.quietlyJoin();
+      }
+    queue.clear();
+    tail = null;
+    pending = 0;
+  }
+
+  private void deliver(boolean wait) throws SAXException, IOException
+  {
+    while (!queue.isEmpty())
+    {
+      Object item = queue.getFirst();
+      if (item instanceof DocumentTask && !wait && !((DocumentTask) item).isDone())
+        return;
+      deliverFirst();
+    }
+  }
+
+  private void deliverFirst() throws SAXException, IOException
+  {
+    Object item = queue.removeFirst();
+    if (item == tail)
+      tail = null;
+    if (item instanceof SAXEventBuffer)
+    {
+      ((SAXEventBuffer) item).replay(contentHandler);
+      return;
+    }
+
+    DocumentTask task = (DocumentTask) item;
+    pending--;
+    task.join();
+    task.events.replay(contentHandler);
+    if (task.syntaxException != null)
+      reader.setSyntaxException(task.syntaxException);
+
+    Exception exception = task.exception;
+    if (exception != null)
+    {
+      failed = true;
+      close();
+      if (exception instanceof SAXException)
+        throw (SAXException) exception;
+      if (exception instanceof IOException)
+        throw (IOException) exception;
+      throw (RuntimeException) exception;
+    }
+  }
+
+  /**
+   * Parses one transaction set or message, buffering its SAX events.
+   */
+  private static class DocumentTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final StandardReader documentReader;
+    private final SAXEventBuffer events = new SAXEventBuffer();
+    private RecoverableSyntaxException syntaxException;
+    private Exception exception;
+
+    DocumentTask(StandardReader documentReader)
+    {
+      this.documentReader = documentReader;
+    }
+
+    @Override
+    protected void compute()
+    {
+      documentReader.setContentHandler(events);
+      try
+      {
+        documentReader.parseDocument(documentReader.getTokenizer().nextToken());
+      } catch (Exception e)
+      {
+        exception = e;
+      }
+      syntaxException = documentReader.getSyntaxException();
+    }
+  }
+}
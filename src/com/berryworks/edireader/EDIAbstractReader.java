@@ -21,13 +21,17 @@
 package com.berryworks.edireader;
 
 import com.berryworks.edireader.error.EDISyntaxExceptionHandler;
+import com.berryworks.edireader.tokenizer.ByteBufferInputStream;
+import com.berryworks.edireader.tokenizer.EDITokenizerBytes;
 import com.berryworks.edireader.tokenizer.EDITokenizerNIO;
 import com.berryworks.edireader.tokenizer.Tokenizer;
 import com.berryworks.edireader.util.BranchingWriter;
 import org.xml.sax.*;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -149,6 +153,12 @@ public abstract class EDIAbstractReader implements XMLReader
 
   private TransactionCallback transactionCallback;
 
+  private ForkJoinPool documentPool;
+
+  private boolean envelopeOnly;
+
+  private TransactionFilter transactionFilter;
+
   /**
    * Gets the character marking the boundary between segments
    *
@@ -321,7 +331,7 @@ public abstract class EDIAbstractReader implements XMLReader
       InputStream inputStream = source.getByteStream();
       if (inputStream != null)
         // establish inputReader from a ByteStream
-        inputReader = new InputStreamReader(inputStream);
+        inputReader = new InputStreamReader(inputStream, getCharset(source));
       else
       {
         String systemId = source.getSystemId();
@@ -330,7 +340,7 @@ public abstract class EDIAbstractReader implements XMLReader
           // try to establish inputReader using the SystemId
           if (systemId.startsWith("file:"))
             // systemId names a file
-            inputReader = new FileReader(systemId.substring(5));
+            inputReader = new InputStreamReader(new FileInputStream(systemId.substring(5)), getCharset(source));
           else
             // some kind of URL not yet supported
             throw new IOException("InputSource using SystemId ("
@@ -347,6 +357,86 @@ public abstract class EDIAbstractReader implements XMLReader
     return inputReader;
   }
 
+  /**
+   * Returns a ByteBufferInputStream for the EDI input of an InputSource, if the input is bytes in a
+   * single-byte character encoding that can be tokenized without first being decoded by a Reader.
+   * Input named by a file: SystemId is mapped into memory. The InputSource's ByteStream
+   * is replaced with the ByteBufferInputStream, so that the tokenizers of later interchanges
+   * in the same input continue from where the previous one stopped.
+   *
+   * @param source EDI input
+   * @return ByteBufferInputStream, or null if the input must be read through a Reader
+   * @throws IOException if problem opening the input
+   */
+  protected static ByteBufferInputStream createByteInput(InputSource source) throws IOException
+  {
+    if (source == null || source.getCharacterStream() != null)
+      return null;
+
+    InputStream inputStream = source.getByteStream();
+    if (inputStream instanceof ByteBufferInputStream)
+      return (ByteBufferInputStream) inputStream;
+
+    Charset charset = getCharset(source);
+    if (!ByteBufferInputStream.isSingleByte(charset))
+      return null;
+
+    ByteBufferInputStream result;
+    if (inputStream != null)
+      result = new ByteBufferInputStream(inputStream, charset);
+    else if (source.getSystemId() != null && source.getSystemId().startsWith("file:"))
+      result = ByteBufferInputStream.open(new File(source.getSystemId().substring(5)), charset);
+    else
+      return null;
+
+    source.setByteStream(result);
+    return result;
+  }
+
+  /**
+   * Creates a Tokenizer for the EDI input of an InputSource, choosing an EDITokenizerBytes
+   * if the input can be tokenized as bytes and an EDITokenizerNIO otherwise.
+   *
+   * @param source  EDI input
+   * @param preRead chars of EDI input data to be used before reading from the source, or null
+   * @return Tokenizer
+   * @throws IOException if problem opening the input
+   */
+  protected static Tokenizer createTokenizer(InputSource source, char[] preRead) throws IOException
+  {
+    ByteBufferInputStream byteInput = createByteInput(source);
+    if (byteInput != null)
+      return new EDITokenizerBytes(byteInput, preRead);
+
+    Reader inputReader = createReader(source);
+    source.setCharacterStream(inputReader);
+    EDITokenizerNIO result = new EDITokenizerNIO(inputReader, preRead, EDIReaderFactory.getTokenizerBufferSize());
+    result.setAdaptive(EDIReaderFactory.isAdaptiveBuffering());
+    return result;
+  }
+
+  /**
+   * Returns the character encoding of the bytes of an InputSource: the encoding
+   * named by the InputSource if there is one, and the platform default otherwise.
+   *
+   * @param source EDI input
+   * @return Charset
+   * @throws IOException if the named encoding is not supported
+   */
+  protected static Charset getCharset(InputSource source) throws IOException
+  {
+    String encoding = source.getEncoding();
+    if (encoding == null)
+      return Charset.defaultCharset();
+    try
+    {
+      return Charset.forName(encoding);
+    } catch (IllegalArgumentException e)
+    {
+      throw new UnsupportedEncodingException(encoding);
+    }
+  }
+
   /**
    * Prepare the parser for its parse method to be called. This involves
    * previewing some of the interchange to discover syntactic details, and
@@ -363,11 +453,9 @@ public abstract class EDIAbstractReader implements XMLReader
     if (EDIReader.debug)
       trace("EDIAbstractReader.parseSetup()");
 
-    Reader inputReader = createReader(source);
-
     if (tokenizer == null)
     {
-      setTokenizer(new EDITokenizerNIO(inputReader));
+      setTokenizer(createTokenizer(source, null));
       if (EDIReader.debug)
         trace("Constructed new tokenizer because this reader did not have one");
     }
@@ -390,6 +478,82 @@ public abstract class EDIAbstractReader implements XMLReader
 
   }
 
+  /**
+   * Prepares this reader to parse another interchange, from a new source, without allocating
+   * a new tokenizer or new attribute lists. The reader keeps its configuration, such as its
+   * ContentHandler and acknowledgment Writer, but discards everything learned from the previous
+   * interchange. Any leading whitespace is skipped and the new interchange is previewed.
+   *
+   * @param source provides read access to the EDI data
+   * @return false if the source contains no more data, true otherwise
+   * @throws EDISyntaxException if invalid EDI is detected
+   * @throws IOException        if problem reading source
+   */
+  public boolean reset(InputSource source) throws EDISyntaxException, IOException
+  {
+    resetState();
+    if (tokenizer instanceof EDITokenizerNIO && createByteInput(source) == null)
+    {
+      Reader inputReader = createReader(source);
+      tokenizer.reset(inputReader, null);
+      source.setCharacterStream(inputReader);
+    }
+    else
+      setTokenizer(createTokenizer(source, null));
+
+    tokenizer.scanTerminatorSuffix();
+    if (tokenizer.isEndOfData())
+      return false;
+
+    preview();
+    return true;
+  }
+
+  /**
+   * Discards the state of the reader that pertains to a particular interchange.
+   * Subclasses that hold additional interchange state override this method, calling
+   * the superclass implementation.
+   */
+  protected void resetState()
+  {
+    delimiter = 0;
+    subDelimiter = 0;
+    subSubDelimiter = 0;
+    decimalMark = 0;
+    repetitionSeparator = 0;
+    terminator = 0;
+    release = 0;
+    terminatorSuffix = null;
+    firstSegment = null;
+    previewed = false;
+    interchangeAttributes.clear();
+    noAttributes.clear();
+    groupAttributes.clear();
+    documentAttributes.clear();
+  }
+
+  /**
+   * Returns the configuration of the reader, such as its ContentHandler, to the
+   * state of a newly constructed instance. Used when a reader is pooled for reuse.
+   */
+  protected void resetConfiguration()
+  {
+    contentHandler = null;
+    syntaxExceptionHandler = null;
+    errorHandler = null;
+    entityResolver = null;
+    ackStream = null;
+    interchangeAcknowledgment = false;
+    copyWriter = null;
+    externalXmlDocumentStart = false;
+    namespaceEnabled = false;
+    acknowledgmentSyntaxDescriptor = null;
+    transactionCallback = null;
+    documentPool = null;
+    envelopeOnly = false;
+    transactionFilter = null;
+  }
+
   /**
    * Preview the EDI interchange to discover syntactic details that will be
    * useful to know before the actual parse method is called.
@@ -447,6 +611,64 @@ public abstract class EDIAbstractReader implements XMLReader
     this.transactionCallback = transactionCallback;
   }
 
+  public ForkJoinPool getDocumentPool()
+  {
+    return documentPool;
+  }
+
+  /**
+   * Designates a ForkJoinPool on which the transaction sets (ST/SE) or messages (UNH/UNT)
+   * of an interchange are to be parsed in parallel. The main thread locates each one
+   * without tokenizing it and parses the enveloping segments, including the validation
+   * of group and interchange trailers, while the transactions are parsed on the pool.
+   * The SAX events are delivered in their original order by the thread that called parse().
+   * Transactions are parsed sequentially if acknowledgments are being generated or a
+   * TransactionCallback has been set, since the callback must be called on the thread
+   * reading the input, before the elements of the ST or UNH segment are read.
+   *
+   * @param documentPool ForkJoinPool, or null to parse transactions sequentially
+   */
+  public void setDocumentPool(ForkJoinPool documentPool)
+  {
+    this.documentPool = documentPool;
+  }
+
+  public boolean isEnvelopeOnly()
+  {
+    return envelopeOnly;
+  }
+
+  /**
+   * Selects a mode in which only the envelope of each interchange is parsed. The segments
+   * within each transaction set or message are skipped at the character level, except for
+   * BIN or UNO sequences, and no SAX events are emitted for them. The trailer segment counts and
+   * control numbers are validated as usual, and the interchange, group and transaction elements
+   * carry the same attributes as in a full parse, but contain no loops or segments.
+   *
+   * @param envelopeOnly true to parse only the envelope
+   */
+  public void setEnvelopeOnly(boolean envelopeOnly)
+  {
+    this.envelopeOnly = envelopeOnly;
+  }
+
+  public TransactionFilter getTransactionFilter()
+  {
+    return transactionFilter;
+  }
+
+  /**
+   * Designates a TransactionFilter that selects the transaction sets or messages to be parsed.
+   * Those that it does not accept are skipped at the character level, with only their
+   * segments counted to validate the SE or UNT trailer, and no SAX events are emitted for them.
+   *
+   * @param transactionFilter TransactionFilter, or null to parse every transaction
+   */
+  public void setTransactionFilter(TransactionFilter transactionFilter)
+  {
+    this.transactionFilter = transactionFilter;
+  }
+
   public EDISyntaxExceptionHandler getSyntaxExceptionHandler()
   {
     return syntaxExceptionHandler;
@@ -596,6 +818,48 @@ public abstract class EDIAbstractReader implements XMLReader
     return tokenizer == null ? 0 : tokenizer.getSegmentCharCount();
   }
 
+  /**
+   * Returns the char offset, within the entire input, of the next char to be parsed.
+   *
+   * @return char offset
+   */
+  public long getCharOffset()
+  {
+    return tokenizer == null ? 0 : tokenizer.getCharOffset();
+  }
+
+  /**
+   * Returns the char offset, within the entire input, of the first char of the segment being parsed.
+   *
+   * @return char offset
+   */
+  public long getSegmentStartOffset()
+  {
+    return tokenizer == null ? 0 : tokenizer.getSegmentStartOffset();
+  }
+
+  /**
+   * Returns the byte offset, within the entire input, of the next byte to be parsed,
+   * or -1 if it is not known because the input is read as chars.
+   *
+   * @return byte offset, or -1
+   */
+  public long getByteOffset()
+  {
+    return tokenizer == null ? -1 : tokenizer.getByteOffset();
+  }
+
+  /**
+   * Returns the byte offset, within the entire input, of the first byte of the segment being parsed,
+   * or -1 if it is not known because the input is read as chars.
+   *
+   * @return byte offset, or -1
+   */
+  public long getSegmentStartByteOffset()
+  {
+    return tokenizer == null ? -1 : tokenizer.getSegmentStartByteOffset();
+  }
+
   public String getFirstSegment()
   {
     return firstSegment;
@@ -639,7 +903,9 @@ public abstract class EDIAbstractReader implements XMLReader
       " terminator: " + getTerminator() + lineBreak +
       " terminatorSuffix: " + getTerminatorSuffix() + lineBreak +
       " charCount: " + getCharCount() + lineBreak +
-      " segmentCharCount: " + getSegmentCharCount() + lineBreak;
+      " segmentCharCount: " + getSegmentCharCount() + lineBreak +
+      " charOffset: " + getCharOffset() + lineBreak +
+      " segmentStartOffset: " + getSegmentStartOffset() + lineBreak;
   }
 
   /**
@@ -0,0 +1,796 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader;
+
+import com.berryworks.edireader.error.ErrorMessages;
+import com.berryworks.edireader.error.EDISyntaxExceptionHandler;
+import com.berryworks.edireader.error.GroupControlNumberException;
+import com.berryworks.edireader.error.GroupCountException;
+import com.berryworks.edireader.error.InterchangeControlNumberException;
+import com.berryworks.edireader.error.RecoverableSyntaxException;
+import com.berryworks.edireader.error.SegmentCountException;
+import com.berryworks.edireader.error.TransactionControlNumberException;
+import com.berryworks.edireader.error.TransactionCountException;
+import com.berryworks.edireader.tokenizer.Token;
+import com.berryworks.edireader.tokenizer.Tokenizer;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads ANSI X.12 and EDIFACT interchanges as a sequence of events pulled by the caller,
+ * as an alternative to the SAX events pushed by an EDIReader.
+ * <p/>
+ * Each call to next() returns the type of the next event: the start or end of an
+ * interchange, group, transaction, loop or segment, or an element value. The details of the
+ * current event are available from typed accessors. Element values are available as views of
+ * the tokenizer's buffer, so no String or Attributes object is constructed unless one is
+ * requested, for example with getTextAsString(). The envelope segments (ISA, GS, ST and their
+ * trailers, or UNB, UNG, UNH and their trailers) do not appear as segment events; their elements
+ * are available from getEnvelopeElement() while the corresponding start or end event is current.
+ * <p/>
+ * Loops are determined by the same plugins as with an EDIReader, and the trailer segment
+ * counts and control numbers are validated in the same way. A RecoverableSyntaxException is
+ * passed to the EDISyntaxExceptionHandler, if there is one, and thrown by next() unless the
+ * handler chooses to continue. A caller not interested in a structure can skip() it. A transaction
+ * skipped in this way is scanned a segment at a time, without emitting events or consulting
+ * the plugin.
+ * <p/>
+ * BIN and UNO segments, and EDIFACT messages that are not enclosed in a UNB interchange,
+ * are not supported.
+ */
+public class EDIEventReader implements ErrorMessages
+{
+  public enum EventType
+  {
+    START_INTERCHANGE, END_INTERCHANGE, START_GROUP, END_GROUP, START_TRANSACTION, END_TRANSACTION,
+    START_LOOP, END_LOOP, START_SEGMENT, END_SEGMENT, ELEMENT, END_OF_INPUT
+  }
+
+  private enum Phase
+  {
+    BETWEEN_INTERCHANGES, ENVELOPE, TRANSACTION, SEGMENT, FINISHED
+  }
+
+  private final InputSource source;
+  private final ArrayDeque<EventType> queued = new ArrayDeque<EventType>();
+  private final ArrayDeque<String> loops = new ArrayDeque<String>();
+  private final List<List<String>> envelope = new ArrayList<List<String>>();
+  private EDISyntaxExceptionHandler syntaxExceptionHandler;
+
+  private EDIReader reader;
+  private Tokenizer tokenizer;
+  private Token token;
+  private boolean ansi;
+  private long offset;
+
+  private Phase phase = Phase.BETWEEN_INTERCHANGES;
+  private Phase segmentContext;
+  private EventType eventType;
+  private String segmentType;
+  private String enteredLoop;
+  private String loopId;
+
+  private String interchangeControlNumber;
+  private String groupControlNumber;
+  private String groupStandardCode;
+  private String groupVersion;
+  private String transactionControlNumber;
+  private String documentType;
+  private boolean inGroup;
+  private boolean implicitGroup;
+  private int groupCount;
+  private int transactionCount;
+  private int segmentCount;
+  private PluginController pluginController;
+
+  /**
+   * Constructs an EDIEventReader for the interchanges of an InputSource.
+   *
+   * @param source EDI input
+   */
+  public EDIEventReader(InputSource source)
+  {
+    this.source = source;
+  }
+
+  /**
+   * Returns true unless the END_OF_INPUT event has been returned by next().
+   *
+   * @return true if there is another event
+   */
+  public boolean hasNext()
+  {
+    return eventType != EventType.END_OF_INPUT;
+  }
+
+  /**
+   * Advances to the next event.
+   *
+   * @return type of the event
+   * @throws SAXException if invalid EDI is detected
+   * @throws IOException  for problem reading EDI data
+   */
+  public EventType next() throws SAXException, IOException
+  {
+    if (eventType == EventType.END_OF_INPUT)
+      throw new NoSuchElementException();
+
+    while (queued.isEmpty())
+      advance();
+
+    eventType = queued.removeFirst();
+    if (eventType == EventType.START_LOOP)
+    {
+      loopId = enteredLoop;
+      loops.push(loopId);
+    }
+    else if (eventType == EventType.END_LOOP)
+      loopId = loops.pop();
+    return eventType;
+  }
+
+  /**
+   * Skips the remainder of the interchange, group, transaction, loop or segment whose
+   * start event is current, so that the corresponding end event becomes current.
+   *
+   * @return type of the event now current
+   * @throws SAXException if invalid EDI is detected
+   * @throws IOException  for problem reading EDI data
+   */
+  public EventType skip() throws SAXException, IOException
+  {
+    switch (eventType)
+    {
+      case START_SEGMENT:
+        tokenizer.skipSegment();
+        phase = segmentContext;
+        eventType = EventType.END_SEGMENT;
+        return eventType;
+
+      case START_TRANSACTION:
+        // Everything up to the trailer can be skipped without regard to loops
+        String trailer = ansi ? "SE" : "UNT";
+        String type;
+        while (!(type = tokenizer.nextSegment()).equals(trailer))
+        {
+          checkSupported(type);
+          segmentCount++;
+          tokenizer.skipSegment();
+        }
+        loops.clear();
+        endTransaction();
+        return next();
+
+      case START_LOOP:
+      case START_GROUP:
+      case START_INTERCHANGE:
+        int depth = 1;
+        while (depth > 0)
+        {
+          switch (next())
+          {
+            case START_SEGMENT:
+            case START_TRANSACTION:
+              skip();
+              break;
+            case START_LOOP:
+            case START_GROUP:
+            case START_INTERCHANGE:
+              depth++;
+              break;
+            case END_LOOP:
+            case END_GROUP:
+            case END_INTERCHANGE:
+              depth--;
+              break;
+            default:
+          }
+        }
+        return eventType;
+
+      default:
+        throw new IllegalStateException("skip() cannot be called at " + eventType);
+    }
+  }
+
+  /**
+   * Releases the resources used by this reader. The reader cannot be used afterward.
+   */
+  public void close()
+  {
+    EDIReaderFactory.release(reader);
+    reader = null;
+    tokenizer = null;
+    phase = Phase.FINISHED;
+  }
+
+  public EventType getEventType()
+  {
+    return eventType;
+  }
+
+  /**
+   * Returns the standard of the current interchange.
+   *
+   * @return "ANSI X.12" or "EDIFACT"
+   */
+  public String getStandard()
+  {
+    return ansi ? "ANSI X.12" : "EDIFACT";
+  }
+
+  /**
+   * Returns the type of the current segment, such as "N1".
+   *
+   * @return segment type
+   */
+  public String getSegmentType()
+  {
+    return segmentType;
+  }
+
+  /**
+   * Returns the id of the loop that is started or ended by the current event.
+   *
+   * @return loop id
+   */
+  public String getLoopId()
+  {
+    return loopId;
+  }
+
+  /**
+   * Returns the number of loops within the current transaction that have been started but not ended.
+   *
+   * @return nesting level
+   */
+  public int getLoopDepth()
+  {
+    return loops.size();
+  }
+
+  /**
+   * Returns the id of the current element, such as "N101".
+   *
+   * @return element id
+   */
+  public String getElementId()
+  {
+    return token.getElementId();
+  }
+
+  /**
+   * Returns the position of the current element within its segment, origin 1.
+   *
+   * @return element index
+   */
+  public int getElementIndex()
+  {
+    return token.getIndex();
+  }
+
+  /**
+   * Returns the position of the current element within its composite element, origin 0,
+   * or -1 if it is not part of a composite.
+   *
+   * @return subelement index, or -1
+   */
+  public int getSubElementIndex()
+  {
+    return token.getType() == Token.TokenType.SUB_ELEMENT ? token.getSubIndex() : -1;
+  }
+
+  /**
+   * Returns the value of the current element. The CharSequence is reused,
+   * so its content is valid only until next() is called.
+   *
+   * @return value of the element
+   */
+  public CharSequence getText()
+  {
+    return token.getValueCharSequence();
+  }
+
+  /**
+   * Returns a shared array whose first getTextLength() chars are the value of the current element.
+   * The array is reused, so its content is valid only until next() is called.
+   *
+   * @return shared array holding the value
+   */
+  public char[] getTextCharacters()
+  {
+    return token.getValueBuffer();
+  }
+
+  public int getTextLength()
+  {
+    return token.getValueLength();
+  }
+
+  /**
+   * Returns the value of the current element as a new String.
+   *
+   * @return value of the element
+   */
+  public String getTextAsString()
+  {
+    return token.getValue();
+  }
+
+  /**
+   * Returns an element of the envelope segment of the current START_ or END_ event for an
+   * interchange, group or transaction, with the subelements of a composite separated by the
+   * subelement delimiter.
+   *
+   * @param index position of the element in the segment, origin 1
+   * @return value of the element, or an empty String if it is absent
+   */
+  public String getEnvelopeElement(int index)
+  {
+    if (index >= envelope.size())
+      return "";
+    List<String> element = envelope.get(index);
+    if (element.size() == 1)
+      return element.get(0);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < element.size(); i++)
+    {
+      if (i > 0)
+        sb.append(tokenizer.getSubDelimiter());
+      sb.append(element.get(i));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns a subelement of a composite element of the current envelope segment.
+   *
+   * @param index    position of the element in the segment, origin 1
+   * @param subIndex position of the subelement in the element, origin 0
+   * @return value of the subelement, or an empty String if it is absent
+   */
+  public String getEnvelopeComponent(int index, int subIndex)
+  {
+    if (index >= envelope.size())
+      return "";
+    List<String> element = envelope.get(index);
+    return subIndex < element.size() ? element.get(subIndex) : "";
+  }
+
+  public String getInterchangeControlNumber()
+  {
+    return interchangeControlNumber;
+  }
+
+  public String getGroupControlNumber()
+  {
+    return groupControlNumber;
+  }
+
+  /**
+   * Returns true if the current group is implied by EDIFACT messages that are not enclosed
+   * by UNG and UNE segments. Such a group has no envelope elements and no control number.
+   *
+   * @return true if the group is implicit
+   */
+  public boolean isImplicitGroup()
+  {
+    return implicitGroup;
+  }
+
+  public String getTransactionControlNumber()
+  {
+    return transactionControlNumber;
+  }
+
+  /**
+   * Returns the type of the current transaction, such as "850" or "ORDERS".
+   *
+   * @return document type
+   */
+  public String getDocumentType()
+  {
+    return documentType;
+  }
+
+  /**
+   * Returns the name of the current transaction, as given by its plugin, or null if there is no plugin.
+   *
+   * @return document name, or null
+   */
+  public String getDocumentName()
+  {
+    return pluginController != null && pluginController.isEnabled() ? pluginController.getDocumentName() : null;
+  }
+
+  /**
+   * Returns the number of segments read so far in the current interchange.
+   *
+   * @return segment count
+   */
+  public int getSegmentCount()
+  {
+    return tokenizer == null ? 0 : tokenizer.getSegmentCount();
+  }
+
+  /**
+   * Returns the char offset, within the entire input, of the segment most recently read.
+   *
+   * @return char offset
+   */
+  public long getSegmentStartOffset()
+  {
+    return tokenizer == null ? offset : tokenizer.getSegmentStartOffset();
+  }
+
+  public EDISyntaxExceptionHandler getSyntaxExceptionHandler()
+  {
+    return syntaxExceptionHandler;
+  }
+
+  public void setSyntaxExceptionHandler(EDISyntaxExceptionHandler syntaxExceptionHandler)
+  {
+    this.syntaxExceptionHandler = syntaxExceptionHandler;
+  }
+
+  private void advance() throws SAXException, IOException
+  {
+    switch (phase)
+    {
+      case BETWEEN_INTERCHANGES:
+        startInterchange();
+        break;
+      case ENVELOPE:
+        envelopeSegment();
+        break;
+      case TRANSACTION:
+        transactionSegment();
+        break;
+      case SEGMENT:
+        element();
+        break;
+      case FINISHED:
+        queued.add(EventType.END_OF_INPUT);
+        break;
+    }
+  }
+
+  private void startInterchange() throws SAXException, IOException
+  {
+    // The tokenizer of the previous interchange, if any, continues with the next one
+    Tokenizer previous = tokenizer;
+    if (reader != null)
+      reader.setTokenizer(null);
+    EDIReaderFactory.release(reader);
+    reader = previous == null ?
+      EDIReaderFactory.createEDIReader(source) : EDIReaderFactory.createEDIReader(previous);
+    if (reader == null)
+    {
+      tokenizer = null;
+      phase = Phase.FINISHED;
+      return;
+    }
+
+    if (reader instanceof AnsiReader)
+      ansi = true;
+    else if (reader instanceof EdifactReader && !(reader instanceof UNHReader))
+      ansi = false;
+    else
+      throw new EDISyntaxException("EDIEventReader supports only ANSI X.12 and EDIFACT interchanges");
+
+    tokenizer = reader.getTokenizer();
+    ((StandardReader) reader).configureTokenizer(tokenizer);
+    if (previous == null)
+      tokenizer.setStartingOffset(offset);
+
+    token = tokenizer.nextToken();
+    if (!ansi && token.getType() == Token.TokenType.SEGMENT_START && "UNA".equals(token.getValue()))
+    {
+      // The UNA has already been examined by the preview
+      tokenizer.skipSegment();
+      token = tokenizer.nextToken();
+    }
+    String header = ansi ? "ISA" : "UNB";
+    if (token.getType() != Token.TokenType.SEGMENT_START || !header.equals(token.getValue()))
+      throw new EDISyntaxException(UNEXPECTED_SEGMENT_IN_CONTEXT, header, token.getValue(), tokenizer);
+
+    readEnvelope(ansi);
+    interchangeControlNumber = getEnvelopeElement(ansi ? 13 : 5);
+    groupCount = 0;
+    inGroup = false;
+    phase = Phase.ENVELOPE;
+    queued.add(EventType.START_INTERCHANGE);
+  }
+
+  private void envelopeSegment() throws SAXException, IOException
+  {
+    String type = nextSegmentType();
+    String transactionHeader = ansi ? "ST" : "UNH";
+    if (inGroup)
+    {
+      if (type.equals(transactionHeader))
+      {
+        if (implicitGroup)
+          groupCount++;
+        transactionCount++;
+        startTransaction();
+      }
+      else if (!implicitGroup && type.equals(ansi ? "GE" : "UNE"))
+        endGroup();
+      else if (implicitGroup && type.equals("UNZ"))
+      {
+        inGroup = false;
+        queued.add(EventType.END_GROUP);
+        endInterchange();
+      }
+      else
+        throw new EDISyntaxException(UNEXPECTED_SEGMENT_IN_CONTEXT,
+          ansi ? "GE or ST" : implicitGroup ? "UNZ or UNH" : "UNE or UNH", type, tokenizer);
+    }
+    else if (type.equals(ansi ? "GS" : "UNG"))
+    {
+      groupCount++;
+      readEnvelope(false);
+      groupControlNumber = getEnvelopeElement(ansi ? 6 : 5);
+      groupStandardCode = getEnvelopeElement(7);
+      groupVersion = getEnvelopeElement(8);
+      transactionCount = 0;
+      inGroup = true;
+      implicitGroup = false;
+      queued.add(EventType.START_GROUP);
+    }
+    else if (!ansi && type.equals(transactionHeader))
+    {
+      // The messages of an interchange without UNG segments form an implicit group,
+      // as with an EdifactReader
+      groupCount++;
+      groupControlNumber = null;
+      transactionCount = 1;
+      inGroup = true;
+      implicitGroup = true;
+      queued.add(EventType.START_GROUP);
+      startTransaction();
+    }
+    else if (type.equals(ansi ? "IEA" : "UNZ"))
+      endInterchange();
+    else if (ansi && type.equals("TA1"))
+    {
+      segmentType = type;
+      segmentContext = Phase.ENVELOPE;
+      phase = Phase.SEGMENT;
+      queued.add(EventType.START_SEGMENT);
+    }
+    else
+      throw new EDISyntaxException(UNEXPECTED_SEGMENT_IN_CONTEXT,
+        ansi ? "IEA or GS" : "UNZ, UNG or UNH", type, tokenizer);
+  }
+
+  private void startTransaction() throws SAXException, IOException
+  {
+    readEnvelope(false);
+    segmentCount = 2;
+    if (ansi)
+    {
+      documentType = getEnvelopeElement(1);
+      transactionControlNumber = getEnvelopeElement(2);
+      String version = groupVersion.length() > 6 ? groupVersion.substring(0, 6) : groupVersion;
+      pluginController = PluginController.create("ANSI", documentType, groupStandardCode, version, tokenizer);
+    }
+    else
+    {
+      transactionControlNumber = getEnvelopeElement(1);
+      documentType = getEnvelopeComponent(2, 0);
+      pluginController = PluginController.create("EDIFACT", documentType,
+        getEnvelopeComponent(2, 1), getEnvelopeComponent(2, 2), tokenizer);
+    }
+    phase = Phase.TRANSACTION;
+    queued.add(EventType.START_TRANSACTION);
+  }
+
+  private void transactionSegment() throws SAXException, IOException
+  {
+    String type = nextSegmentType();
+    if (type.equals(ansi ? "SE" : "UNT"))
+    {
+      for (int toClose = pluginController.getNestingLevel(); toClose > 0; toClose--)
+        queued.add(EventType.END_LOOP);
+      endTransaction();
+      return;
+    }
+
+    checkSupported(type);
+    segmentCount++;
+    if (pluginController.transition(type))
+    {
+      for (int toClose = pluginController.closedCount(); toClose > 0; toClose--)
+        queued.add(EventType.END_LOOP);
+      if (!pluginController.isResumed())
+      {
+        enteredLoop = pluginController.getLoopEntered();
+        queued.add(EventType.START_LOOP);
+      }
+    }
+    segmentType = type;
+    segmentContext = Phase.TRANSACTION;
+    phase = Phase.SEGMENT;
+    queued.add(EventType.START_SEGMENT);
+  }
+
+  private void element() throws SAXException, IOException
+  {
+    token = tokenizer.nextToken();
+    switch (token.getType())
+    {
+      case SEGMENT_END:
+        phase = segmentContext;
+        queued.add(EventType.END_SEGMENT);
+        break;
+      case SIMPLE:
+        if (!StandardReader.isBlank(token.getValueCharSequence()))
+          queued.add(EventType.ELEMENT);
+        break;
+      case SUB_ELEMENT:
+        queued.add(EventType.ELEMENT);
+        break;
+      case EMPTY:
+      case SUB_EMPTY:
+        break;
+      case END_OF_DATA:
+        throw new EDISyntaxException(UNEXPECTED_EOF, tokenizer);
+      default:
+        throw new EDISyntaxException(MALFORMED_EDI_SEGMENT, tokenizer);
+    }
+  }
+
+  private void endTransaction() throws SAXException, IOException
+  {
+    readEnvelope(false);
+    int n = getEnvelopeCount();
+    if (n != segmentCount)
+      recover(new SegmentCountException(ansi ? COUNT_SE : COUNT_UNT, segmentCount, n, tokenizer));
+    String s = getEnvelopeElement(2);
+    if (!s.equals(transactionControlNumber))
+      recover(new TransactionControlNumberException(ansi ? CONTROL_NUMBER_SE : CONTROL_NUMBER_UNT,
+        transactionControlNumber, s, tokenizer));
+    phase = Phase.ENVELOPE;
+    queued.add(EventType.END_TRANSACTION);
+  }
+
+  private void endGroup() throws SAXException, IOException
+  {
+    readEnvelope(false);
+    int n = getEnvelopeCount();
+    String s = getEnvelopeElement(2);
+    if (ansi)
+    {
+      if (n != transactionCount)
+        recover(new TransactionCountException(COUNT_GE, transactionCount, n, tokenizer));
+      if (!s.equals(groupControlNumber))
+        recover(new GroupControlNumberException(CONTROL_NUMBER_GE, groupControlNumber, s, tokenizer));
+    }
+    else
+    {
+      if (n != transactionCount)
+        throw new EDISyntaxException("Transaction set count error in UNE segment. Expected "
+          + transactionCount + " instead of " + n, tokenizer);
+      if (!s.equals(groupControlNumber))
+        throw new EDISyntaxException("Control number error in UNE segment. Expected "
+          + groupControlNumber + " instead of " + s, tokenizer);
+    }
+    inGroup = false;
+    queued.add(EventType.END_GROUP);
+  }
+
+  private void endInterchange() throws SAXException, IOException
+  {
+    readEnvelope(false);
+    int n = getEnvelopeCount();
+    if (n != groupCount)
+      recover(new GroupCountException(ansi ? COUNT_IEA : COUNT_UNZ, groupCount, n, tokenizer));
+    String s = getEnvelopeElement(2);
+    if (!s.equals(interchangeControlNumber))
+      recover(new InterchangeControlNumberException(ansi ? CONTROL_NUMBER_IEA : CONTROL_NUMBER_UNZ,
+        interchangeControlNumber, s, tokenizer));
+
+    offset = tokenizer.getCharOffset();
+    phase = Phase.BETWEEN_INTERCHANGES;
+    queued.add(EventType.END_INTERCHANGE);
+  }
+
+  private String nextSegmentType() throws SAXException, IOException
+  {
+    token = tokenizer.nextToken();
+    if (token.getType() == Token.TokenType.END_OF_DATA)
+      throw new EDISyntaxException(UNEXPECTED_EOF, tokenizer);
+    if (token.getType() != Token.TokenType.SEGMENT_START)
+      throw new EDISyntaxException(INVALID_BEGINNING_OF_SEGMENT, tokenizer.getSegmentCount());
+    return token.getSegmentType();
+  }
+
+  private void checkSupported(String type) throws EDISyntaxException
+  {
+    if ("BIN".equals(type) || "UNO".equals(type))
+      throw new EDISyntaxException(type + " segments are not supported by EDIEventReader", tokenizer);
+  }
+
+  /**
+   * Reads the elements of an envelope segment, whose SEGMENT_START token has just been read.
+   *
+   * @param isa true if the segment is an ISA
+   */
+  private void readEnvelope(boolean isa) throws SAXException, IOException
+  {
+    envelope.clear();
+    int separator = tokenizer.getRepetitionSeparator();
+    if (isa)
+      // ISA11 may be the repetition char itself
+      tokenizer.setRepetitionSeparator(-1);
+    try
+    {
+      while (true)
+      {
+        Token t = tokenizer.nextToken();
+        Token.TokenType type = t.getType();
+        if (type == Token.TokenType.SEGMENT_END)
+          break;
+        if (type == Token.TokenType.END_OF_DATA)
+          throw new EDISyntaxException(UNEXPECTED_EOF, tokenizer);
+        if (type == Token.TokenType.SEGMENT_START)
+          throw new EDISyntaxException(MALFORMED_EDI_SEGMENT, tokenizer);
+        while (envelope.size() <= t.getIndex())
+          envelope.add(new ArrayList<String>(1));
+        List<String> element = envelope.get(t.getIndex());
+        if (type == Token.TokenType.SUB_EMPTY || type == Token.TokenType.EMPTY)
+          element.add("");
+        else
+          element.add(t.getValue());
+      }
+    } finally
+    {
+      if (isa)
+        tokenizer.setRepetitionSeparator(separator);
+    }
+  }
+
+  private int getEnvelopeCount() throws EDISyntaxException
+  {
+    String count = getEnvelopeElement(1);
+    try
+    {
+      return Integer.parseInt(count.trim());
+    } catch (NumberFormatException e)
+    {
+      throw new EDISyntaxException("Invalid count value: " + count, tokenizer);
+    }
+  }
+
+  private void recover(RecoverableSyntaxException e) throws RecoverableSyntaxException
+  {
+    if (syntaxExceptionHandler == null || !syntaxExceptionHandler.process(e))
+      throw e;
+  }
+}
@@ -21,6 +21,7 @@
 package com.berryworks.edireader;
 
 import com.berryworks.edireader.error.ErrorMessages;
+import com.berryworks.edireader.tokenizer.Tokenizer;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -77,13 +78,30 @@ public class EDIReader extends EDIAbstractReader implements ErrorMessages
   {
 
     startXMLDocument();
+    parseInterchanges(source, 0);
+    endXMLDocument();
+
+  }
 
-    char[] leftOver = null;
+  /**
+   * Parses each of the interchanges in the input source, delegating each one to an
+   * EDIReader created for its standard, without the start and end of the XML document.
+   *
+   * @param source EDI input
+   * @param offset char offset of the input source within the entire input
+   * @throws SAXException if invalid EDI is detected or the ContentHandler throws one
+   * @throws IOException  if problem reading the EDI input
+   */
+  protected void parseInterchanges(InputSource source, long offset) throws SAXException, IOException
+  {
+    Tokenizer tokenizer = null;
     while (true)
     {
       if (theReader == null)
       {
-        theReader = EDIReaderFactory.createEDIReader(source, leftOver);
+        // The tokenizer of the previous interchange, if any, continues with the next one
+        theReader = tokenizer == null ?
+          EDIReaderFactory.createEDIReader(source) : EDIReaderFactory.createEDIReader(tokenizer);
         if (theReader == null)
         {
           if (debug)
@@ -98,6 +116,12 @@ public class EDIReader extends EDIAbstractReader implements ErrorMessages
         theReader.setContentHandler(getContentHandler());
         theReader.setSyntaxExceptionHandler(getSyntaxExceptionHandler());
         theReader.setNamespaceEnabled(isNamespaceEnabled());
+        theReader.setTransactionCallback(getTransactionCallback());
+        theReader.setDocumentPool(getDocumentPool());
+        theReader.setEnvelopeOnly(isEnvelopeOnly());
+        theReader.setTransactionFilter(getTransactionFilter());
+        if (tokenizer == null)
+          theReader.getTokenizer().setStartingOffset(offset);
       }
       theReader.setXMLTags(xmlTags);
       theReader.parse(source);
@@ -106,12 +130,59 @@ public class EDIReader extends EDIAbstractReader implements ErrorMessages
       setTerminator(theReader.getTerminator());
       setTerminatorSuffix(theReader.getTerminatorSuffix());
 
-      leftOver = theReader.getTokenizer().getBuffered();
+      tokenizer = theReader.getTokenizer();
+      theReader.setTokenizer(null);
+      EDIReaderFactory.release(theReader);
       theReader = null;
     }
+  }
 
-    endXMLDocument();
+  @Override
+  protected void resetState()
+  {
+    super.resetState();
+    theReader = null;
+  }
+
+  /**
+   * Returns the char offset of the next char to be parsed by the reader
+   * for the current interchange, within the entire input.
+   */
+  @Override
+  public long getCharOffset()
+  {
+    return theReader == null ? super.getCharOffset() : theReader.getCharOffset();
+  }
 
+  @Override
+  public long getSegmentStartOffset()
+  {
+    return theReader == null ? super.getSegmentStartOffset() : theReader.getSegmentStartOffset();
+  }
+
+  @Override
+  public long getByteOffset()
+  {
+    return theReader == null ? super.getByteOffset() : theReader.getByteOffset();
+  }
+
+  @Override
+  public long getSegmentStartByteOffset()
+  {
+    return theReader == null ? super.getSegmentStartByteOffset() : theReader.getSegmentStartByteOffset();
+  }
+
+  @Override
+  public int getSegmentCharCount()
+  {
+    return theReader == null ? super.getSegmentCharCount() : theReader.getSegmentCharCount();
+  }
+
+  @Override
+  protected void resetConfiguration()
+  {
+    super.resetConfiguration();
+    xmlTags = null;
   }
 
   public void setXMLTags(XMLTags tags)
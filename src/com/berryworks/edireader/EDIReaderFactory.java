@@ -21,12 +21,16 @@
 package com.berryworks.edireader;
 
 import com.berryworks.edireader.error.ErrorMessages;
+import com.berryworks.edireader.tokenizer.ByteBufferInputStream;
+import com.berryworks.edireader.tokenizer.EDITokenizerBytes;
 import com.berryworks.edireader.tokenizer.EDITokenizerNIO;
 import com.berryworks.edireader.tokenizer.Tokenizer;
 import org.xml.sax.InputSource;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Creates a subclass of EDIReader appropriate for parsing a particular EDI
@@ -38,6 +42,31 @@ import java.io.Reader;
 public class EDIReaderFactory
 {
 
+  /**
+   * Initial size, in chars, of the input buffer of each tokenizer created by this factory.
+   * The default can be set with the system property edireader.bufferSize.
+   */
+  private static volatile int tokenizerBufferSize =
+    Integer.getInteger("edireader.bufferSize", EDITokenizerNIO.BUFFER_SIZE);
+
+  /**
+   * If true, the input buffer of each tokenizer created by this factory grows while
+   * the input keeps filling it. The default can be set with the system property edireader.adaptiveBuffer.
+   */
+  private static volatile boolean adaptiveBuffering = Boolean.getBoolean("edireader.adaptiveBuffer");
+
+  /**
+   * Readers and a tokenizer released by each thread for reuse by that thread.
+   */
+  private static final ThreadLocal<ReaderPool> pool = new ThreadLocal<ReaderPool>()
+  {
+    @Override
+    protected ReaderPool initialValue()
+    {
+      return new ReaderPool();
+    }
+  };
+
   /**
    * Equivalent to createEDIReader(source, debugging=false)
    *
@@ -103,17 +132,58 @@ public class EDIReaderFactory
   public static EDIReader createEDIReader(InputSource source, char[] preRead, boolean debug)
     throws EDISyntaxException, IOException
   {
-    Reader inputReader = EDIAbstractReader.createReader(source);
-    Tokenizer tokenizer =
-      (preRead == null || preRead.length == 0) ?
-        new EDITokenizerNIO(inputReader) :
-        new EDITokenizerNIO(inputReader, preRead);
+    ReaderPool readerPool = pool.get();
+    Tokenizer tokenizer;
+    Reader inputReader = null;
+    ByteBufferInputStream byteInput = EDIAbstractReader.createByteInput(source);
+    if (byteInput != null)
+      tokenizer = new EDITokenizerBytes(byteInput, preRead);
+    else
+    {
+      inputReader = EDIAbstractReader.createReader(source);
+      tokenizer = readerPool.takeTokenizer(inputReader, preRead);
+    }
+
+    EDIReader parser = createEDIReader(tokenizer, debug);
+    if (parser != null && inputReader != null)
+      source.setCharacterStream(inputReader);
+    return parser;
+  }
+
+  /**
+   * Factory method to create an instance of a subclass of EDIReader for the next interchange
+   * of an input whose previous interchange was parsed with the given tokenizer. The tokenizer
+   * is rearmed and used by the created EDIReader, so the chars it has read ahead need not be
+   * copied into a new one. The tokenizer must have been obtained from an EDIReader created by
+   * this factory, and detached from that EDIReader before it is released.
+   * If the input is exhausted, null is returned and the tokenizer may be reused by the factory.
+   *
+   * @param tokenizer tokenizer that parsed the previous interchange
+   * @return created EDIReader instance, or null at the end of the input
+   * @throws java.io.IOException for problem reading EDI data
+   * @throws EDISyntaxException  if invalid EDI is detected
+   */
+  public static EDIReader createEDIReader(Tokenizer tokenizer)
+    throws EDISyntaxException, IOException
+  {
+    tokenizer.rearm();
+    return createEDIReader(tokenizer, false);
+  }
+
+  private static EDIReader createEDIReader(Tokenizer tokenizer, boolean debug)
+    throws EDISyntaxException, IOException
+  {
+    ReaderPool readerPool = pool.get();
 
     // Skip past any leading whitespace
     tokenizer.scanTerminatorSuffix();
 
     if (tokenizer.isEndOfData())
+    {
+      if (tokenizer instanceof EDITokenizerNIO)
+        readerPool.tokenizer = (EDITokenizerNIO) tokenizer;
       return null;
+    }
 
     // Grab the first few characters
     char[] buf = tokenizer.lookahead(3);
@@ -122,20 +192,77 @@ public class EDIReaderFactory
 
     // Get an appropriate parser, based on the first few characters
     String asString = new String(buf);
-    EDIReader parser = ParserRegistry.get(asString);
+    EDIReader parser = readerPool.takeReader(ParserRegistry.getParserClass(asString));
+    if (parser == null)
+      parser = ParserRegistry.get(asString);
     if (parser == null)
       throw new EDISyntaxException(ErrorMessages.NO_STANDARD_BEGINS_WITH + asString);
 
     if (debug)
       trace("parser constructed of type " + parser.getClass().getName());
 
-    source.setCharacterStream(inputReader);
     parser.setTokenizer(tokenizer);
     parser.preview();
 
     return parser;
   }
 
+  /**
+   * Returns an EDIReader obtained from this factory so that it, along with its tokenizer, can be reused
+   * by a later call to createEDIReader() on the same thread. The EDIReader must not be used by the
+   * caller after it has been released. Releasing readers avoids the cost of constructing a new parser
+   * and a new tokenizer for each interchange when many small interchanges are parsed.
+   *
+   * @param parser EDIReader no longer needed by the caller
+   */
+  public static void release(EDIReader parser)
+  {
+    if (parser == null)
+      return;
+    ReaderPool readerPool = pool.get();
+    Tokenizer tokenizer = parser.getTokenizer();
+    if (tokenizer instanceof EDITokenizerNIO)
+      readerPool.tokenizer = (EDITokenizerNIO) tokenizer;
+    parser.setTokenizer(null);
+    parser.resetConfiguration();
+    parser.resetState();
+    readerPool.readers.put(parser.getClass(), parser);
+  }
+
+  /**
+   * Sets the initial size, in chars, of the input buffer of tokenizers created by this factory.
+   *
+   * @param size buffer size in chars
+   */
+  public static void setTokenizerBufferSize(int size)
+  {
+    if (size < 1)
+      throw new IllegalArgumentException("Tokenizer buffer size must be positive: " + size);
+    tokenizerBufferSize = size;
+  }
+
+  public static int getTokenizerBufferSize()
+  {
+    return tokenizerBufferSize;
+  }
+
+  /**
+   * Sets whether the input buffers of tokenizers created by this factory grow, up to
+   * EDITokenizerNIO.MAXIMUM_ADAPTIVE_BUFFER_SIZE chars, while the input keeps filling them.
+   * This reduces the number of calls to the Reader when parsing large streams.
+   *
+   * @param adaptive true to let the buffers grow
+   */
+  public static void setAdaptiveBuffering(boolean adaptive)
+  {
+    adaptiveBuffering = adaptive;
+  }
+
+  public static boolean isAdaptiveBuffering()
+  {
+    return adaptiveBuffering;
+  }
+
   /**
    * Shorthand for EDIReader.trace(String)
    *
@@ -146,4 +273,30 @@ public class EDIReaderFactory
     EDIAbstractReader.trace(string);
   }
 
+  /**
+   * The idle readers and tokenizer of one thread, at most one reader of each class.
+   */
+  private static class ReaderPool
+  {
+    final Map<Class<? extends EDIReader>, EDIReader> readers = new HashMap<Class<? extends EDIReader>, EDIReader>();
+    EDITokenizerNIO tokenizer;
+
+    Tokenizer takeTokenizer(Reader inputReader, char[] preRead)
+    {
+      EDITokenizerNIO result = tokenizer;
+      tokenizer = null;
+      if (result == null)
+        result = new EDITokenizerNIO(inputReader, preRead, tokenizerBufferSize);
+      else
+        result.reset(inputReader, preRead);
+      result.setAdaptive(adaptiveBuffering);
+      return result;
+    }
+
+    EDIReader takeReader(Class<? extends EDIReader> parserClass)
+    {
+      return parserClass == null ? null : readers.remove(parserClass);
+    }
+  }
+
 }
@@ -28,6 +28,7 @@ import org.xml.sax.*;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This EDIReader subclass wraps an EDIReader delegate, providing an opportunity to decorate
@@ -170,6 +171,36 @@ public class EDIReaderWrapper extends EDIReader {
         wrappedEDIReader.setTransactionCallback(transactionCallback);
     }
 
+    @Override
+    public ForkJoinPool getDocumentPool() {
+        return wrappedEDIReader.getDocumentPool();
+    }
+
+    @Override
+    public void setDocumentPool(ForkJoinPool documentPool) {
+        wrappedEDIReader.setDocumentPool(documentPool);
+    }
+
+    @Override
+    public boolean isEnvelopeOnly() {
+        return wrappedEDIReader.isEnvelopeOnly();
+    }
+
+    @Override
+    public void setEnvelopeOnly(boolean envelopeOnly) {
+        wrappedEDIReader.setEnvelopeOnly(envelopeOnly);
+    }
+
+    @Override
+    public TransactionFilter getTransactionFilter() {
+        return wrappedEDIReader.getTransactionFilter();
+    }
+
+    @Override
+    public void setTransactionFilter(TransactionFilter transactionFilter) {
+        wrappedEDIReader.setTransactionFilter(transactionFilter);
+    }
+
     @Override
     public EDISyntaxExceptionHandler getSyntaxExceptionHandler() {
         return wrappedEDIReader.getSyntaxExceptionHandler();
@@ -270,6 +301,26 @@ public class EDIReaderWrapper extends EDIReader {
         return wrappedEDIReader.getSegmentCharCount();
     }
 
+    @Override
+    public long getCharOffset() {
+        return wrappedEDIReader.getCharOffset();
+    }
+
+    @Override
+    public long getSegmentStartOffset() {
+        return wrappedEDIReader.getSegmentStartOffset();
+    }
+
+    @Override
+    public long getByteOffset() {
+        return wrappedEDIReader.getByteOffset();
+    }
+
+    @Override
+    public long getSegmentStartByteOffset() {
+        return wrappedEDIReader.getSegmentStartByteOffset();
+    }
+
     @Override
     public void setDelimiter(char delimiter) {
         wrappedEDIReader.setDelimiter(delimiter);
@@ -45,6 +45,14 @@ public class EdifactReader extends StandardReader
   protected boolean ungExplicit;
   protected boolean witnessedUNA;
 
+  @Override
+  protected void resetState()
+  {
+    super.resetState();
+    ungExplicit = false;
+    witnessedUNA = false;
+  }
+
   @Override
   protected Token recognizeBeginning() throws IOException, SAXException
   {
@@ -153,6 +161,7 @@ public class EdifactReader extends StandardReader
      */
     setInterchangeControlNumber(getTokenizer().nextSimpleValue());
     getInterchangeAttributes().addCDATA(getXMLTags().getControl(), getInterchangeControlNumber());
+    getTransactionHeader().setInterchange("EDIFACT", fromId, toId, getInterchangeControlNumber());
 
     remainderOfUNB();
 
@@ -318,12 +327,13 @@ public class EdifactReader extends StandardReader
     getGroupAttributes().clear();
     getGroupAttributes().addCDATA("GroupType", getTokenizer().nextSimpleValue());
 
-    getTokenizer().nextCompositeElement();
-    getTokenizer().nextCompositeElement();
+    String groupSender = getSubElement(getTokenizer().nextCompositeElement(), 0);
+    String groupReceiver = getSubElement(getTokenizer().nextCompositeElement(), 0);
     getTokenizer().nextCompositeElement();
 
     setGroupControlNumber(getTokenizer().nextSimpleValue());
     getGroupAttributes().addCDATA(getXMLTags().getControl(), getGroupControlNumber());
+    getTransactionHeader().setGroup(groupSender, groupReceiver, getGroupControlNumber(), null);
     getGroupAttributes().addCDATA("StandardCode", getTokenizer().nextSimpleValue());
 
     getTokenizer().nextCompositeElement();
@@ -343,7 +353,7 @@ public class EdifactReader extends StandardReader
       if (sType.equals("UNH"))
       {
         docCount++;
-        parseDocument(token);
+        dispatchDocument(token);
       }
       else if (sType.equals("UNE"))
       {
@@ -403,7 +413,7 @@ public class EdifactReader extends StandardReader
       if (sType.equals("UNH"))
       {
         setGroupCount(1 + getGroupCount());
-        parseDocument(token);
+        dispatchDocument(token);
         token = getTokenizer().nextToken();
       }
       else if (sType.equals("UNZ"))
@@ -439,95 +449,83 @@ public class EdifactReader extends StandardReader
     String messageRelease = "";
     int segCount = 2;
 
-    getDocumentAttributes().clear();
-    getDocumentAttributes().addCDATA(getXMLTags().getControl(),
-      control = getTokenizer().nextSimpleValue());
+    control = getTokenizer().nextSimpleValue();
     List<String> v = getTokenizer().nextCompositeElement();
-    if (v != null)
-    {
-      int n = v.size();
-      Object obj = v.get(0);
-      if (obj != null)
-      {
-        messageType = (String) obj;
-        getDocumentAttributes().addCDATA(getXMLTags().getDocumentType(),
-          messageType);
-      }
-      if (n > 1)
-      {
-        obj = v.get(1);
-        if (obj != null)
-        {
-          messageVersion = (String) obj;
-          getDocumentAttributes().addCDATA(getXMLTags()
-            .getMessageVersion(), messageVersion);
-        }
-      }
-      if (n > 2)
-      {
-        obj = v.get(2);
-        if (obj != null)
-        {
-          messageRelease = (String) obj;
-          getDocumentAttributes().addCDATA(getXMLTags()
-            .getMessageRelease(), messageRelease);
-        }
-      }
-      if (n > 3)
-      {
-        obj = v.get(3);
-        if (obj != null)
-        {
-          getDocumentAttributes().addCDATA(getXMLTags().getAgency(),
-            (String) obj);
-        }
-      }
-      if (n > 4)
-      {
-        obj = v.get(4);
-        if (obj != null)
-        {
-          getDocumentAttributes().addCDATA(getXMLTags().getAssociation(),
-            (String) obj);
-        }
-      }
-    }
-
     String accessReference = getTokenizer().nextSimpleValue(false, true);
-    if (emptyStringIfNull(accessReference).length() > 0)
-    {
-      getDocumentAttributes().addCDATA(getXMLTags().getAccessReference(), accessReference);
-    }
 
-    PluginController pluginController = PluginController.create("EDIFACT", messageType, messageVersion, messageRelease, getTokenizer());
-    PluginController.setDebug(debug);
-    if (pluginController.isEnabled())
-      getDocumentAttributes().addCDATA(getXMLTags().getName(), pluginController.getDocumentName());
-
-    startMessage(getDocumentAttributes());
+    int size = v == null ? 0 : v.size();
+    if (size > 0 && v.get(0) != null)
+      messageType = v.get(0);
+    if (size > 1 && v.get(1) != null)
+      messageVersion = v.get(1);
+    if (size > 2 && v.get(2) != null)
+      messageRelease = v.get(2);
+    getTransactionHeader().setDocument(messageType, messageVersion, messageRelease, control);
+    boolean selected = isSelected();
+
+    PluginController pluginController = null;
+    if (selected)
+    {
+      getDocumentAttributes().clear();
+      getDocumentAttributes().addCDATA(getXMLTags().getControl(), control);
+      if (size > 0 && v.get(0) != null)
+        getDocumentAttributes().addCDATA(getXMLTags().getDocumentType(), messageType);
+      if (size > 1 && v.get(1) != null)
+        getDocumentAttributes().addCDATA(getXMLTags().getMessageVersion(), messageVersion);
+      if (size > 2 && v.get(2) != null)
+        getDocumentAttributes().addCDATA(getXMLTags().getMessageRelease(), messageRelease);
+      if (size > 3 && v.get(3) != null)
+        getDocumentAttributes().addCDATA(getXMLTags().getAgency(), v.get(3));
+      if (size > 4 && v.get(4) != null)
+        getDocumentAttributes().addCDATA(getXMLTags().getAssociation(), v.get(4));
+      if (emptyStringIfNull(accessReference).length() > 0)
+        getDocumentAttributes().addCDATA(getXMLTags().getAccessReference(), accessReference);
+
+      pluginController = PluginController.create("EDIFACT", messageType, messageVersion, messageRelease, getTokenizer());
+      PluginController.setDebug(debug);
+      if (pluginController.isEnabled())
+        getDocumentAttributes().addCDATA(getXMLTags().getName(), pluginController.getDocumentName());
+
+      startMessage(getDocumentAttributes());
+    }
+    else if (debug)
+      trace("skipping the " + messageType + " message " + control);
 
     String segmentType;
-    while (!(segmentType = getTokenizer().nextSegment()).equals("UNT"))
+    if (!selected || isEnvelopeOnly())
     {
-      segCount++;
-
-      if ("UNO".equals(segmentType))
+      // Skipping at the character level must begin between segments
+      if (accessReference != null)
+        getTokenizer().skipSegment();
+      segCount += skipDocumentBody();
+    }
+    else
+    {
+      while (!(segmentType = getTokenizer().nextSegment()).equals("UNT"))
       {
-        parseUNOUNPSequence();
         segCount++;
-        continue;
-      }
 
-      parseSegment(pluginController, segmentType);
+        if ("UNO".equals(segmentType))
+        {
+          parseUNOUNPSequence();
+          segCount++;
+          continue;
+        }
+
+        parseSegment(pluginController, segmentType);
+      }
     }
 
-    int toClose = pluginController.getNestingLevel();
-    if (debug)
-      trace("closing all " + toClose + " loops");
-    for (; toClose > 0; toClose--)
+    if (selected)
     {
-      endElement(getXMLTags().getLoopTag());
+      int toClose = pluginController.getNestingLevel();
+      if (debug)
+        trace("closing all " + toClose + " loops");
+      for (; toClose > 0; toClose--)
+      {
+        endElement(getXMLTags().getLoopTag());
 
+      }
     }
 
     int n;
@@ -547,7 +545,8 @@ public class EdifactReader extends StandardReader
       if (!recover(transactionControlNumberException))
         throw transactionControlNumberException;
     }
-    endElement(getXMLTags().getDocumentTag());
+    if (selected)
+      endElement(getXMLTags().getDocumentTag());
 
     /*
     * Skip over this UNT segment and return the SEGMENT_END token
@@ -556,7 +555,40 @@ public class EdifactReader extends StandardReader
     return (retval);
   }
 
+  /**
+   * Skips the segments of a message at the character level, through but not including
+   * its UNT segment. A UNO/UNP sequence is parsed only to find its end, without emitting SAX events.
+   *
+   * @return number of segments skipped
+   * @throws SAXException for problem emitting SAX events
+   * @throws IOException  for problem reading EDI data
+   */
+  protected int skipDocumentBody() throws SAXException, IOException
+  {
+    int count = 0;
+    while (true)
+    {
+      count += getTokenizer().skipSegmentsUntil("UNT", "UNO");
+      if (getTokenizer().nextSegment().equals("UNT"))
+        return count;
+      count += 2;
+      parseUNOUNPSequence(false);
+    }
+  }
+
   protected void parseUNOUNPSequence() throws SAXException, IOException
+  {
+    parseUNOUNPSequence(true);
+  }
+
+  /**
+   * Parse a UNO segment, the octet sequence that follows it, and the matching UNP segment
+   *
+   * @param emit false to parse them without emitting SAX events
+   * @throws SAXException for problem emitting SAX events
+   * @throws IOException  for problem reading EDI data
+   */
+  protected void parseUNOUNPSequence(boolean emit) throws SAXException, IOException
   {
     if (debug)
       trace("UNO detected, introducing an octet sequence object");
@@ -617,6 +649,8 @@ public class EdifactReader extends StandardReader
       throw new EDISyntaxException(ErrorMessages.MISSING_UNP);
     }
 
+    if (!emit)
+      return;
     getDocumentAttributes().clear();
     getDocumentAttributes().addCDATA(getXMLTags().getIdAttribute(), packageReference);
     startElement(getXMLTags().getPackageTag(), getDocumentAttributes());
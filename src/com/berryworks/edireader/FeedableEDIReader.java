@@ -0,0 +1,702 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader;
+
+import com.berryworks.edireader.error.EDISyntaxExceptionHandler;
+import com.berryworks.edireader.error.RecoverableSyntaxException;
+import com.berryworks.edireader.tokenizer.EDITokenizerNIO;
+import com.berryworks.edireader.tokenizer.Tokenizer;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An EDIReader to which the EDI input is fed in chunks, as it arrives, instead of
+ * being pulled from a blocking InputSource. This suits input received by non-blocking
+ * means, such as an NIO channel, since a thread is occupied only while it feeds a chunk.
+ * <p/>
+ * Each chunk is passed to feed(), as chars or as bytes to be decoded. The chars are
+ * scanned, once each, for the segment boundaries of the current interchange, using the syntax
+ * characters established as by InterchangeScanner, and a chunk may end anywhere, even within
+ * a multi-byte char. Parsing never waits for input; everything that the chars fed so far
+ * make complete is parsed on the thread that fed them, and its SAX events are delivered to
+ * the ContentHandler before feed() returns. Once the input is exhausted, end() parses anything
+ * that remains and ends the XML document.
+ * <p/>
+ * Each transaction set (ST/SE) or message (UNH/UNT) is parsed as soon as its trailer segment
+ * arrives, by a reader created for it just as when transactions are parsed in parallel, so
+ * that only the transaction currently arriving is buffered. The enveloping segments are
+ * retained, with each transaction reduced to its header and a two-segment trailer, and they are
+ * parsed again whenever they change, delivering only the SAX events not yet delivered and
+ * consulting the EDISyntaxExceptionHandler only once for each exception. If an acknowledgment
+ * is requested or a TransactionCallback is set, each interchange is instead buffered and parsed
+ * as a whole once its trailer segment arrives.
+ * <p/>
+ * An interchange whose end cannot be found by scanning, because it is neither ANSI nor EDIFACT
+ * or because its syntax characters cannot be established, is buffered together with everything
+ * that follows it, and parsed by end(). setMaximumPending() limits the number of chars that may
+ * be buffered. A SAXException or IOException thrown by feed() or end() leaves the reader
+ * unusable until reset().
+ */
+public class FeedableEDIReader extends EDIReader
+{
+  private final StringBuilder pending = new StringBuilder();
+
+  private Charset charset = Charset.defaultCharset();
+
+  private CharsetDecoder decoder;
+
+  private ByteBuffer undecoded;
+
+  private InterchangeScanner.TrailerSearch search;
+
+  private long offset;
+
+  private boolean started;
+
+  private boolean unscannable;
+
+  private int maximumPending;
+
+  /**
+   * The enveloping segments of the interchange being parsed a transaction at a time,
+   * or null if the interchange is buffered as a whole.
+   */
+  private StringBuilder envelope;
+
+  private boolean envelopeChanged;
+
+  private int envelopeEvents;
+
+  private final List<Boolean> envelopeAnswers = new ArrayList<Boolean>();
+
+  private final List<Elision> elisions = new ArrayList<Elision>();
+
+  private int envelopeSegments;
+
+  private StandardReader envelopeReader;
+
+  private long interchangeOffset;
+
+  private int interchangeSegments;
+
+  private int transactionStart = -1;
+
+  private int transactionHeaderEnd;
+
+  private int transactionSegmentCount;
+
+  /**
+   * Rejects every transaction, so that parsing the enveloping segments emits no events for them.
+   */
+  private static final TransactionFilter NO_TRANSACTIONS = new TransactionFilter()
+  {
+    public boolean accept(TransactionHeader header)
+    {
+      return false;
+    }
+  };
+
+  /**
+   * Parses an InputSource by feeding it to this reader in chunks, which is equivalent to
+   * parsing it with an EDIReader.
+   */
+  @Override
+  public void parse(InputSource source) throws SAXException, IOException
+  {
+    Reader reader = createReader(source);
+    CharBuffer buffer = CharBuffer.allocate(8192);
+    while (reader.read(buffer) != -1)
+    {
+      buffer.flip();
+      feed(buffer);
+      buffer.clear();
+    }
+    end();
+  }
+
+  /**
+   * Sets the character encoding of the bytes passed to feed(ByteBuffer).
+   * The default is the platform's default charset.
+   *
+   * @param charset Charset
+   */
+  public void setCharset(Charset charset)
+  {
+    if (decoder != null)
+      throw new IllegalStateException("The charset cannot be changed once bytes have been fed");
+    this.charset = charset;
+  }
+
+  public Charset getCharset()
+  {
+    return charset;
+  }
+
+  /**
+   * Feeds the chars remaining in a CharBuffer, leaving it with no chars remaining,
+   * and parses any interchange that they complete.
+   *
+   * @param chars next chunk of EDI input
+   * @throws SAXException if invalid EDI is detected or the ContentHandler throws one
+   * @throws IOException  for problem parsing the EDI input
+   */
+  public void feed(CharBuffer chars) throws SAXException, IOException
+  {
+    pending.append(chars);
+    chars.position(chars.limit());
+    process();
+    checkPending();
+  }
+
+  /**
+   * Feeds the chars of a CharSequence and parses any interchange that they complete.
+   *
+   * @param chars next chunk of EDI input
+   * @throws SAXException if invalid EDI is detected or the ContentHandler throws one
+   * @throws IOException  for problem parsing the EDI input
+   */
+  public void feed(CharSequence chars) throws SAXException, IOException
+  {
+    pending.append(chars);
+    process();
+    checkPending();
+  }
+
+  /**
+   * Feeds the bytes remaining in a ByteBuffer, leaving it with no bytes remaining,
+   * and parses any interchange that they complete. The bytes are decoded with the
+   * charset set by setCharset(). Bytes at the end of the chunk that form only part of
+   * a char are retained until the next chunk is fed.
+   *
+   * @param bytes next chunk of EDI input
+   * @throws SAXException if invalid EDI is detected or the ContentHandler throws one
+   * @throws IOException  for problem decoding or parsing the EDI input
+   */
+  public void feed(ByteBuffer bytes) throws SAXException, IOException
+  {
+    if (decoder == null)
+      decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    ByteBuffer input = bytes;
+    if (undecoded != null)
+    {
+      input = ByteBuffer.allocate(undecoded.remaining() + bytes.remaining());
+      input.put(undecoded).put(bytes);
+      input.flip();
+      undecoded = null;
+    }
+    decode(input, false);
+    if (input.hasRemaining())
+    {
+      undecoded = ByteBuffer.allocate(input.remaining());
+      undecoded.put(input);
+      undecoded.flip();
+    }
+    process();
+    checkPending();
+  }
+
+  /**
+   * Signals the end of the input, parsing whatever has been fed but not yet parsed
+   * and ending the XML document.
+   *
+   * @throws SAXException if invalid EDI is detected or the ContentHandler throws one
+   * @throws IOException  for problem decoding or parsing the EDI input
+   */
+  public void end() throws SAXException, IOException
+  {
+    if (decoder != null)
+    {
+      ByteBuffer input = undecoded == null ? ByteBuffer.allocate(0) : undecoded;
+      undecoded = null;
+      decode(input, true);
+      CharBuffer out = CharBuffer.allocate(16);
+      decoder.flush(out);
+      out.flip();
+      pending.append(out);
+    }
+    process();
+
+    startIfNecessary();
+    if (envelope != null)
+    {
+      // The interchange is incomplete, which parsing what remains of it will report
+      envelope.append(pending);
+      pending.setLength(0);
+      parseEnvelope(envelope.toString(), true);
+    }
+    else if (pending.length() > 0)
+    {
+      String rest = pending.toString();
+      pending.setLength(0);
+      parseInterchanges(new InputSource(new StringReader(rest)), offset);
+      offset += rest.length();
+    }
+    search = null;
+    endXMLDocument();
+  }
+
+  /**
+   * Returns the number of chars that have been fed but not yet parsed.
+   *
+   * @return number of chars
+   */
+  public int getPendingCount()
+  {
+    return pending.length();
+  }
+
+  /**
+   * Sets the maximum number of chars that may be fed but not yet parsed, such as those of
+   * a transaction still arriving. feed() throws an IOException as soon as more are pending.
+   * The default, or any value less than 1, allows any number.
+   *
+   * @param maximumPending number of chars
+   */
+  public void setMaximumPending(int maximumPending)
+  {
+    this.maximumPending = maximumPending;
+  }
+
+  public int getMaximumPending()
+  {
+    return maximumPending;
+  }
+
+  private void checkPending() throws IOException
+  {
+    if (maximumPending > 0 && pending.length() > maximumPending)
+      throw new IOException("More than " + maximumPending + " chars of EDI input are pending at offset " + offset);
+  }
+
+  private void decode(ByteBuffer input, boolean endOfInput) throws CharacterCodingException
+  {
+    CharBuffer out = CharBuffer.allocate((int) (input.remaining() * (double) decoder.maxCharsPerByte()) + 16);
+    CoderResult result = decoder.decode(input, out, endOfInput);
+    if (result.isError())
+      result.throwException();
+    out.flip();
+    pending.append(out);
+  }
+
+  /**
+   * Parses each interchange that is now complete.
+   */
+  private void process() throws SAXException, IOException
+  {
+    startIfNecessary();
+    while (!unscannable)
+    {
+      if (search == null)
+      {
+        int start = 0;
+        int length = pending.length();
+        while (start < length && Character.isWhitespace(pending.charAt(start)))
+          start++;
+        // Wait for a full preview, since a partial one may establish the wrong syntax characters
+        if (length - start < InterchangeScanner.PREVIEW_LENGTH)
+          return;
+        search = InterchangeScanner.TrailerSearch.start(pending, start);
+        if (search == null)
+        {
+          unscannable = true;
+          return;
+        }
+        if (getAckStream() == null && getTransactionCallback() == null)
+        {
+          consume(start);
+          beginInterchange();
+        }
+      }
+
+      if (envelope != null)
+      {
+        int end = search.resumeSegment(pending);
+        if (end < 0)
+          return;
+        processSegment(end);
+        continue;
+      }
+
+      int end = search.resume(pending);
+      if (end < 0)
+        return;
+      String interchange = pending.substring(0, end);
+      pending.delete(0, end);
+      search = null;
+      parseInterchanges(new InputSource(new StringReader(interchange)), offset);
+      offset += end;
+    }
+  }
+
+  private void beginInterchange()
+  {
+    envelope = new StringBuilder();
+    envelopeChanged = true;
+    envelopeEvents = 0;
+    envelopeAnswers.clear();
+    elisions.clear();
+    envelopeSegments = 0;
+    interchangeOffset = offset;
+    interchangeSegments = 0;
+    transactionStart = -1;
+  }
+
+  /**
+   * Processes the segment of the current interchange that was just completed.
+   *
+   * @param end offset following the segment
+   */
+  private void processSegment(int end) throws SAXException, IOException
+  {
+    boolean ansi = "IEA".equals(search.getTrailer());
+    String segmentType = search.getSegmentType(pending);
+    int segmentStart = search.getSegmentStart();
+    interchangeSegments++;
+
+    if (transactionStart >= 0)
+    {
+      // Within a transaction, only its trailer is of interest
+      if (!segmentType.equals(ansi ? "SE" : "UNT"))
+        return;
+      parseTransaction(pending.substring(transactionStart, end));
+      int length = envelope.length();
+      envelope.append(pending, transactionStart, transactionHeaderEnd);
+      appendTrailer(segmentType, segmentStart, end);
+      envelopeSegments += 2;
+      elide(interchangeSegments - transactionSegmentCount - 2, end - transactionStart - envelope.length() + length);
+      transactionStart = -1;
+      consume(end);
+    }
+    else if (segmentType.equals(ansi ? "ST" : "UNH"))
+    {
+      transactionStart = segmentStart;
+      transactionHeaderEnd = end;
+      transactionSegmentCount = interchangeSegments - 1;
+      if (envelopeChanged)
+      {
+        // Parse the enveloping segments through the header of this transaction, which
+        // may itself begin an implied group
+        parseEnvelope(envelope + pending.substring(segmentStart, end), false);
+        envelopeChanged = false;
+      }
+    }
+    else
+    {
+      envelope.append(pending, 0, end);
+      envelopeSegments++;
+      envelopeChanged = true;
+      consume(end);
+      if (segmentType.equals(search.getTrailer()))
+      {
+        parseEnvelope(envelope.toString(), true);
+        setDelimiter(envelopeReader.getDelimiter());
+        setSubDelimiter(envelopeReader.getSubDelimiter());
+        setTerminator(envelopeReader.getTerminator());
+        setTerminatorSuffix(envelopeReader.getTerminatorSuffix());
+        EDIReaderFactory.release(envelopeReader);
+        envelopeReader = null;
+        envelope = null;
+        search = null;
+      }
+    }
+  }
+
+  /**
+   * Appends to the enveloping segments a copy of a transaction trailer that counts only the
+   * header and trailer segments retained there.
+   */
+  private void appendTrailer(String segmentType, int segmentStart, int end)
+  {
+    char delimiter = search.getDelimiter();
+    int countStart = segmentStart + segmentType.length() + 1;
+    int countEnd = countStart;
+    while (countEnd < end && pending.charAt(countEnd) != delimiter)
+      countEnd++;
+    if (countStart >= end || countEnd == end)
+    {
+      envelope.append(pending, segmentStart, end);
+      return;
+    }
+    envelope.append(pending, segmentStart, countStart).append('2').append(pending, countEnd, end);
+  }
+
+  /**
+   * Records that the segments and chars of a transaction were omitted from the enveloping segments
+   * just before the trailer segment most recently appended to them.
+   */
+  private void elide(int segments, int chars)
+  {
+    Elision previous = elisions.isEmpty() ? null : elisions.get(elisions.size() - 1);
+    Elision elision = new Elision();
+    elision.segment = envelopeSegments;
+    elision.segments = segments + (previous == null ? 0 : previous.segments);
+    elision.chars = chars + (previous == null ? 0 : previous.chars);
+    elisions.add(elision);
+  }
+
+  private void consume(int n)
+  {
+    pending.delete(0, n);
+    offset += n;
+    search.shift(n);
+  }
+
+  /**
+   * Parses the enveloping segments retained for the current interchange, delivering any
+   * SAX events not yet delivered. Unless the segments are complete, parsing them stops
+   * at the end of the input, which is not an error.
+   *
+   * @param text     enveloping segments
+   * @param complete true if the segments are those of the entire interchange
+   */
+  private void parseEnvelope(String text, boolean complete) throws SAXException, IOException
+  {
+    InputSource source = new InputSource(new StringReader(text));
+    EDIReader reader = EDIReaderFactory.createEDIReader(source);
+    if (!(reader instanceof StandardReader))
+      throw new EDISyntaxException("Unable to parse the envelope of the interchange at offset " + interchangeOffset);
+
+    EnvelopeHandler handler = new EnvelopeHandler(getContentHandler(), envelopeEvents);
+    reader.setTokenizer(new EnvelopeTokenizer(new StringReader(text), elisions));
+    reader.setExternalXmlDocumentStart(true);
+    reader.setContentHandler(handler);
+    if (getSyntaxExceptionHandler() != null)
+      reader.setSyntaxExceptionHandler(new EnvelopeExceptionHandler(getSyntaxExceptionHandler()));
+    reader.setNamespaceEnabled(isNamespaceEnabled());
+    reader.setXMLTags(getXMLTags());
+    reader.setTransactionFilter(NO_TRANSACTIONS);
+    reader.getTokenizer().setStartingOffset(interchangeOffset);
+    try
+    {
+      reader.parse(source);
+    } catch (EDISyntaxException e)
+    {
+      if (complete || !reader.getTokenizer().isEndOfData())
+        throw e;
+    } finally
+    {
+      envelopeEvents = handler.count;
+    }
+
+    if (envelopeReader != null)
+      EDIReaderFactory.release(envelopeReader);
+    envelopeReader = (StandardReader) reader;
+  }
+
+  /**
+   * Parses a complete transaction set or message of the current interchange.
+   *
+   * @param text raw chars of the transaction
+   */
+  private void parseTransaction(String text) throws SAXException, IOException
+  {
+    StandardReader documentReader = envelopeReader.createDocumentReader();
+    if (documentReader == null)
+      throw new EDISyntaxException("Unable to create a reader for the transaction at offset " + (offset + transactionStart));
+
+    Tokenizer tokenizer = new EDITokenizerNIO(new StringReader(text));
+    envelopeReader.configureTokenizer(tokenizer);
+    tokenizer.setStartingOffset(offset + transactionStart);
+    tokenizer.setStartingSegmentCount(transactionSegmentCount);
+    documentReader.setTokenizer(tokenizer);
+    documentReader.setContentHandler(getContentHandler());
+    documentReader.setSyntaxExceptionHandler(getSyntaxExceptionHandler());
+    documentReader.setTransactionFilter(getTransactionFilter());
+    documentReader.setEnvelopeOnly(isEnvelopeOnly());
+    documentReader.parseDocument(tokenizer.nextToken());
+  }
+
+  /**
+   * The segments and chars omitted from the enveloping segments before a given one of them.
+   */
+  private static class Elision
+  {
+    private int segment;
+    private int segments;
+    private long chars;
+  }
+
+  /**
+   * Tokenizes the enveloping segments, counting segments and chars as if the transactions
+   * omitted from them were present, so that any errors are reported where they occur in the input.
+   */
+  private static class EnvelopeTokenizer extends EDITokenizerNIO
+  {
+    private final List<Elision> elisions;
+
+    EnvelopeTokenizer(Reader source, List<Elision> elisions)
+    {
+      super(source);
+      this.elisions = elisions;
+    }
+
+    private Elision getElision()
+    {
+      Elision result = null;
+      for (Elision elision : elisions)
+      {
+        if (elision.segment > segmentCount)
+          break;
+        result = elision;
+      }
+      return result;
+    }
+
+    @Override
+    public int getSegmentCount()
+    {
+      Elision elision = getElision();
+      return segmentCount + (elision == null ? 0 : elision.segments);
+    }
+
+    @Override
+    public long getCharOffset()
+    {
+      Elision elision = getElision();
+      return super.getCharOffset() + (elision == null ? 0 : elision.chars);
+    }
+
+    @Override
+    public long getSegmentStartOffset()
+    {
+      Elision elision = getElision();
+      return segmentStartOffset + (elision == null ? 0 : elision.chars);
+    }
+  }
+
+  /**
+   * Passes the SAX events of the enveloping segments to the ContentHandler,
+   * except for those that were delivered when the segments were last parsed.
+   */
+  private static class EnvelopeHandler extends DefaultHandler
+  {
+    private final ContentHandler contentHandler;
+    private final int delivered;
+    private int count;
+
+    EnvelopeHandler(ContentHandler contentHandler, int delivered)
+    {
+      this.contentHandler = contentHandler;
+      this.delivered = delivered;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+      if (count++ >= delivered)
+        contentHandler.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+      if (count++ >= delivered)
+        contentHandler.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+      if (count++ >= delivered)
+        contentHandler.characters(ch, start, length);
+    }
+  }
+
+  /**
+   * Consults the EDISyntaxExceptionHandler about each exception in the enveloping segments
+   * only once, answering again as it did when the segments were last parsed.
+   */
+  private class EnvelopeExceptionHandler implements EDISyntaxExceptionHandler
+  {
+    private final EDISyntaxExceptionHandler handler;
+    private int count;
+
+    EnvelopeExceptionHandler(EDISyntaxExceptionHandler handler)
+    {
+      this.handler = handler;
+    }
+
+    public boolean process(RecoverableSyntaxException e)
+    {
+      if (count < envelopeAnswers.size())
+        return envelopeAnswers.get(count++);
+      boolean answer = handler.process(e);
+      envelopeAnswers.add(answer);
+      count++;
+      return answer;
+    }
+  }
+
+  private void startIfNecessary() throws SAXException
+  {
+    if (started)
+      return;
+    started = true;
+    startXMLDocument();
+  }
+
+  @Override
+  protected void resetState()
+  {
+    super.resetState();
+    pending.setLength(0);
+    decoder = null;
+    undecoded = null;
+    search = null;
+    offset = 0;
+    started = false;
+    unscannable = false;
+    envelope = null;
+    envelopeAnswers.clear();
+    elisions.clear();
+    if (envelopeReader != null)
+      EDIReaderFactory.release(envelopeReader);
+    envelopeReader = null;
+    transactionStart = -1;
+  }
+
+  @Override
+  protected void resetConfiguration()
+  {
+    super.resetConfiguration();
+    charset = Charset.defaultCharset();
+    maximumPending = 0;
+  }
+}
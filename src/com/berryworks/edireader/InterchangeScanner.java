@@ -0,0 +1,353 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader;
+
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the boundaries between the interchanges of an EDI input held in memory,
+ * without parsing them, so that the interchanges can be parsed independently.
+ * <p/>
+ * The syntax characters of each interchange are established by the preview() method
+ * of the EDIReader that EDIReaderFactory selects for it, exactly as when the input is parsed.
+ * The interchange is then scanned, a segment at a time, for its IEA or UNZ trailer.
+ * Scanning stops at the first interchange whose end cannot be found in this way, either
+ * because it is not ANSI or EDIFACT or because it is not well-formed. That interchange and
+ * anything following it are left in the last range, to be parsed by the usual sequential means.
+ */
+public class InterchangeScanner
+{
+  /**
+   * Number of chars made available to preview() at the beginning of each interchange.
+   */
+  public static final int PREVIEW_LENGTH = 1024;
+
+  private InterchangeScanner()
+  {
+  }
+
+  /**
+   * Returns the offsets at which the input is divided into ranges of one interchange each.
+   * The first offset is always 0, and each range extends to the next offset or to the end of the input.
+   * Whitespace following an interchange is included in its range.
+   *
+   * @param data EDI input
+   * @return offsets of the beginning of each range
+   * @throws IOException if problem previewing the EDI input
+   */
+  public static List<Integer> scan(CharSequence data) throws IOException
+  {
+    List<Integer> result = new ArrayList<Integer>();
+    result.add(0);
+
+    int length = data.length();
+    int position = skipWhitespace(data, 0);
+    while (position < length)
+    {
+      int end = findEnd(data, position);
+      if (end < 0)
+        break;
+      position = skipWhitespace(data, end);
+      if (position < length)
+        result.add(end);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the offset following the trailer segment of the interchange beginning at
+   * a given offset, or -1 if it cannot be determined.
+   *
+   * @param data     EDI input
+   * @param position offset of the first char of the interchange
+   * @return offset following the interchange, or -1
+   * @throws IOException if problem previewing the EDI input
+   */
+  public static int findEnd(CharSequence data, int position) throws IOException
+  {
+    TrailerSearch search = TrailerSearch.start(data, position);
+    return search == null ? -1 : search.resume(data);
+  }
+
+  /**
+   * Returns a CharSequence view of the bytes of a ByteBuffer in a single-byte encoding,
+   * from its position to its limit.
+   *
+   * @param buffer      bytes of EDI input
+   * @param decodeTable char for each of the 256 byte values
+   * @return CharSequence
+   */
+  public static CharSequence asCharSequence(ByteBuffer buffer, char[] decodeTable)
+  {
+    return new ByteCharSequence(buffer.slice(), decodeTable);
+  }
+
+  private static int skipWhitespace(CharSequence data, int i)
+  {
+    int length = data.length();
+    while (i < length && Character.isWhitespace(data.charAt(i)))
+      i++;
+    return i;
+  }
+
+  /**
+   * The search for the trailer segment of one interchange. The search can be resumed
+   * as more of the input becomes available, examining each char only once.
+   */
+  static class TrailerSearch
+  {
+    private final String trailer;
+    private final char delimiter;
+    private final char terminator;
+    private final int release;
+    private int position;
+    private boolean atSegmentStart;
+    private boolean inTrailer;
+    private int segmentStart = -1;
+    private int lastSegmentStart = -1;
+
+    private TrailerSearch(String trailer, char delimiter, char terminator, int release, int position)
+    {
+      this.trailer = trailer;
+      this.delimiter = delimiter;
+      this.terminator = terminator;
+      this.release = release;
+      this.position = position;
+    }
+
+    /**
+     * Establishes the syntax characters of the interchange beginning at a given offset
+     * and returns a search for its trailer, or null if they cannot be established.
+     *
+     * @param data     EDI input
+     * @param position offset of the first char of the interchange
+     * @return TrailerSearch, or null
+     * @throws IOException if problem previewing the EDI input
+     */
+    static TrailerSearch start(CharSequence data, int position) throws IOException
+    {
+      String head = data.subSequence(position, Math.min(data.length(), position + PREVIEW_LENGTH)).toString();
+
+      EDIReader reader;
+      try
+      {
+        reader = EDIReaderFactory.createEDIReader(new InputSource(new StringReader(head)));
+      } catch (EDISyntaxException e)
+      {
+        return null;
+      }
+      if (reader == null)
+        return null;
+
+      String trailer;
+      if (reader instanceof AnsiReader)
+        trailer = "IEA";
+      else if (reader instanceof EdifactReader && !(reader instanceof UNHReader))
+        trailer = "UNZ";
+      else
+        trailer = null;
+      TrailerSearch result = new TrailerSearch(trailer, reader.getDelimiter(), reader.getTerminator(),
+        reader.getRelease(), position);
+      EDIReaderFactory.release(reader);
+      if (trailer == null)
+        return null;
+
+      // The UNA segment, if present, contains the syntax characters themselves
+      if (head.startsWith("UNA"))
+      {
+        result.position += 9;
+        result.atSegmentStart = true;
+      }
+      return result;
+    }
+
+    /**
+     * Continues the search through the chars now available.
+     *
+     * @param data EDI input, of which a prefix may have been searched already
+     * @return offset following the trailer segment, or -1 if it has not been found
+     */
+    int resume(CharSequence data)
+    {
+      int length = data.length();
+      for (; position < length; position++)
+      {
+        char c = data.charAt(position);
+        if (atSegmentStart)
+        {
+          if (c != terminator && Character.isWhitespace(c))
+            continue;
+          if (position + 3 >= length)
+            // Not enough chars yet to recognize the segment type
+            return -1;
+          atSegmentStart = false;
+          inTrailer = isSegment(data, position);
+        }
+        if (c == release)
+        {
+          if (position + 1 >= length)
+            return -1;
+          position++;
+        }
+        else if (c == terminator)
+        {
+          if (inTrailer)
+            return ++position;
+          atSegmentStart = true;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Continues the search through the chars now available, stopping at the end of each segment
+     * so that the interchange can be processed a segment at a time. Whatever precedes the first
+     * segment, such as a UNA segment, is considered part of it.
+     *
+     * @param data EDI input, of which a prefix may have been searched already
+     * @return offset following the terminator of the next segment, or -1 if it is not yet complete
+     */
+    int resumeSegment(CharSequence data)
+    {
+      int length = data.length();
+      for (; position < length; position++)
+      {
+        char c = data.charAt(position);
+        if (segmentStart < 0)
+        {
+          if (c != terminator && Character.isWhitespace(c))
+            continue;
+          segmentStart = position;
+        }
+        if (c == release)
+        {
+          if (position + 1 >= length)
+            return -1;
+          position++;
+        }
+        else if (c == terminator)
+        {
+          lastSegmentStart = segmentStart;
+          segmentStart = -1;
+          return ++position;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the offset of the first char of the segment most recently completed by resumeSegment().
+     *
+     * @return offset
+     */
+    int getSegmentStart()
+    {
+      return lastSegmentStart;
+    }
+
+    /**
+     * Returns the type of the segment most recently completed by resumeSegment().
+     *
+     * @param data EDI input
+     * @return segment type
+     */
+    String getSegmentType(CharSequence data)
+    {
+      int end = lastSegmentStart;
+      char c;
+      while ((c = data.charAt(end)) != delimiter && c != terminator)
+        end++;
+      return data.subSequence(lastSegmentStart, end).toString();
+    }
+
+    /**
+     * Adjusts the search for the removal of chars from the beginning of the input.
+     *
+     * @param n number of chars removed, none of which may be part of an incomplete segment
+     */
+    void shift(int n)
+    {
+      position -= n;
+      lastSegmentStart -= n;
+      if (segmentStart >= 0)
+        segmentStart -= n;
+    }
+
+    String getTrailer()
+    {
+      return trailer;
+    }
+
+    char getDelimiter()
+    {
+      return delimiter;
+    }
+
+    private boolean isSegment(CharSequence data, int i)
+    {
+      char c = data.charAt(i + 3);
+      return data.charAt(i) == trailer.charAt(0) && data.charAt(i + 1) == trailer.charAt(1) &&
+        data.charAt(i + 2) == trailer.charAt(2) && (c == delimiter || c == terminator);
+    }
+  }
+
+  private static class ByteCharSequence implements CharSequence
+  {
+    private final ByteBuffer buffer;
+    private final char[] decodeTable;
+
+    ByteCharSequence(ByteBuffer buffer, char[] decodeTable)
+    {
+      this.buffer = buffer;
+      this.decodeTable = decodeTable;
+    }
+
+    public int length()
+    {
+      return buffer.limit();
+    }
+
+    public char charAt(int index)
+    {
+      return decodeTable[buffer.get(index) & 0xFF];
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+      char[] chars = new char[end - start];
+      for (int i = start; i < end; i++)
+        chars[i - start] = charAt(i);
+      return new String(chars);
+    }
+
+    @Override
+    public String toString()
+    {
+      return subSequence(0, length()).toString();
+    }
+  }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader;
+
+import com.berryworks.edireader.tokenizer.ByteBufferInputStream;
+import com.berryworks.edireader.util.sax.SAXEventBuffer;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An EDIReader that parses the interchanges of a multi-interchange input in parallel.
+ * <p/>
+ * A file of single-byte encoded data that can be mapped as a single buffer, which limits it
+ * to 2GB, is scanned in place by an InterchangeScanner to find the boundaries between
+ * interchanges. Any other input is read as a stream of chars, and each interchange is copied
+ * from the stream as soon as its trailer segment has been found, so that only the interchanges
+ * being parsed are held in memory. Each interchange is parsed by a separate task on a ForkJoinPool.
+ * The SAX events of each interchange are buffered until they can be delivered to the ContentHandler,
+ * which receives the events of one interchange at a time from a single thread at a time.
+ * The ContentHandler therefore sees the same events as with an EDIReader, but the interchanges
+ * may be delivered out of order if setOrdered(false) has been called.
+ * <p/>
+ * The rest of a stream is parsed sequentially, as with an EDIReader, from the first interchange
+ * whose boundaries cannot be found by scanning or that is longer than MAXIMUM_INTERCHANGE_LENGTH chars.
+ * An EDISyntaxExceptionHandler, if one is set, may be called from several threads at once.
+ * If an acknowledgment is requested or a TransactionCallback is set, the input is parsed sequentially,
+ * as with an EDIReader, so that the callback is called on the thread reading the input.
+ * The char and byte offsets reported by this reader are not meaningful during a parallel parse.
+ */
+public class ParallelEDIReader extends EDIReader
+{
+  /**
+   * Number of chars of a streamed interchange that may be held in memory while searching
+   * for its trailer segment. A longer interchange, and the rest of the input, is parsed sequentially.
+   */
+  public static final int MAXIMUM_INTERCHANGE_LENGTH = 16 * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private ForkJoinPool pool;
+
+  private boolean ordered = true;
+
+  private int maximumPending;
+
+  /**
+   * Set as soon as any interchange of the current parse fails, so that no further
+   * interchanges are delivered out of order.
+   */
+  private volatile boolean failed;
+
+  @Override
+  public void parse(InputSource source) throws SAXException, IOException
+  {
+    if (getAckStream() != null || getTransactionCallback() != null)
+    {
+      super.parse(source);
+      return;
+    }
+
+    ByteBufferInputStream byteInput = createByteInput(source);
+    failed = false;
+    startXMLDocument();
+    if (byteInput != null && byteInput.isComplete())
+      parseMapped(byteInput);
+    else
+      parseStream(createReader(source));
+    endXMLDocument();
+  }
+
+  /**
+   * Parses input that is entirely available in a ByteBuffer, dividing it in place.
+   */
+  private void parseMapped(ByteBufferInputStream byteInput) throws SAXException, IOException
+  {
+    ByteBuffer bytes = byteInput.getBuffer().slice();
+    Charset charset = byteInput.getCharset();
+    int length = bytes.remaining();
+    List<Integer> offsets = InterchangeScanner.scan(InterchangeScanner.asCharSequence(bytes, byteInput.getDecodeTable()));
+    if (debug)
+      trace("ParallelEDIReader found " + offsets.size() + " ranges of input");
+
+    if (offsets.size() == 1)
+    {
+      parseInterchanges(createSource(bytes, charset, 0, length), 0);
+      return;
+    }
+
+    TaskQueue queue = new TaskQueue();
+    int n = offsets.size();
+    for (int i = 0; i < n; i++)
+    {
+      int start = offsets.get(i);
+      int end = (i + 1 < n) ? offsets.get(i + 1) : length;
+      if (!queue.submit(createSource(bytes, charset, start, end), start))
+        break;
+    }
+    queue.finish();
+  }
+
+  /**
+   * Parses input that is read as a stream of chars, dividing it as it is read.
+   */
+  private void parseStream(Reader reader) throws SAXException, IOException
+  {
+    TaskQueue queue = new TaskQueue();
+    StringBuilder pending = new StringBuilder();
+    char[] buf = new char[BUFFER_SIZE];
+    InterchangeScanner.TrailerSearch search = null;
+    long offset = 0;
+    boolean endOfInput = false;
+
+    while (true)
+    {
+      if (search == null)
+      {
+        int start = skipWhitespace(pending);
+        if (start < pending.length())
+        {
+          search = InterchangeScanner.TrailerSearch.start(pending, start);
+          // Unless more chars could help the preview, the rest is parsed sequentially
+          if (search == null && (endOfInput || pending.length() - start >= InterchangeScanner.PREVIEW_LENGTH))
+            break;
+        }
+      }
+
+      if (search != null)
+      {
+        int end = search.resume(pending);
+        if (end >= 0)
+        {
+          String interchange = pending.substring(0, end);
+          pending.delete(0, end);
+          search = null;
+          if (!queue.submit(new InputSource(new StringReader(interchange)), offset))
+            break;
+          offset += end;
+          continue;
+        }
+        if (pending.length() > MAXIMUM_INTERCHANGE_LENGTH)
+          break;
+      }
+
+      if (endOfInput)
+        break;
+      int n = reader.read(buf);
+      if (n < 0)
+        endOfInput = true;
+      else
+        pending.append(buf, 0, n);
+    }
+
+    queue.finish();
+
+    if (!endOfInput || skipWhitespace(pending) < pending.length())
+    {
+      if (debug)
+        trace("ParallelEDIReader parsing the rest of the input sequentially from offset " + offset);
+      PushbackReader rest = new PushbackReader(reader, Math.max(1, pending.length()));
+      rest.unread(pending.toString().toCharArray());
+      pending = null;
+      parseInterchanges(new InputSource(rest), offset);
+    }
+  }
+
+  private static int skipWhitespace(CharSequence data)
+  {
+    int length = data.length();
+    int i = 0;
+    while (i < length && Character.isWhitespace(data.charAt(i)))
+      i++;
+    return i;
+  }
+
+  private static InputSource createSource(ByteBuffer bytes, Charset charset, int start, int end)
+  {
+    ByteBuffer range = bytes.duplicate();
+    range.limit(end);
+    range.position(start);
+    InputSource source = new InputSource(new ByteBufferInputStream(range.slice(), charset));
+    source.setEncoding(charset.name());
+    return source;
+  }
+
+  /**
+   * Sets the ForkJoinPool on which interchanges are parsed. By default, a pool
+   * shared by all instances of this class is used, with one thread per available processor.
+   *
+   * @param pool ForkJoinPool
+   */
+  public void setPool(ForkJoinPool pool)
+  {
+    this.pool = pool;
+  }
+
+  public ForkJoinPool getPool()
+  {
+    return pool == null ? PoolHolder.DEFAULT_POOL : pool;
+  }
+
+  /**
+   * Sets whether interchanges are delivered to the ContentHandler in the order in which
+   * they appear in the input, which is the default. If not, each interchange is delivered
+   * as soon as it has been parsed, by the thread that parsed it.
+   * <p/>
+   * If an interchange cannot be parsed, the interchanges preceding it are delivered in order,
+   * followed by its events up to the point of the error, as with an EDIReader. Out of order,
+   * none of its events are delivered, nor are those of any interchange whose parse completes
+   * after the failure. In either case the error is then thrown from parse().
+   *
+   * @param ordered false to allow interchanges to be delivered out of order
+   */
+  public void setOrdered(boolean ordered)
+  {
+    this.ordered = ordered;
+  }
+
+  public boolean isOrdered()
+  {
+    return ordered;
+  }
+
+  /**
+   * Sets the maximum number of interchanges that may be parsed and buffered ahead of the
+   * interchange being delivered, which limits the memory used by buffered SAX events.
+   * The default, or any value less than 1, allows twice the parallelism of the pool.
+   *
+   * @param maximumPending number of interchanges
+   */
+  public void setMaximumPending(int maximumPending)
+  {
+    this.maximumPending = maximumPending;
+  }
+
+  public int getMaximumPending()
+  {
+    return maximumPending;
+  }
+
+  /**
+   * The tasks that have been submitted but whose interchanges have not yet been delivered,
+   * limited in number to bound the memory used by their input and buffered SAX events.
+   */
+  private class TaskQueue
+  {
+    private final ForkJoinPool forkJoinPool = getPool();
+    private final int pendingLimit = maximumPending > 0 ? maximumPending : 2 * forkJoinPool.getParallelism();
+    private final LinkedList<InterchangeTask> pending = new LinkedList<InterchangeTask>();
+    private InterchangeTask lastTask;
+    private Exception failure;
+
+    /**
+     * Submits a range of input to be parsed, first delivering the interchanges of earlier
+     * ranges as necessary to stay within the limit.
+     *
+     * @return false if the parse of an earlier range has failed
+     */
+    boolean submit(InputSource source, long offset)
+    {
+      while (failure == null && pending.size() >= pendingLimit)
+        deliverNext();
+      if (failure != null || failed)
+        return false;
+
+      InterchangeTask task = new InterchangeTask(source, offset);
+      forkJoinPool.execute(task);
+      pending.add(task);
+      return true;
+    }
+
+    /**
+     * Delivers the interchanges of all remaining ranges, or throws the exception of the first that failed.
+     */
+    void finish() throws SAXException, IOException
+    {
+      while (failure == null && !pending.isEmpty())
+        deliverNext();
+
+      // Let any tasks still running finish before returning to the caller
+      for (InterchangeTask task : pending)
+      {
+        task.cancel(false);
+        task.quietlyJoin();
+      }
+      pending.clear();
+
+      if (failure == null && lastTask != null)
+      {
+        setDelimiter(lastTask.reader.getDelimiter());
+        setSubDelimiter(lastTask.reader.getSubDelimiter());
+        setTerminator(lastTask.reader.getTerminator());
+        setTerminatorSuffix(lastTask.reader.getTerminatorSuffix());
+      }
+
+      if (failure instanceof SAXException)
+        throw (SAXException) failure;
+      if (failure instanceof IOException)
+        throw (IOException) failure;
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+    }
+
+    private void deliverNext()
+    {
+      InterchangeTask task = pending.removeFirst();
+      task.join();
+      if (ordered)
+        task.deliver(getContentHandler());
+      failure = task.exception;
+      lastTask = task;
+    }
+  }
+
+  /**
+   * Parses the interchanges of one range of input, buffering their SAX events.
+   */
+  private class InterchangeTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final InputSource source;
+    private final long offset;
+    private final SAXEventBuffer events = new SAXEventBuffer();
+    private final EDIReader reader = new EDIReader();
+    private Exception exception;
+
+    InterchangeTask(InputSource source, long offset)
+    {
+      this.source = source;
+      this.offset = offset;
+    }
+
+    @Override
+    protected void compute()
+    {
+      reader.setContentHandler(events);
+      reader.setSyntaxExceptionHandler(getSyntaxExceptionHandler());
+      reader.setNamespaceEnabled(isNamespaceEnabled());
+      reader.setXMLTags(getXMLTags());
+      reader.setDocumentPool(getDocumentPool());
+      reader.setEnvelopeOnly(isEnvelopeOnly());
+      reader.setTransactionFilter(getTransactionFilter());
+      try
+      {
+        reader.parseInterchanges(source, offset);
+      } catch (Exception e)
+      {
+        exception = e;
+        failed = true;
+      }
+
+      if (!ordered)
+      {
+        ContentHandler contentHandler = getContentHandler();
+        synchronized (contentHandler)
+        {
+          if (failed)
+            events.clear();
+          else
+          {
+            deliver(contentHandler);
+            if (exception != null)
+              failed = true;
+          }
+        }
+      }
+    }
+
+    void deliver(ContentHandler contentHandler)
+    {
+      try
+      {
+        events.replay(contentHandler);
+      } catch (SAXException e)
+      {
+        if (exception == null)
+          exception = e;
+      }
+      events.clear();
+    }
+  }
+
+  private static class PoolHolder
+  {
+    static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool();
+  }
+}
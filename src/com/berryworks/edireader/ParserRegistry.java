@@ -22,6 +22,8 @@ package com.berryworks.edireader;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Data structure that associates leading character sequences with specific parser implementations.
@@ -45,10 +47,18 @@ import java.util.Map;
 public class ParserRegistry
 {
 
-  private static final Map<String, Class> builtinClass = new HashMap<String, Class>();
+  private static final Map<String, Class<? extends EDIReader>> builtinClass =
+    new HashMap<String, Class<? extends EDIReader>>();
   private static final Map<String, String>
     registeredClassNames = new HashMap<String, String>();
 
+  /**
+   * Registered class names already resolved to classes, so that the class loader is consulted
+   * only once for each name. A name that could not be resolved maps to NOT_AVAILABLE.
+   */
+  private static final ConcurrentMap<String, Class<?>> resolvedClasses = new ConcurrentHashMap<String, Class<?>>();
+  private static final Class<?> NOT_AVAILABLE = Void.class;
+
   static
   {
     new ParserRegistry();
@@ -78,6 +88,7 @@ public class ParserRegistry
    * custom parsers developed by users. Parsers registered via register() are considered first for
    * a match with the incoming data before the built-in parsers are considered, allowing users to
    * provide custom implementations of X12 and EDIFACT parsers if needed.
+   * If a registered parser cannot be loaded or instantiated, the built-in parser is used instead.
    *
    * @param firstChars of data to be parsed
    * @return subclass of EDIReader that knows how to parse the data, or null if no parser is available
@@ -86,54 +97,90 @@ public class ParserRegistry
   public static EDIReader get(String firstChars)
   {
     EDIReader result = null;
-    Class parserClass;
 
     // See if a suitable registered class name is recognized by these
     // firstChars
-    String name = (String) getMatch(firstChars, registeredClassNames);
+    String name = getMatch(firstChars, registeredClassNames);
     if (name != null)
-    {
-      try
-      {
-        parserClass = Class.forName(name);
-        result = (EDIReader) parserClass.newInstance();
-      } catch (Exception e)
-      {
-        // ignore it
-      }
-    }
+      result = newInstance(resolve(name));
 
     // If not, see if there is a builtin class that matches
+    if (result == null)
+      result = newInstance(getMatch(firstChars, builtinClass));
+
+    // If still nothing, return the "catch all" parser if there is one
     if (result == null)
     {
-      parserClass = (Class) getMatch(firstChars, builtinClass);
-      try
-      {
-        result = (EDIReader) parserClass.newInstance();
-      } catch (Exception e)
-      {
-        // ignore it
-      }
+      name = registeredClassNames.get("");
+      if (name != null)
+        result = newInstance(resolve(name));
     }
 
-    // If still nothing, return the "catch all" parser if there is one
+    return result;
+  }
+
+  /**
+   * Returns the subclass of EDIReader that get() would first try to instantiate for the
+   * first several chars of data to be parsed.
+   *
+   * @param firstChars of data to be parsed
+   * @return subclass of EDIReader that knows how to parse the data, or null if no parser is available
+   */
+  public static Class<? extends EDIReader> getParserClass(String firstChars)
+  {
+    Class<? extends EDIReader> result = null;
+
+    String name = getMatch(firstChars, registeredClassNames);
+    if (name != null)
+      result = resolve(name);
+
+    if (result == null)
+      result = getMatch(firstChars, builtinClass);
+
     if (result == null)
     {
       name = registeredClassNames.get("");
       if (name != null)
+        result = resolve(name);
+    }
+
+    return result;
+  }
+
+  private static Class<? extends EDIReader> resolve(String name)
+  {
+    Class<?> result = resolvedClasses.get(name);
+    if (result == null)
+    {
+      try
+      {
+        result = Class.forName(name);
+        if (!EDIReader.class.isAssignableFrom(result))
+          result = NOT_AVAILABLE;
+      } catch (Exception e)
+      {
+        result = NOT_AVAILABLE;
+      } catch (LinkageError e)
       {
-        try
-        {
-          parserClass = Class.forName(name);
-          result = (EDIReader) parserClass.newInstance();
-        } catch (Exception e)
-        {
-          // ignore it
-        }
+        result = NOT_AVAILABLE;
       }
+      resolvedClasses.put(name, result);
     }
+    return result == NOT_AVAILABLE ? null : result.asSubclass(EDIReader.class);
+  }
 
-    return result;
+  private static EDIReader newInstance(Class<? extends EDIReader> parserClass)
+  {
+    if (parserClass == null)
+      return null;
+    try
+    {
+      return parserClass.getDeclaredConstructor().newInstance();
+    } catch (Exception e)
+    {
+      // ignore it
+      return null;
+    }
   }
 
   /**
@@ -146,11 +193,12 @@ public class ParserRegistry
   public static void register(String firstChars, String className)
   {
     registeredClassNames.put(firstChars, className);
+    resolvedClasses.remove(className);
   }
 
-  private static Object getMatch(String firstChars, Map map)
+  private static <T> T getMatch(String firstChars, Map<String, T> map)
   {
-    Object result = null;
+    T result = null;
     for (int n = firstChars.length(); result == null && n > 0; firstChars = firstChars.substring(0, --n))
     {
       result = map.get(firstChars);
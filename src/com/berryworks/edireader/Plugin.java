@@ -117,6 +117,7 @@ public abstract class Plugin
   protected final String documentName;
   protected PluginPreparation optimizedForm;
   private boolean validating;
+  private boolean queryCompilable;
 
   public Plugin(String documentType, String documentName)
   {
@@ -281,6 +282,40 @@ public abstract class Plugin
   public void prepare()
   {
     optimizedForm = new PluginPreparation(loops);
+    queryCompilable = !overridesQuery();
+  }
+
+  /**
+   * Returns the optimized form of the LoopDescriptors, or null if prepare() has not been called.
+   *
+   * @return PluginPreparation
+   */
+  public PluginPreparation getOptimizedForm()
+  {
+    return optimizedForm;
+  }
+
+  /**
+   * Returns true if the results of query() depend only on its arguments and can therefore be
+   * recorded in the loop transition automaton of the optimized form.
+   * A plugin that overrides query() is always queried directly.
+   *
+   * @return boolean
+   */
+  public boolean isQueryCompilable()
+  {
+    return queryCompilable && optimizedForm != null;
+  }
+
+  private boolean overridesQuery()
+  {
+    try
+    {
+      return getClass().getMethod("query", String.class, String.class, int.class).getDeclaringClass() != Plugin.class;
+    } catch (NoSuchMethodException e)
+    {
+      return true;
+    }
   }
 
   public boolean isValidating()
@@ -23,7 +23,8 @@ package com.berryworks.edireader;
 import com.berryworks.edireader.tokenizer.Tokenizer;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 /**
  * Determines and maintains state transitions for the segment looping structure
@@ -69,9 +70,8 @@ public class PluginController
    * Creates a new instance of a PluginController, selecting a plugin based on the standard, the type of document,
    * and the version and release characteristics.
    * <p/>
-   * This factory method delegates to the corresponding create method on a PluginControllerImpl,
-   * if such a class is available. If not, then this factory method simply returns an instance of this
-   * PluginController class, which supports the required interfaces but disables the entire plugin mechanism.
+   * This factory method delegates to the PluginControllerFactory returned by getFactory(),
+   * which normally calls the corresponding create method on a PluginControllerImpl.
    *
    * @param standard
    * @param docType
@@ -86,27 +86,81 @@ public class PluginController
                                         String docRelease,
                                         Tokenizer tokenizer)
   {
-    try
-    {
-      Class controllerClass = Class.forName("com.berryworks.edireader.plugin.PluginControllerImpl");
+    return getFactory().create(standard, docType, docVersion, docRelease, tokenizer);
+  }
 
-      Method createMethod = controllerClass.getDeclaredMethod("create",
-        String.class, String.class, String.class, String.class, Tokenizer.class);
+  /**
+   * Returns the PluginControllerFactory to which the create methods delegate.
+   * <p/>
+   * Unless one has been set with setFactory(), this is the first factory named by a
+   * java.util.ServiceLoader provider configuration, or else a PluginControllerFactoryImpl
+   * if the plugin package is available, or else a factory that creates instances of this
+   * PluginController class, which supports the required interfaces but disables the entire plugin mechanism.
+   * The choice is made only once.
+   *
+   * @return PluginControllerFactory
+   */
+  public static PluginControllerFactory getFactory()
+  {
+    PluginControllerFactory result = factory;
+    return result == null ? FactoryHolder.DEFAULT_FACTORY : result;
+  }
 
-      return (PluginController) createMethod.invoke(null,
-        standard, docType, docVersion, docRelease, tokenizer);
+  /**
+   * Sets the PluginControllerFactory to which the create methods delegate.
+   *
+   * @param pluginControllerFactory factory to use, or null to restore the default
+   */
+  public static void setFactory(PluginControllerFactory pluginControllerFactory)
+  {
+    factory = pluginControllerFactory;
+  }
 
-    } catch (ClassNotFoundException ignored)
-    {
-    } catch (NoSuchMethodException ignored)
-    {
-    } catch (InvocationTargetException ignored)
-    {
-    } catch (IllegalAccessException ignored)
+  private static volatile PluginControllerFactory factory;
+
+  /**
+   * Resolves the default factory when it is first needed.
+   */
+  private static class FactoryHolder
+  {
+    static final PluginControllerFactory DEFAULT_FACTORY = resolveFactory();
+
+    private static PluginControllerFactory resolveFactory()
     {
-    }
+      try
+      {
+        for (PluginControllerFactory provider : ServiceLoader.load(PluginControllerFactory.class))
+          return provider;
+      } catch (ServiceConfigurationError e)
+      {
+        if (debug)
+          trace("PluginController: ignoring PluginControllerFactory provider: " + e.getMessage());
+      }
+
+      try
+      {
+        Class<?> factoryClass = Class.forName("com.berryworks.edireader.plugin.PluginControllerFactoryImpl");
+        return (PluginControllerFactory) factoryClass.getDeclaredConstructor().newInstance();
+      } catch (ClassNotFoundException ignored)
+      {
+      } catch (NoSuchMethodException ignored)
+      {
+      } catch (InvocationTargetException ignored)
+      {
+      } catch (InstantiationException ignored)
+      {
+      } catch (IllegalAccessException ignored)
+      {
+      }
 
-    return new PluginController();
+      return new PluginControllerFactory()
+      {
+        public PluginController create(String standard, String docType, String docVersion, String docRelease, Tokenizer tokenizer)
+        {
+          return new PluginController();
+        }
+      };
+    }
   }
 
   /**
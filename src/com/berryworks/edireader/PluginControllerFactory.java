@@ -0,0 +1,51 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader;
+
+import com.berryworks.edireader.tokenizer.Tokenizer;
+
+/**
+ * Creates the PluginController used while parsing each EDI document.
+ * <p/>
+ * PluginController.create() delegates to a single PluginControllerFactory, which is
+ * resolved once, the first time it is needed. An application can provide its own
+ * factory either by calling PluginController.setFactory() or by naming an implementation
+ * in a META-INF/services/com.berryworks.edireader.PluginControllerFactory resource,
+ * as understood by java.util.ServiceLoader.
+ *
+ * @see PluginController
+ * @see com.berryworks.edireader.plugin.PluginControllerFactoryImpl
+ */
+public interface PluginControllerFactory
+{
+  /**
+   * Creates a new instance of a PluginController, selecting a plugin based on the standard, the type of document,
+   * and the version and release characteristics.
+   *
+   * @param standard
+   * @param docType
+   * @param docVersion
+   * @param docRelease
+   * @param tokenizer
+   * @return instance
+   */
+  public PluginController create(String standard, String docType, String docVersion, String docRelease, Tokenizer tokenizer);
+}
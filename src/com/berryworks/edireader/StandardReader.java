@@ -22,6 +22,7 @@ package com.berryworks.edireader;
 
 import com.berryworks.edireader.error.RecoverableSyntaxException;
 import com.berryworks.edireader.tokenizer.Token;
+import com.berryworks.edireader.tokenizer.Tokenizer;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -53,11 +54,26 @@ public abstract class StandardReader extends EDIReader
 
   private RecoverableSyntaxException syntaxException;
 
+  private DocumentDispatcher documentDispatcher;
+
+  private final TransactionHeader transactionHeader = new TransactionHeader();
+
   protected abstract Token recognizeBeginning() throws IOException, SAXException;
 
   protected abstract Token parseInterchange(Token t) throws SAXException,
     IOException;
 
+  /**
+   * Parse a transaction set or message, beginning with the token of its header segment.
+   *
+   * @param token parsed token that caused this method to be called
+   * @return token most recently parsed by this method
+   * @throws SAXException for problem emitting SAX events
+   * @throws IOException  for problem reading EDI data
+   */
+  protected abstract Token parseDocument(Token token) throws SAXException,
+    IOException;
+
   @Override
   public void parse(InputSource source) throws SAXException, IOException
   {
@@ -71,20 +87,29 @@ public abstract class StandardReader extends EDIReader
 
     parseSetup(source);
 
-    getTokenizer().setDelimiter(getDelimiter());
-    getTokenizer().setSubDelimiter(getSubDelimiter());
-    getTokenizer().setRelease(getRelease());
-    getTokenizer().setRepetitionSeparator(getRepetitionSeparator());
-    getTokenizer().setTerminator(getTerminator());
+    configureTokenizer(getTokenizer());
 
+    if (getDocumentPool() != null && getAckStream() == null && getTransactionCallback() == null && !isEnvelopeOnly())
+      documentDispatcher = new DocumentDispatcher(this, getDocumentPool());
     try
     {
       parseInterchange(recognizeBeginning());
+      if (documentDispatcher != null)
+        documentDispatcher.finish();
     } catch (EDISyntaxException e)
     {
+      if (documentDispatcher != null)
+        documentDispatcher.abandon();
       if (ackGenerator != null)
         ackGenerator.generateNegativeACK();
       throw e;
+    } finally
+    {
+      if (documentDispatcher != null)
+      {
+        documentDispatcher.close();
+        documentDispatcher = null;
+      }
     }
 
     if (!isExternalXmlDocumentStart())
@@ -92,6 +117,102 @@ public abstract class StandardReader extends EDIReader
 
   }
 
+  /**
+   * Sets the syntax characters of a tokenizer to those of this reader.
+   *
+   * @param tokenizer to be configured
+   */
+  protected void configureTokenizer(Tokenizer tokenizer)
+  {
+    tokenizer.setDelimiter(getDelimiter());
+    tokenizer.setSubDelimiter(getSubDelimiter());
+    tokenizer.setRelease(getRelease());
+    tokenizer.setRepetitionSeparator(getRepetitionSeparator());
+    tokenizer.setTerminator(getTerminator());
+  }
+
+  /**
+   * Parses a transaction set or message, either directly with parseDocument() or,
+   * if a document pool has been set, by dispatching it to be parsed in parallel.
+   *
+   * @param token parsed token that caused this method to be called
+   * @return token most recently parsed by this method
+   * @throws SAXException for problem emitting SAX events
+   * @throws IOException  for problem reading EDI data
+   */
+  protected Token dispatchDocument(Token token) throws SAXException, IOException
+  {
+    return documentDispatcher == null ? parseDocument(token) : documentDispatcher.dispatch(token);
+  }
+
+  /**
+   * Creates a reader to parse a single transaction set or message on behalf of this one,
+   * with the same configuration and whatever state of the enclosing group affects the parsing
+   * of a transaction. Subclasses with such state extend this method to copy it.
+   *
+   * @return StandardReader, or null if one cannot be created
+   */
+  protected StandardReader createDocumentReader()
+  {
+    StandardReader result;
+    try
+    {
+      result = getClass().getDeclaredConstructor().newInstance();
+    } catch (Exception e)
+    {
+      return null;
+    }
+    result.setXMLTags(getXMLTags());
+    result.setNamespaceEnabled(isNamespaceEnabled());
+    result.setSyntaxExceptionHandler(getSyntaxExceptionHandler());
+    result.setExternalXmlDocumentStart(true);
+    result.setDelimiter(getDelimiter());
+    result.setSubDelimiter(getSubDelimiter());
+    result.setRelease(getRelease());
+    result.setRepetitionSeparator(getRepetitionSeparator());
+    result.setTerminator(getTerminator());
+    result.setTerminatorSuffix(getTerminatorSuffix());
+    result.setTransactionFilter(getTransactionFilter());
+    result.transactionHeader.setEnvelope(transactionHeader);
+    return result;
+  }
+
+  @Override
+  protected void resetState()
+  {
+    super.resetState();
+    interchangeControlNumber = null;
+    groupControlNumber = null;
+    groupCount = 0;
+    documentCount = 0;
+    ackGenerator = null;
+    syntaxException = null;
+    documentDispatcher = null;
+    transactionHeader.clear();
+  }
+
+  /**
+   * Returns the details of the current interchange, group, and transaction
+   * that are presented to a TransactionFilter.
+   *
+   * @return TransactionHeader
+   */
+  protected TransactionHeader getTransactionHeader()
+  {
+    return transactionHeader;
+  }
+
+  /**
+   * Returns true if the transaction described by the TransactionHeader is to be parsed in full,
+   * which is the case unless a TransactionFilter has been set and does not accept it.
+   *
+   * @return true if the transaction is selected
+   */
+  protected boolean isSelected()
+  {
+    return getTransactionFilter() == null || getTransactionFilter().accept(transactionHeader);
+  }
+
   /**
    * Issue SAX calls on behalf of an EDI element. The token passed as an
    * argument is first token of a field.
@@ -107,14 +228,12 @@ public abstract class StandardReader extends EDIReader
     if (t.getType() == Token.TokenType.SIMPLE)
     {
 
-      String value = t.getValue().trim();
-      if (value.length() == 0)
+      if (isBlank(t.getValueCharSequence()))
         return;
 
       getDocumentAttributes().addCDATA(getXMLTags().getIdAttribute(), elementId);
       startElement(getXMLTags().getElementTag(), getDocumentAttributes());
-      char[] cv = t.getValueChars();
-      getContentHandler().characters(cv, 0, cv.length);
+      getContentHandler().characters(t.getValueBuffer(), 0, t.getValueLength());
       endElement(getXMLTags().getElementTag());
 //            if (debug) trace("... SIMPLE element " + elementId);
     }
@@ -137,8 +256,7 @@ public abstract class StandardReader extends EDIReader
           .getSubIndex()));
         startElement(getXMLTags().getSubElementTag(),
           getDocumentAttributes());
-        char[] cv = t.getValueChars();
-        getContentHandler().characters(cv, 0, cv.length);
+        getContentHandler().characters(t.getValueBuffer(), 0, t.getValueLength());
         endElement(getXMLTags().getSubElementTag());
 //                if (debug) trace("... subelement");
       }
@@ -150,6 +268,21 @@ public abstract class StandardReader extends EDIReader
     }
   }
 
+  /**
+   * Determine if a value consists entirely of whitespace, in the sense of
+   * String.trim(), without constructing a String.
+   *
+   * @param value chars to be examined
+   * @return true if the value is empty or all whitespace
+   */
+  protected static boolean isBlank(CharSequence value)
+  {
+    for (int i = 0; i < value.length(); i++)
+      if (value.charAt(i) > ' ')
+        return false;
+    return true;
+  }
+
   /**
    * Set an override value to be used whenever generating a control date and
    * time. This method is used for automated testing.
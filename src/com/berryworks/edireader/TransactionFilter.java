@@ -0,0 +1,46 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader;
+
+/**
+ * Selects the transaction sets (ST/SE) or messages (UNH/UNT) that an EDIReader parses in full.
+ * <p/>
+ * The filter is consulted as soon as the ST or UNH segment of each transaction has been read,
+ * before a plugin is selected or any attributes are built. A transaction that is not accepted is
+ * skipped at the character level, counting only its segments so that the SE or UNT trailer can be
+ * validated as usual, and no SAX events are emitted for it. The enveloping interchange and group
+ * elements are unaffected, and a TransactionCallback is called for every transaction, since it is
+ * called before the elements of the ST segment are read.
+ * <p/>
+ * A filter may be consulted by several threads at once if transactions or interchanges are parsed
+ * in parallel.
+ */
+public interface TransactionFilter
+{
+  /**
+   * Returns true if a transaction is to be parsed in full.
+   *
+   * @param header identifying details of the transaction and its envelope, valid only during this call
+   * @return true to parse the transaction, false to skip it
+   */
+  public boolean accept(TransactionHeader header);
+}
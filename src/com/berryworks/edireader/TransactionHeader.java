@@ -0,0 +1,165 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader;
+
+/**
+ * The identifying details of a transaction set (ST/SE) or message (UNH/UNT) and of its envelope,
+ * as presented to a TransactionFilter. A reader updates a single instance as it parses, so the
+ * values are valid only during the call to the filter.
+ * <p/>
+ * For ANSI X12, the sender and receiver are the interchange ids of ISA06 and ISA08 without their
+ * padding, the group sender and receiver are the application codes of GS02 and GS03, and the version
+ * is that of GS08. For EDIFACT, they are the identifications of UNB02 and UNB03 and of UNG02 and UNG03,
+ * and the version and release are those of the message identifier in UNH02. A value not present
+ * in the envelope, such as the group values of an EDIFACT interchange without UNG, is null.
+ */
+public class TransactionHeader
+{
+  private String standard;
+  private String sender;
+  private String receiver;
+  private String interchangeControlNumber;
+  private String groupSender;
+  private String groupReceiver;
+  private String groupControlNumber;
+  private String documentType;
+  private String version;
+  private String release;
+  private String controlNumber;
+
+  /**
+   * Returns the standard of the interchange, either "ANSI X.12" or "EDIFACT"
+   *
+   * @return standard name
+   */
+  public String getStandard()
+  {
+    return standard;
+  }
+
+  public String getSender()
+  {
+    return sender;
+  }
+
+  public String getReceiver()
+  {
+    return receiver;
+  }
+
+  public String getInterchangeControlNumber()
+  {
+    return interchangeControlNumber;
+  }
+
+  public String getGroupSender()
+  {
+    return groupSender;
+  }
+
+  public String getGroupReceiver()
+  {
+    return groupReceiver;
+  }
+
+  public String getGroupControlNumber()
+  {
+    return groupControlNumber;
+  }
+
+  /**
+   * Returns the transaction set identifier (for example: 835) or message type (for example: ORDERS)
+   *
+   * @return document type
+   */
+  public String getDocumentType()
+  {
+    return documentType;
+  }
+
+  public String getVersion()
+  {
+    return version;
+  }
+
+  public String getRelease()
+  {
+    return release;
+  }
+
+  public String getControlNumber()
+  {
+    return controlNumber;
+  }
+
+  void setInterchange(String standard, String sender, String receiver, String controlNumber)
+  {
+    this.standard = standard;
+    this.sender = sender;
+    this.receiver = receiver;
+    interchangeControlNumber = controlNumber;
+    setGroup(null, null, null, null);
+  }
+
+  void setGroup(String sender, String receiver, String controlNumber, String version)
+  {
+    groupSender = sender;
+    groupReceiver = receiver;
+    groupControlNumber = controlNumber;
+    this.version = version;
+    release = null;
+  }
+
+  void setDocument(String documentType, String version, String release, String controlNumber)
+  {
+    this.documentType = documentType;
+    if (version != null)
+      this.version = version;
+    this.release = release;
+    this.controlNumber = controlNumber;
+  }
+
+  /**
+   * Copies the details of the interchange and group, as when a transaction is parsed by a separate reader.
+   *
+   * @param header TransactionHeader
+   */
+  void setEnvelope(TransactionHeader header)
+  {
+    setInterchange(header.standard, header.sender, header.receiver, header.interchangeControlNumber);
+    setGroup(header.groupSender, header.groupReceiver, header.groupControlNumber, header.version);
+  }
+
+  void clear()
+  {
+    setInterchange(null, null, null, null);
+    documentType = null;
+    controlNumber = null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "TransactionHeader " + documentType + " " + controlNumber + " version " + version +
+      (release == null ? "" : " release " + release) + " from " + sender + " to " + receiver;
+  }
+}
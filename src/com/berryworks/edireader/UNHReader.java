@@ -51,6 +51,7 @@ public class UNHReader extends EdifactReader
     getInterchangeAttributes().clear();
     getInterchangeAttributes().addCDATA(getXMLTags().getStandard(), "EDIFACT-UNH");
     setGroupCount(0);
+    getTransactionHeader().setInterchange("EDIFACT", null, null, null);
 
     startInterchange(getInterchangeAttributes());
 
@@ -118,7 +119,7 @@ public class UNHReader extends EdifactReader
       if (sType.equals("UNH"))
       {
         setGroupCount(1 + getGroupCount());
-        parseDocument(token);
+        dispatchDocument(token);
         token = getTokenizer().nextToken();
       }
       else
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.benchmark;
+
+import com.berryworks.edireader.tokenizer.AbstractTokenizer;
+import com.berryworks.edireader.tokenizer.ByteBufferInputStream;
+import com.berryworks.edireader.tokenizer.EDITokenizerBytes;
+import com.berryworks.edireader.tokenizer.EDITokenizerNIO;
+import com.berryworks.edireader.tokenizer.Token;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compares the throughput of alternative tokenizer configurations
+ * by tokenizing the same generated ANSI interchange repeatedly with each one.
+ * <p/>
+ * Unlike Benchmark, which measures the parser as a whole, this
+ * measures only the tokenizer so that changes to its inner loop can be
+ * evaluated in isolation.
+ */
+public class TokenizerBenchmark implements Runnable
+{
+
+  private int iterations;
+
+  private int interchangeKCs;
+
+  private int warmup;
+
+  private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+  private String bytesSource;
+
+  private byte[] bytes;
+
+  public void run()
+  {
+    System.out.println("Tokenizer benchmark");
+
+    String interchange = generateInterchange();
+    System.out.println("  Tokenizing an interchange of " + interchange.length()
+      + " chars " + iterations + " times per variant");
+
+    for (Variant variant : Variant.values())
+    {
+      try
+      {
+        for (int i = 0; i < warmup; i++)
+          tokenize(interchange, variant);
+
+        long start = System.nanoTime();
+        long chars = 0;
+        for (int i = 0; i < iterations; i++)
+          chars += tokenize(interchange, variant);
+        long nanos = System.nanoTime() - start;
+
+        long charThroughput = nanos == 0 ? 0 : chars * 1000000000L / nanos;
+        System.out.println("  " + variant.getDescription() + ": "
+          + charThroughput + " chars/second");
+      } catch (Exception e)
+      {
+        throw new RuntimeException("caught exception", e);
+      }
+    }
+    System.out.println("Tokenizer benchmark complete");
+  }
+
+  /**
+   * Tokenizer configurations being compared.
+   */
+  protected enum Variant
+  {
+    COMPARISON_CHAIN("character classification by comparison chain"),
+    LOOKUP_TABLE("character classification by lookup table"),
+    LARGE_BUFFER("8192-char buffer"),
+    ADAPTIVE_BUFFER("adaptive buffer"),
+    DECODED_BYTES("decoding ISO-8859-1 bytes with an InputStreamReader"),
+    BYTE_BUFFER("tokenizing ISO-8859-1 bytes in a ByteBuffer");
+
+    private final String description;
+
+    Variant(String description)
+    {
+      this.description = description;
+    }
+
+    public String getDescription()
+    {
+      return description;
+    }
+  }
+
+  protected AbstractTokenizer createTokenizer(String interchange, Variant variant)
+  {
+    AbstractTokenizer tokenizer;
+    switch (variant)
+    {
+      case DECODED_BYTES:
+        tokenizer = new EDITokenizerNIO(new InputStreamReader(new ByteArrayInputStream(getBytes(interchange)), LATIN_1));
+        break;
+      case LARGE_BUFFER:
+        tokenizer = new EDITokenizerNIO(new StringReader(interchange), null, 8192);
+        break;
+      case ADAPTIVE_BUFFER:
+        tokenizer = new EDITokenizerNIO(new StringReader(interchange));
+        ((EDITokenizerNIO) tokenizer).setAdaptive(true);
+        break;
+      case BYTE_BUFFER:
+        tokenizer = new EDITokenizerBytes(new ByteBufferInputStream(ByteBuffer.wrap(getBytes(interchange)), LATIN_1));
+        break;
+      default:
+        tokenizer = new EDITokenizerNIO(new StringReader(interchange));
+    }
+    tokenizer.setDelimiter('~');
+    tokenizer.setSubDelimiter('<');
+    tokenizer.setTerminator('$');
+    tokenizer.setRelease(-1);
+    tokenizer.setRepetitionSeparator(-1);
+    tokenizer.setTableDriven(variant != Variant.COMPARISON_CHAIN);
+    return tokenizer;
+  }
+
+  protected int tokenize(String interchange, Variant variant) throws IOException, SAXException
+  {
+    AbstractTokenizer tokenizer = createTokenizer(interchange, variant);
+    while (tokenizer.nextToken().getType() != Token.TokenType.END_OF_DATA)
+    {
+    }
+    return tokenizer.getCharCount();
+  }
+
+  private byte[] getBytes(String interchange)
+  {
+    if (interchange != bytesSource)
+    {
+      bytes = interchange.getBytes(LATIN_1);
+      bytesSource = interchange;
+    }
+    return bytes;
+  }
+
+  protected String generateInterchange()
+  {
+    StringWriter writer = new StringWriter();
+    EDITestData generator = new EDITestData();
+    generator.setWriter(writer);
+    generator.setInterchangeKCs(interchangeKCs);
+    generator.run();
+    return writer.toString();
+  }
+
+  public void setIterations(int iterations)
+  {
+    this.iterations = iterations;
+  }
+
+  public void setInterchangeKCs(int interchangeKCs)
+  {
+    this.interchangeKCs = interchangeKCs;
+  }
+
+  public void setWarmup(int warmup)
+  {
+    this.warmup = warmup;
+  }
+
+  public static void main(String args[])
+  {
+    TokenizerBenchmark controller = new TokenizerBenchmark();
+    controller.setInterchangeKCs(1000);
+    controller.setIterations(20);
+    controller.setWarmup(5);
+    for (String arg : args)
+    {
+      int n = parseInteger(arg.substring(1));
+      switch (arg.charAt(0))
+      {
+        case 'k':
+          controller.setInterchangeKCs(n);
+          break;
+        case 'i':
+          controller.setIterations(n);
+          break;
+        case 'w':
+          controller.setWarmup(n);
+          break;
+        default:
+          badArgs();
+      }
+    }
+    controller.run();
+  }
+
+  private static int parseInteger(String string)
+  {
+    int n = 0;
+    try
+    {
+      n = Integer.parseInt(string);
+    } catch (Exception e)
+    {
+      badArgs();
+    }
+    return n;
+  }
+
+  private static void badArgs()
+  {
+    System.err.println("Command line arguments:");
+    System.err.println("  k<kcs>           where <kcs> is the interchange size in 1024-char units");
+    System.err.println("  i<iterations>    where <iterations> is the number of timed passes per variant");
+    System.err.println("  w<iterations>    where <iterations> is the number of untimed warmup passes per variant");
+    System.err.println("");
+    System.err.println("Notes:");
+    System.err.println("  All arguments are optional. Default values:");
+    System.err.println("    k  1000");
+    System.err.println("    i  20");
+    System.err.println("    w  5");
+    throw new RuntimeException("Missing or invalid command line arguments");
+  }
+
+}
@@ -22,6 +22,7 @@ package com.berryworks.edireader.demo;
 
 import com.berryworks.edireader.EDIReader;
 import com.berryworks.edireader.EDIReaderFactory;
+import com.berryworks.edireader.tokenizer.Tokenizer;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -83,16 +84,18 @@ public class EDIAck
   {
 
     handler = new DefaultHandler();
-    char[] leftOver = null;
+    Tokenizer tokenizer = null;
     Writer ackWriter = new PrintWriter(ackOutput);
 
     try
     {
       while (true)
       {
-        // The following line creates an EDIReader explicitly
-        // as an alternative to the JAXP-based technique.
-        parser = EDIReaderFactory.createEDIReader(inputSource, leftOver);
+        // The following statement creates an EDIReader explicitly
+        // as an alternative to the JAXP-based technique. After the first interchange,
+        // the tokenizer of the previous one continues with the next.
+        parser = tokenizer == null ?
+          EDIReaderFactory.createEDIReader(inputSource) : EDIReaderFactory.createEDIReader(tokenizer);
         if (parser == null)
         {
           // end of input
@@ -101,7 +104,7 @@ public class EDIAck
         parser.setContentHandler(handler);
         parser.setAcknowledgment(ackWriter);
         parser.parse(inputSource);
-        leftOver = parser.getTokenizer().getBuffered();
+        tokenizer = parser.getTokenizer();
       }
 
     } catch (IOException e)
@@ -117,15 +117,17 @@ public class EDIScanner
   {
 
     ContentHandler handler = new ScanningHandler();
-    char[] leftOver = null;
+    Tokenizer tokenizer = null;
 
     try
     {
       while (true)
       {
-        // The following line creates an EDIReader explicitly
-        // as an alternative to the JAXP-based technique.
-        parser = EDIReaderFactory.createEDIReader(inputSource, leftOver);
+        // The following statement creates an EDIReader explicitly
+        // as an alternative to the JAXP-based technique. After the first interchange,
+        // the tokenizer of the previous one continues with the next.
+        parser = tokenizer == null ?
+          EDIReaderFactory.createEDIReader(inputSource) : EDIReaderFactory.createEDIReader(tokenizer);
         if (parser == null)
         {
           // end of input
@@ -134,7 +136,7 @@ public class EDIScanner
         parser.setContentHandler(handler);
         parser.setSyntaxExceptionHandler(new SyntaxExceptionHandler());
         parser.parse(inputSource);
-        leftOver = parser.getTokenizer().getBuffered();
+        tokenizer = parser.getTokenizer();
       }
 
     } catch (IOException e)
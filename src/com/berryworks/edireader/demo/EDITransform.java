@@ -21,6 +21,7 @@
 package com.berryworks.edireader.demo;
 
 import com.berryworks.edireader.EDIParserFactory;
+import com.berryworks.edireader.util.sax.XMLOutputHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
@@ -45,11 +46,12 @@ import java.io.*;
  * the command line <br>
  * <br>
  * <code>
- * java com.berryworks.edireader.demo.EDITransform [input-file] -x stylesheet-file [-o output-file]
+ * java com.berryworks.edireader.demo.EDITransform [input-file] [-x stylesheet-file] [-o output-file]
  * </code><br>
  * <br>
  * If an input-file is not specified, System.in is used; if an output-file is
- * not specified, System.out is used.
+ * not specified, System.out is used. If a stylesheet is not specified, the XML
+ * is written without transformation by an XMLOutputHandler.
  */
 public class EDITransform
 {
@@ -61,7 +63,7 @@ public class EDITransform
    * Constructor for the EDITransform object
    *
    * @param input      file containing EDI-structured data
-   * @param stylesheet file containing the stylesheet to be used
+   * @param stylesheet file containing the stylesheet to be used, or null for none
    * @param output     file containing result of the transformation
    */
   public EDITransform(String input, String stylesheet, String output)
@@ -105,8 +107,15 @@ public class EDITransform
     }
 
     // Establish stylesheet
-    stylesheetSource = new StreamSource(new File(stylesheet));
-    System.out.println("Stylesheet file " + stylesheet + " opened");
+    if (stylesheet != null)
+    {
+      stylesheetSource = new StreamSource(new File(stylesheet));
+      System.out.println("Stylesheet file " + stylesheet + " opened");
+    }
+    else
+    {
+      stylesheetSource = null;
+    }
 
   }
 
@@ -131,6 +140,14 @@ public class EDITransform
       SAXParser sParser = sFactory.newSAXParser();
       ediReader = sParser.getXMLReader();
 
+      // Without a stylesheet, the XML is written directly as the EDI input is parsed
+      if (stylesheetSource == null)
+      {
+        ediReader.setContentHandler(new XMLOutputHandler(generatedOutput));
+        ediReader.parse(inputSource);
+        return;
+      }
+
       // Construct a SAXTransformerFactory
       TransformerFactory tFactory = TransformerFactory.newInstance();
       if (!tFactory.getFeature(SAXTransformerFactory.FEATURE))
@@ -199,8 +216,6 @@ public class EDITransform
       else
         inputFileName = args[i];
     }
-    if (stylesheetFileName == null)
-      badArgs();
 
     EDITransform theObject = new EDITransform(inputFileName,
       stylesheetFileName, outputFileName);
@@ -26,6 +26,7 @@ import com.berryworks.edireader.EDISyntaxException;
 import com.berryworks.edireader.error.EDISyntaxExceptionHandler;
 import com.berryworks.edireader.error.RecoverableSyntaxException;
 import com.berryworks.edireader.util.CommandLine;
+import com.berryworks.edireader.util.sax.XMLOutputHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
@@ -42,12 +43,13 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.*;
 
 /**
- * Converts EDI input to XML output using the default XSLT transformer.
+ * Converts EDI input to XML output. The run() method writes the XML directly with an
+ * XMLOutputHandler, while the alternate methods use the default XSLT transformer.
  * <p/><br><br>
  * Assuming your CLASSPATH contains edireader-n.n.n.jar, you may run this program with
  * the command line <br>
  * <br><code>
- * java com.berryworks.edireader.demo.EDItoXML [input-file] [-o output-file]
+ * java com.berryworks.edireader.demo.EDItoXML [input-file] [-o output-file] [-i indent]
  * </code><br><br>
  * If an input-file is not specified, System.in is used; if an output-file is
  * not specified, System.out is used.
@@ -58,6 +60,7 @@ public class EDItoXML {
     private final Reader inputReader;
     private boolean namespaceEnabled;
     private boolean recover;
+    private int indent;
 
     public EDItoXML(Reader inputReader, Writer outputWriter) {
         this.inputReader = inputReader;
@@ -71,34 +74,28 @@ public class EDItoXML {
     public void run() {
 
         try {
-            XMLReader ediReader = new EDIReader();
+            EDIReader ediReader = new EDIReader();
 
             // Tell the ediReader if an xmlns="http://..." is desired
             if (namespaceEnabled) {
-                ((EDIReader) ediReader).setNamespaceEnabled(namespaceEnabled);
+                ediReader.setNamespaceEnabled(namespaceEnabled);
             }
 
             // Tell the ediReader to handle EDI syntax errors instead of aborting
             if (recover) {
-                ((EDIReader) ediReader).setSyntaxExceptionHandler(new IgnoreSyntaxExceptions());
+                ediReader.setSyntaxExceptionHandler(new IgnoreSyntaxExceptions());
             }
 
-            // Establish the SAXSource
-            SAXSource source = new SAXSource(ediReader, inputSource);
-
-            // Establish a Transformer
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-
-            // Use a StreamResult to capture the generated XML output
-            StreamResult result = new StreamResult(generatedOutput);
-
-            // Call the Transformer to generate XML output from the parsed input
-            transformer.transform(source, result);
-        } catch (TransformerConfigurationException e) {
-            System.err.println("\nUnable to create Transformer: " + e);
-        } catch (TransformerException e) {
+            // Use an XMLOutputHandler to write the XML text as the EDI input is parsed
+            XMLOutputHandler handler = new XMLOutputHandler(generatedOutput);
+            handler.setIndent(indent);
+            ediReader.setContentHandler(handler);
+            ediReader.parse(inputSource);
+        } catch (SAXException e) {
             System.err.println("\nFailure to transform: " + e);
             System.err.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("\nException attempting to read EDI data: " + e);
         }
 
         try {
@@ -203,13 +200,14 @@ public class EDItoXML {
         CommandLine commandLine = new CommandLine(args) {
             @Override
             public String usage() {
-                return "EDItoXML [inputfile] [-o outputfile] [-n true|false] [-r true|false]";
+                return "EDItoXML [inputfile] [-o outputfile] [-n true|false] [-r true|false] [-i indent]";
             }
         };
         String inputFileName = commandLine.getPosition(0);
         String outputFileName = commandLine.getOption("o");
         boolean namespaceEnabled = "true".equals(commandLine.getOption("n"));
         boolean recover = "true".equals(commandLine.getOption("r"));
+        String indent = commandLine.getOption("i");
 
         // Establish input
         Reader inputReader;
@@ -243,6 +241,9 @@ public class EDItoXML {
         EDItoXML theObject = new EDItoXML(inputReader, generatedOutput);
         theObject.setNamespaceEnabled(namespaceEnabled);
         theObject.setRecover(recover);
+        if (indent != null) {
+            theObject.setIndent(Integer.parseInt(indent));
+        }
         theObject.run();
         String s = System.getProperty("line.separator");
         System.out.print(s + "Transformation complete" + s);
@@ -260,6 +261,15 @@ public class EDItoXML {
         this.recover = recover;
     }
 
+    /**
+     * Sets the number of spaces by which run() indents each level of nested XML elements.
+     *
+     * @param indent number of spaces, or 0 for no line breaks
+     */
+    public void setIndent(int indent) {
+        this.indent = indent;
+    }
+
     static class IgnoreSyntaxExceptions implements EDISyntaxExceptionHandler {
 
         public boolean process(RecoverableSyntaxException syntaxException) {
@@ -40,7 +40,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   protected final EDIReader ediReader;
   protected String indent;
   private String filename;
-  private int charsReadSoFar;
+  private long charsReadSoFar;
 
   public FormatterHandler(EDIReader reader, Reader input, PrintWriter output)
   {
@@ -51,7 +51,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void beginInterchange(int charCount, int segmentCharCount)
+  protected void beginInterchange(long charCount, int segmentCharCount)
   {
     // System.err.println("begin interchange " + charCount + ", "
     // + segmentCharCount);
@@ -62,7 +62,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void endInterchange(int charCount, int segmentCharCount)
+  protected void endInterchange(long charCount, int segmentCharCount)
   {
     indent = "";
     String segment = readSegment((charCount - segmentCharCount),
@@ -71,7 +71,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void beginExplicitGroup(int charCount, int segmentCharCount)
+  protected void beginExplicitGroup(long charCount, int segmentCharCount)
   {
     indent = "   ";
     String segment = readSegment((charCount - segmentCharCount),
@@ -80,7 +80,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void endExplicitGroup(int charCount, int segmentCharCount)
+  protected void endExplicitGroup(long charCount, int segmentCharCount)
   {
     indent = "   ";
     String segment = readSegment((charCount - segmentCharCount),
@@ -123,7 +123,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void beginDocument(int charCount, int segmentCharCount,
+  protected void beginDocument(long charCount, int segmentCharCount,
                                Attributes attributes)
   {
     indent = "      ";
@@ -133,7 +133,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void endDocument(int charCount, int segmentCharCount)
+  protected void endDocument(long charCount, int segmentCharCount)
   {
     // System.err.println("endDocument");
     indent = "      ";
@@ -150,7 +150,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected void endSegment(int charCount, int segmentCharCount)
+  protected void endSegment(long charCount, int segmentCharCount)
   {
     String segment = readSegment((charCount - segmentCharCount),
       segmentCharCount);
@@ -164,7 +164,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
     output.println(indent + "+-----------");
   }
 
-  protected String readSegment(int offset, int length)
+  protected String readSegment(long offset, int length)
   {
     // System.err.println("reading at offset " + offset + " for length "
     // + length);
@@ -172,7 +172,7 @@ public class FormatterHandler extends EDIReaderSAXAdapter
     // First deal with skipping ahead if needed
     if (charsReadSoFar < offset)
     {
-      int toSkip = offset - charsReadSoFar;
+      long toSkip = offset - charsReadSoFar;
       while (toSkip > 0)
       {
         try
@@ -260,9 +260,9 @@ public class FormatterHandler extends EDIReaderSAXAdapter
   }
 
   @Override
-  protected int getCharCount(String localName, Attributes attributes)
+  protected long getCharOffset(String localName, Attributes attributes)
   {
-    return ediReader.getCharCount();
+    return ediReader.getCharOffset();
   }
 
   public void start(String uri, String name, String data, Attributes attributes)
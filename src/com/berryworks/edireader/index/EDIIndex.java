@@ -0,0 +1,642 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the interchanges, functional groups, and transactions of an EDI file, giving the
+ * byte offsets at which each one begins and ends together with the control numbers and parties
+ * by which it is usually looked up. The offsets of the segments within each transaction may
+ * also be included. An index is built by EDIIndexer, and is used by IndexedEDIReader to parse
+ * a single transaction without reading the rest of the file.
+ * <p/>
+ * The index is saved in a compact binary form, in which each offset is written as a
+ * variable-length difference from the one before it and each distinct string is written only once.
+ *
+ * @see EDIIndexer
+ * @see IndexedEDIReader
+ */
+public class EDIIndex
+{
+  private static final int MAGIC = 0x45444958;
+  private static final int FORMAT_VERSION = 1;
+
+  private final Charset charset;
+  private final long fileLength;
+  private final boolean segmentOffsets;
+  private final List<Interchange> interchanges = new ArrayList<Interchange>();
+
+  EDIIndex(Charset charset, long fileLength, boolean segmentOffsets)
+  {
+    this.charset = charset;
+    this.fileLength = fileLength;
+    this.segmentOffsets = segmentOffsets;
+  }
+
+  /**
+   * Returns the single-byte character encoding of the indexed file.
+   *
+   * @return Charset
+   */
+  public Charset getCharset()
+  {
+    return charset;
+  }
+
+  /**
+   * Returns the length of the indexed file, by which an IndexedEDIReader detects
+   * that the file has changed since it was indexed.
+   *
+   * @return length in bytes
+   */
+  public long getFileLength()
+  {
+    return fileLength;
+  }
+
+  public boolean hasSegmentOffsets()
+  {
+    return segmentOffsets;
+  }
+
+  public List<Interchange> getInterchanges()
+  {
+    return Collections.unmodifiableList(interchanges);
+  }
+
+  /**
+   * Returns all of the transactions in the file, in order.
+   *
+   * @return list of Transaction
+   */
+  public List<Transaction> getTransactions()
+  {
+    List<Transaction> result = new ArrayList<Transaction>();
+    for (Interchange interchange : interchanges)
+      for (Group group : interchange.groups)
+        result.addAll(group.transactions);
+    return result;
+  }
+
+  /**
+   * Returns the first transaction with the given control numbers. A null control
+   * number matches any value.
+   *
+   * @param interchangeControlNumber ISA13 or UNB05, or null
+   * @param groupControlNumber       GS06 or UNG05, or null
+   * @param controlNumber            ST02 or UNH01, or null
+   * @return Transaction, or null if there is none
+   */
+  public Transaction findTransaction(String interchangeControlNumber, String groupControlNumber, String controlNumber)
+  {
+    for (Interchange interchange : interchanges)
+    {
+      if (!matches(interchangeControlNumber, interchange.controlNumber))
+        continue;
+      for (Group group : interchange.groups)
+      {
+        if (!matches(groupControlNumber, group.controlNumber))
+          continue;
+        for (Transaction transaction : group.transactions)
+          if (matches(controlNumber, transaction.controlNumber))
+            return transaction;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the transactions exchanged with a trading partner, identified either by the
+   * sender or receiver of the interchange or by the application sender or receiver of the group.
+   *
+   * @param partner identifier of the partner
+   * @return list of Transaction
+   */
+  public List<Transaction> findTransactions(String partner)
+  {
+    List<Transaction> result = new ArrayList<Transaction>();
+    for (Interchange interchange : interchanges)
+    {
+      boolean interchangeMatches = partner.equals(interchange.sender) || partner.equals(interchange.receiver);
+      for (Group group : interchange.groups)
+        if (interchangeMatches || partner.equals(group.sender) || partner.equals(group.receiver))
+          result.addAll(group.transactions);
+    }
+    return result;
+  }
+
+  private static boolean matches(String wanted, String value)
+  {
+    return wanted == null || wanted.equals(value);
+  }
+
+  void add(Interchange interchange)
+  {
+    interchanges.add(interchange);
+  }
+
+  /**
+   * Saves the index to a file.
+   *
+   * @param file to be written
+   * @throws IOException if problem writing the file
+   */
+  public void save(File file) throws IOException
+  {
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    try
+    {
+      write(out);
+    } finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Loads an index saved by save().
+   *
+   * @param file to be read
+   * @return EDIIndex
+   * @throws IOException if problem reading the file or if it is not an index
+   */
+  public static EDIIndex load(File file) throws IOException
+  {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try
+    {
+      return read(in);
+    } finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the index in its binary form.
+   *
+   * @param outputStream to which the index is written
+   * @throws IOException if problem writing
+   */
+  public void write(OutputStream outputStream) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream(outputStream);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeUTF(charset.name());
+    out.writeLong(fileLength);
+    out.writeBoolean(segmentOffsets);
+
+    // Each distinct string is written once, and referred to by its position
+    List<String> strings = new ArrayList<String>();
+    Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    for (Interchange interchange : interchanges)
+    {
+      intern(interchange.standard, strings, stringIndex);
+      intern(interchange.sender, strings, stringIndex);
+      intern(interchange.receiver, strings, stringIndex);
+      intern(interchange.controlNumber, strings, stringIndex);
+      for (Group group : interchange.groups)
+      {
+        intern(group.sender, strings, stringIndex);
+        intern(group.receiver, strings, stringIndex);
+        intern(group.controlNumber, strings, stringIndex);
+        for (Transaction transaction : group.transactions)
+        {
+          intern(transaction.documentType, strings, stringIndex);
+          intern(transaction.controlNumber, strings, stringIndex);
+        }
+      }
+    }
+    writeVarLong(out, strings.size());
+    for (String s : strings)
+      out.writeUTF(s);
+
+    writeVarLong(out, interchanges.size());
+    long previous = 0;
+    for (Interchange interchange : interchanges)
+    {
+      writeVarLong(out, interchange.start - previous);
+      writeVarLong(out, interchange.headerEnd - interchange.start);
+      writeVarLong(out, interchange.end - interchange.headerEnd);
+      writeString(out, interchange.standard, stringIndex);
+      writeString(out, interchange.sender, stringIndex);
+      writeString(out, interchange.receiver, stringIndex);
+      writeString(out, interchange.controlNumber, stringIndex);
+      previous = interchange.headerEnd;
+
+      writeVarLong(out, interchange.groups.size());
+      for (Group group : interchange.groups)
+      {
+        writeVarLong(out, group.start - previous);
+        writeVarLong(out, group.headerEnd - group.start);
+        writeVarLong(out, group.end - group.headerEnd);
+        writeString(out, group.sender, stringIndex);
+        writeString(out, group.receiver, stringIndex);
+        writeString(out, group.controlNumber, stringIndex);
+        previous = group.headerEnd;
+
+        writeVarLong(out, group.transactions.size());
+        for (Transaction transaction : group.transactions)
+        {
+          writeVarLong(out, transaction.start - previous);
+          writeVarLong(out, transaction.end - transaction.start);
+          writeString(out, transaction.documentType, stringIndex);
+          writeString(out, transaction.controlNumber, stringIndex);
+          if (segmentOffsets)
+          {
+            writeVarLong(out, transaction.segmentCount);
+            int previousSegment = 0;
+            for (int i = 0; i < transaction.segmentCount; i++)
+            {
+              writeVarLong(out, transaction.segmentOffsets[i] - previousSegment);
+              previousSegment = transaction.segmentOffsets[i];
+            }
+          }
+          previous = transaction.end;
+        }
+        previous = group.end;
+      }
+      previous = interchange.end;
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads an index in the binary form written by write().
+   *
+   * @param inputStream from which the index is read
+   * @return EDIIndex
+   * @throws IOException if problem reading or if the input is not an index
+   */
+  public static EDIIndex read(InputStream inputStream) throws IOException
+  {
+    DataInputStream in = new DataInputStream(inputStream);
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not an EDI index");
+    int version = in.readInt();
+    if (version != FORMAT_VERSION)
+      throw new IOException("Unsupported EDI index version " + version);
+    Charset charset = Charset.forName(in.readUTF());
+    long fileLength = in.readLong();
+    boolean segmentOffsets = in.readBoolean();
+    EDIIndex result = new EDIIndex(charset, fileLength, segmentOffsets);
+
+    String[] strings = new String[(int) readVarLong(in)];
+    for (int i = 0; i < strings.length; i++)
+      strings[i] = in.readUTF();
+
+    long previous = 0;
+    for (long i = readVarLong(in); i > 0; i--)
+    {
+      Interchange interchange = new Interchange();
+      interchange.start = previous + readVarLong(in);
+      interchange.headerEnd = interchange.start + readVarLong(in);
+      interchange.end = interchange.headerEnd + readVarLong(in);
+      interchange.standard = readString(in, strings);
+      interchange.sender = readString(in, strings);
+      interchange.receiver = readString(in, strings);
+      interchange.controlNumber = readString(in, strings);
+      previous = interchange.headerEnd;
+
+      for (long j = readVarLong(in); j > 0; j--)
+      {
+        Group group = new Group(interchange);
+        group.start = previous + readVarLong(in);
+        group.headerEnd = group.start + readVarLong(in);
+        group.end = group.headerEnd + readVarLong(in);
+        group.sender = readString(in, strings);
+        group.receiver = readString(in, strings);
+        group.controlNumber = readString(in, strings);
+        previous = group.headerEnd;
+
+        for (long k = readVarLong(in); k > 0; k--)
+        {
+          Transaction transaction = new Transaction(group);
+          transaction.start = previous + readVarLong(in);
+          transaction.end = transaction.start + readVarLong(in);
+          transaction.documentType = readString(in, strings);
+          transaction.controlNumber = readString(in, strings);
+          if (segmentOffsets)
+          {
+            int previousSegment = 0;
+            for (long n = readVarLong(in); n > 0; n--)
+              transaction.addSegmentOffset(previousSegment += (int) readVarLong(in));
+          }
+          previous = transaction.end;
+          group.transactions.add(transaction);
+        }
+        previous = group.end;
+        interchange.groups.add(group);
+      }
+      previous = interchange.end;
+      result.add(interchange);
+    }
+    return result;
+  }
+
+  private static void intern(String s, List<String> strings, Map<String, Integer> stringIndex)
+  {
+    if (s != null && !stringIndex.containsKey(s))
+    {
+      stringIndex.put(s, strings.size());
+      strings.add(s);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s, Map<String, Integer> stringIndex) throws IOException
+  {
+    // 0 stands for null, and n for the string at position n-1
+    writeVarLong(out, s == null ? 0 : stringIndex.get(s) + 1);
+  }
+
+  private static String readString(DataInputStream in, String[] strings) throws IOException
+  {
+    int n = (int) readVarLong(in);
+    return n == 0 ? null : strings[n - 1];
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException
+  {
+    while ((value & ~0x7FL) != 0)
+    {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException
+  {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7)
+    {
+      int b = in.readUnsignedByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return result;
+    }
+    throw new IOException("Malformed EDI index");
+  }
+
+  /**
+   * An interchange (ISA/IEA or UNB/UNZ). Its header extends from its start, including
+   * any UNA segment, to the start of its first group.
+   */
+  public static class Interchange
+  {
+    long start;
+    long headerEnd;
+    long end;
+    String standard;
+    String sender;
+    String receiver;
+    String controlNumber;
+    final List<Group> groups = new ArrayList<Group>();
+
+    public long getStart()
+    {
+      return start;
+    }
+
+    public long getHeaderEnd()
+    {
+      return headerEnd;
+    }
+
+    public long getEnd()
+    {
+      return end;
+    }
+
+    /**
+     * Returns the standard of the interchange, either "ANSI X.12" or "EDIFACT"
+     *
+     * @return standard name
+     */
+    public String getStandard()
+    {
+      return standard;
+    }
+
+    public String getSender()
+    {
+      return sender;
+    }
+
+    public String getReceiver()
+    {
+      return receiver;
+    }
+
+    public String getControlNumber()
+    {
+      return controlNumber;
+    }
+
+    public List<Group> getGroups()
+    {
+      return Collections.unmodifiableList(groups);
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Interchange " + controlNumber + " from " + sender + " to " + receiver + " at " + start;
+    }
+  }
+
+  /**
+   * A functional group (GS/GE or UNG/UNE). Its header is the GS or UNG segment, and
+   * is empty for the implicit group of EDIFACT messages not enclosed in a UNG/UNE.
+   */
+  public static class Group
+  {
+    private final Interchange interchange;
+    long start;
+    long headerEnd;
+    long end;
+    String sender;
+    String receiver;
+    String controlNumber;
+    final List<Transaction> transactions = new ArrayList<Transaction>();
+
+    Group(Interchange interchange)
+    {
+      this.interchange = interchange;
+    }
+
+    public Interchange getInterchange()
+    {
+      return interchange;
+    }
+
+    public long getStart()
+    {
+      return start;
+    }
+
+    public long getHeaderEnd()
+    {
+      return headerEnd;
+    }
+
+    public long getEnd()
+    {
+      return end;
+    }
+
+    public boolean isImplicit()
+    {
+      return headerEnd == start;
+    }
+
+    public String getSender()
+    {
+      return sender;
+    }
+
+    public String getReceiver()
+    {
+      return receiver;
+    }
+
+    public String getControlNumber()
+    {
+      return controlNumber;
+    }
+
+    public List<Transaction> getTransactions()
+    {
+      return Collections.unmodifiableList(transactions);
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Group " + controlNumber + " at " + start;
+    }
+  }
+
+  /**
+   * A transaction set (ST/SE) or message (UNH/UNT).
+   */
+  public static class Transaction
+  {
+    private final Group group;
+    long start;
+    long end;
+    String documentType;
+    String controlNumber;
+    private int[] segmentOffsets;
+    private int segmentCount;
+
+    Transaction(Group group)
+    {
+      this.group = group;
+    }
+
+    public Group getGroup()
+    {
+      return group;
+    }
+
+    public long getStart()
+    {
+      return start;
+    }
+
+    public long getEnd()
+    {
+      return end;
+    }
+
+    public String getDocumentType()
+    {
+      return documentType;
+    }
+
+    public String getControlNumber()
+    {
+      return controlNumber;
+    }
+
+    /**
+     * Returns the number of segments whose offsets are indexed: those between the ST and SE
+     * or the UNH and UNT, other than the segments of a BIN or UNO/UNP sequence.
+     *
+     * @return number of segments, or 0 if segment offsets were not indexed
+     */
+    public int getSegmentCount()
+    {
+      return segmentCount;
+    }
+
+    /**
+     * Returns the byte offset in the file of one of the segments within the transaction.
+     *
+     * @param i position of the segment, starting with 0 for the one following the ST or UNH
+     * @return byte offset
+     */
+    public long getSegmentOffset(int i)
+    {
+      if (i < 0 || i >= segmentCount)
+        throw new IndexOutOfBoundsException("No segment " + i + " in " + this);
+      return start + segmentOffsets[i];
+    }
+
+    void addSegmentOffset(int offset)
+    {
+      if (segmentOffsets == null)
+        segmentOffsets = new int[16];
+      else if (segmentCount == segmentOffsets.length)
+      {
+        int[] larger = new int[2 * segmentCount];
+        System.arraycopy(segmentOffsets, 0, larger, 0, segmentCount);
+        segmentOffsets = larger;
+      }
+      segmentOffsets[segmentCount++] = offset;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Transaction " + documentType + " " + controlNumber + " at " + start;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader.index;
+
+import com.berryworks.edireader.EDIReader;
+import com.berryworks.edireader.EDISyntaxException;
+import com.berryworks.edireader.InterchangeScanner;
+import com.berryworks.edireader.XMLTags;
+import com.berryworks.edireader.tokenizer.ByteBufferInputStream;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Builds an EDIIndex for a file of ANSI X12 or EDIFACT interchanges.
+ * <p/>
+ * The file is mapped into memory, a window of up to 1 GB at a time, and the boundaries
+ * between interchanges are found by InterchangeScanner. Each interchange is then parsed
+ * by an EDIReader in envelope-only mode, or in full if segment offsets are to be indexed,
+ * and the byte offset at which each interchange, group, transaction, and segment begins is
+ * taken from the tokenizer as its SAX events are delivered. The file must be in a single-byte
+ * character encoding, and no interchange may exceed the size of a window.
+ */
+public class EDIIndexer
+{
+  private static final long WINDOW_SIZE = 1L << 30;
+
+  private Charset charset = Charset.forName("ISO-8859-1");
+
+  private boolean segmentOffsets;
+
+  /**
+   * Sets the character encoding of the files to be indexed, which must be a single-byte
+   * encoding. The default is ISO-8859-1.
+   *
+   * @param charset Charset
+   */
+  public void setCharset(Charset charset)
+  {
+    this.charset = charset;
+  }
+
+  public Charset getCharset()
+  {
+    return charset;
+  }
+
+  /**
+   * Sets whether the offset of every segment of each transaction is to be indexed
+   * in addition to those of the interchanges, groups, and transactions. Doing so requires
+   * each transaction to be parsed in full, and makes the index considerably larger.
+   *
+   * @param segmentOffsets true to index segment offsets
+   */
+  public void setSegmentOffsets(boolean segmentOffsets)
+  {
+    this.segmentOffsets = segmentOffsets;
+  }
+
+  public boolean isSegmentOffsets()
+  {
+    return segmentOffsets;
+  }
+
+  /**
+   * Builds an index of a file.
+   *
+   * @param file containing EDI interchanges
+   * @return EDIIndex
+   * @throws SAXException if invalid EDI is detected
+   * @throws IOException  if problem reading the file, or if the end of an interchange cannot be found
+   */
+  public EDIIndex index(File file) throws SAXException, IOException
+  {
+    if (!ByteBufferInputStream.isSingleByte(charset))
+      throw new IOException("Indexing requires a single-byte character encoding instead of " + charset);
+
+    FileInputStream fileInputStream = new FileInputStream(file);
+    try
+    {
+      FileChannel channel = fileInputStream.getChannel();
+      long size = channel.size();
+      EDIIndex index = new EDIIndex(charset, size, segmentOffsets);
+      IndexingHandler handler = new IndexingHandler(index);
+
+      long position = 0;
+      while (position < size)
+      {
+        long length = Math.min(size - position, WINDOW_SIZE);
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int indexed = indexWindow(window, position, handler);
+        if (indexed == length)
+          break;
+        if (indexed == 0 || position + length == size)
+          throw new EDISyntaxException("Cannot find the end of the interchange at byte offset " + (position + indexed));
+        // Continue with the interchange that extends beyond this window
+        position += indexed;
+      }
+      return index;
+    } finally
+    {
+      fileInputStream.close();
+    }
+  }
+
+  /**
+   * Indexes each complete interchange within a window of the file.
+   *
+   * @return number of bytes indexed, from the beginning of the window
+   */
+  private int indexWindow(ByteBuffer window, long position, IndexingHandler handler)
+    throws SAXException, IOException
+  {
+    ByteBufferInputStream byteInput = new ByteBufferInputStream(window, charset);
+    CharSequence chars = InterchangeScanner.asCharSequence(window, byteInput.getDecodeTable());
+    int length = chars.length();
+    int indexed = 0;
+    while (true)
+    {
+      int start = indexed;
+      while (start < length && Character.isWhitespace(chars.charAt(start)))
+        start++;
+      if (start == length)
+        return length;
+      int end = InterchangeScanner.findEnd(chars, start);
+      if (end < 0)
+        return indexed;
+
+      ByteBuffer range = window.duplicate();
+      range.limit(end);
+      range.position(start);
+      InputSource source = new InputSource(new ByteBufferInputStream(range.slice(), charset));
+      source.setEncoding(charset.name());
+      handler.parse(source, position + start, position + end);
+      indexed = end;
+    }
+  }
+
+  /**
+   * Records the offsets of the interchange being parsed from the SAX events of its parser.
+   * The start of each element is the offset of the segment that the tokenizer has most
+   * recently begun when the element is started, and each transaction or group ends where
+   * whatever follows it begins.
+   */
+  private class IndexingHandler extends DefaultHandler
+  {
+    private final EDIIndex index;
+    private final EDIReader reader = new EDIReader();
+    private final XMLTags tags = reader.getXMLTags();
+    private long base;
+    private long end;
+    private EDIIndex.Interchange interchange;
+    private EDIIndex.Group group;
+    private EDIIndex.Transaction transaction;
+    private String party;
+
+    IndexingHandler(EDIIndex index)
+    {
+      this.index = index;
+      reader.setEnvelopeOnly(!segmentOffsets);
+      reader.setContentHandler(this);
+    }
+
+    void parse(InputSource source, long start, long end) throws SAXException, IOException
+    {
+      this.base = start;
+      this.end = end;
+      reader.parse(source);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+      throws SAXException
+    {
+      long offset = base + reader.getSegmentStartByteOffset();
+      if (localName.equals(tags.getSegTag()))
+      {
+        if (segmentOffsets && transaction != null)
+          transaction.addSegmentOffset((int) (offset - transaction.start));
+      }
+      else if (localName.equals(tags.getDocumentTag()))
+      {
+        endTransaction(offset);
+        if (group.headerEnd < 0)
+          group.headerEnd = offset;
+        transaction = new EDIIndex.Transaction(group);
+        transaction.start = offset;
+        transaction.end = -1;
+        transaction.documentType = attributes.getValue(tags.getDocumentType());
+        transaction.controlNumber = attributes.getValue(tags.getControl());
+        group.transactions.add(transaction);
+      }
+      else if (localName.equals(tags.getGroupTag()))
+      {
+        endGroup(offset);
+        if (interchange.groups.isEmpty())
+          interchange.headerEnd = offset;
+        group = new EDIIndex.Group(interchange);
+        group.start = offset;
+        group.headerEnd = -1;
+        group.end = -1;
+        group.sender = attributes.getValue(tags.getApplSender());
+        group.receiver = attributes.getValue(tags.getApplReceiver());
+        group.controlNumber = attributes.getValue(tags.getControl());
+        interchange.groups.add(group);
+        transaction = null;
+      }
+      else if (localName.equals(tags.getInterchangeTag()))
+      {
+        interchange = new EDIIndex.Interchange();
+        interchange.start = base;
+        interchange.headerEnd = -1;
+        interchange.end = end;
+        interchange.standard = attributes.getValue(tags.getStandard());
+        interchange.controlNumber = attributes.getValue(tags.getControl());
+        index.add(interchange);
+        group = null;
+        transaction = null;
+      }
+      else if (localName.equals(tags.getSenderTag()) || localName.equals(tags.getReceiverTag()))
+      {
+        party = localName;
+      }
+      else if (localName.equals(tags.getAddressTag()) && party != null)
+      {
+        String id = attributes.getValue(tags.getIdAttribute());
+        if (id != null)
+          id = id.trim();
+        if (party.equals(tags.getSenderTag()))
+          interchange.sender = id;
+        else
+          interchange.receiver = id;
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+      long offset = base + reader.getSegmentStartByteOffset();
+      if (localName.equals(tags.getGroupTag()))
+      {
+        endTransaction(offset);
+        if (group.headerEnd < 0)
+          group.headerEnd = offset;
+      }
+      else if (localName.equals(tags.getInterchangeTag()))
+      {
+        endGroup(offset);
+        if (interchange.headerEnd < 0)
+          interchange.headerEnd = offset;
+      }
+      else if (localName.equals(tags.getSenderTag()) || localName.equals(tags.getReceiverTag()))
+      {
+        party = null;
+      }
+    }
+
+    private void endTransaction(long offset)
+    {
+      if (transaction != null && transaction.end < 0)
+        transaction.end = offset;
+    }
+
+    private void endGroup(long offset)
+    {
+      if (group != null && group.end < 0)
+        group.end = offset;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader.index;
+
+import com.berryworks.edireader.EDIReader;
+import com.berryworks.edireader.EDIReaderFactory;
+import com.berryworks.edireader.InterchangeScanner;
+import com.berryworks.edireader.tokenizer.ByteBufferInputStream;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An EDIReader that parses a single transaction of a file indexed by EDIIndexer,
+ * reading only the bytes of the transaction and of the headers of its interchange and group.
+ * <p/>
+ * Those ranges of the file are mapped into memory and read in sequence as an interchange,
+ * completed by group and interchange trailers that count only the one transaction, which is
+ * then parsed as usual. The SAX events are therefore those of a full parse of the file, except
+ * that the group and interchange contain only the one transaction. Like any EDIReader, an
+ * IndexedEDIReader can also parse an entire InputSource with parse(InputSource).
+ */
+public class IndexedEDIReader extends EDIReader
+{
+  private final File file;
+  private final EDIIndex index;
+
+  /**
+   * Constructs an instance for a file and its index.
+   *
+   * @param file  containing EDI interchanges
+   * @param index built for the file by EDIIndexer
+   */
+  public IndexedEDIReader(File file, EDIIndex index)
+  {
+    this.file = file;
+    this.index = index;
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  public EDIIndex getIndex()
+  {
+    return index;
+  }
+
+  /**
+   * Parses one transaction of the indexed file, delivering SAX events
+   * for a complete XML document to the ContentHandler.
+   *
+   * @param transaction from the index
+   * @throws SAXException if invalid EDI is detected or the ContentHandler throws one
+   * @throws IOException  if problem reading the file, or if it has changed since it was indexed
+   */
+  public void parse(EDIIndex.Transaction transaction) throws SAXException, IOException
+  {
+    EDIIndex.Group group = transaction.getGroup();
+    EDIIndex.Interchange interchange = group.getInterchange();
+    Charset charset = index.getCharset();
+
+    ByteBuffer interchangeHeader;
+    ByteBuffer groupHeader;
+    ByteBuffer body;
+    FileInputStream fileInputStream = new FileInputStream(file);
+    try
+    {
+      FileChannel channel = fileInputStream.getChannel();
+      if (channel.size() != index.getFileLength())
+        throw new IOException(file + " has changed since it was indexed");
+      interchangeHeader = map(channel, interchange.getStart(), interchange.getHeaderEnd());
+      groupHeader = map(channel, group.getStart(), group.getHeaderEnd());
+      body = map(channel, transaction.getStart(), transaction.getEnd());
+    } finally
+    {
+      // The mappings remain valid after the channel is closed
+      fileInputStream.close();
+    }
+
+    byte[] trailers = createTrailers(interchange, group, interchangeHeader, groupHeader, body).getBytes(charset.name());
+
+    // The mapped ranges are read in place, a buffer at a time, rather than copied into one array
+    List<InputStream> ranges = new ArrayList<InputStream>();
+    ranges.add(new ByteBufferInputStream(interchangeHeader, charset));
+    ranges.add(new ByteBufferInputStream(groupHeader, charset));
+    ranges.add(new ByteBufferInputStream(body, charset));
+    ranges.add(new ByteBufferInputStream(ByteBuffer.wrap(trailers), charset));
+
+    InputSource source = new InputSource(new SequenceInputStream(Collections.enumeration(ranges)));
+    source.setEncoding(charset.name());
+    parse(source);
+  }
+
+  private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException
+  {
+    if (end == start)
+      return ByteBuffer.allocate(0);
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+  }
+
+  /**
+   * Creates the trailer segments of the assembled interchange, with the syntax characters
+   * that preview() establishes from the beginning of the interchange.
+   */
+  private String createTrailers(EDIIndex.Interchange interchange, EDIIndex.Group group, ByteBuffer... ranges)
+    throws SAXException, IOException
+  {
+    StringBuilder head = new StringBuilder();
+    for (ByteBuffer range : ranges)
+    {
+      int n = Math.min(range.remaining(), InterchangeScanner.PREVIEW_LENGTH - head.length());
+      byte[] bytes = new byte[n];
+      range.duplicate().get(bytes);
+      head.append(new String(bytes, index.getCharset().name()));
+    }
+    EDIReader previewer = EDIReaderFactory.createEDIReader(new InputSource(new StringReader(head.toString())));
+    if (previewer == null)
+      throw new IOException("No interchange at byte offset " + interchange.getStart());
+    char delimiter = previewer.getDelimiter();
+    String terminator = previewer.getTerminator() +
+      (previewer.getTerminatorSuffix() == null ? "" : previewer.getTerminatorSuffix());
+    EDIReaderFactory.release(previewer);
+
+    String groupTrailer;
+    String interchangeTrailer;
+    if ("ANSI X.12".equals(interchange.getStandard()))
+    {
+      groupTrailer = "GE";
+      interchangeTrailer = "IEA";
+    }
+    else if ("EDIFACT".equals(interchange.getStandard()))
+    {
+      groupTrailer = group.isImplicit() ? null : "UNE";
+      interchangeTrailer = "UNZ";
+    }
+    else
+      throw new IOException("Unsupported standard " + interchange.getStandard());
+
+    StringBuilder result = new StringBuilder();
+    if (groupTrailer != null)
+      result.append(groupTrailer).append(delimiter).append('1').append(delimiter)
+        .append(group.getControlNumber()).append(terminator);
+    result.append(interchangeTrailer).append(delimiter).append('1').append(delimiter)
+      .append(interchange.getControlNumber()).append(terminator);
+    return result.toString();
+  }
+}
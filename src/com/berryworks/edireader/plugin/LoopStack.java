@@ -38,14 +38,29 @@ public class LoopStack
 
   private final List<LoopContext> stack;
 
+  private LoopState state;
+
   /**
    * Construct a LoopStack with a single LoopContext corresponding
    * to the outer loop.
    */
   public LoopStack()
+  {
+    this(null);
+  }
+
+  /**
+   * Construct a LoopStack with a single LoopContext corresponding
+   * to the outer loop, tracking its configuration in a loop transition automaton
+   * beginning with the LoopState provided.
+   *
+   * @param initialState LoopState corresponding to the outer loop, or null
+   */
+  public LoopStack(LoopState initialState)
   {
     stack = new ArrayList<LoopContext>();
-    push(new LoopContext(""));
+    stack.add(new LoopContext(""));
+    state = initialState;
   }
 
   /**
@@ -56,6 +71,9 @@ public class LoopStack
   @Override
   public String toString()
   {
+    if (state != null)
+      return state.getPath();
+
     StringBuffer result = new StringBuffer();
     LoopContext bottom = getBottom();
     if ("".equals(bottom.getLoopName()))
@@ -82,6 +100,8 @@ public class LoopStack
   public void push(LoopContext context)
   {
     stack.add(context);
+    if (state != null)
+      state = state.push(context.getLoopName());
   }
 
   /**
@@ -91,7 +111,10 @@ public class LoopStack
    */
   public LoopContext pop()
   {
-    return stack.remove(stack.size() - 1);
+    LoopContext result = stack.remove(stack.size() - 1);
+    if (state != null)
+      state = state.pop();
+    return result;
   }
 
   /**
@@ -123,6 +146,8 @@ public class LoopStack
   public void setBottom(LoopContext bottom)
   {
     stack.set(0, bottom);
+    if (state != null)
+      state = state.replaceBottom(bottom.getLoopName());
   }
 
   /**
@@ -134,4 +159,15 @@ public class LoopStack
   {
     return stack.size();
   }
+
+  /**
+   * Returns the LoopState corresponding to the current configuration of the stack,
+   * or null if the stack is not tracked by a loop transition automaton.
+   *
+   * @return LoopState
+   */
+  public LoopState getState()
+  {
+    return state;
+  }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.plugin;
+
+import com.berryworks.edireader.Plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A state in the loop transition automaton of a plugin.
+ * <p/>
+ * Each LoopState corresponds to one configuration of a LoopStack, that is, to one
+ * value that LoopStack.toString() could return. A LoopStack that is associated with
+ * a LoopState moves from state to state as loops are pushed and popped, so that the
+ * String form of the stack never needs to be built while parsing.
+ * <p/>
+ * A LoopState also records, for each segment type, the LoopDescriptor selected by
+ * the plugin's query() method in that state. The first appearance of a segment type in
+ * a given state therefore costs a normal query, and each later appearance costs
+ * a single table lookup.
+ * The states and their transitions are shared by every document parsed with the
+ * plugin and may be used by several threads at once.
+ *
+ * @see PluginPreparation
+ * @see LoopStack
+ */
+public class LoopState
+{
+  /**
+   * Recorded in the transition table to signify a query that returned null.
+   */
+  private static final LoopDescriptor NO_TRANSITION = new LoopDescriptor(null, "", 0);
+
+  /**
+   * Limits the number of segment types recorded per state, so that data with
+   * unexpected segment types cannot grow the automaton without limit.
+   */
+  private static final int MAXIMUM_TRANSITIONS = 500;
+
+  private final PluginPreparation preparation;
+  private final LoopState below;
+  private final String path;
+  private final int depth;
+  private final ConcurrentMap<String, LoopState> pushed = new ConcurrentHashMap<String, LoopState>();
+  private final ConcurrentMap<String, LoopDescriptor> transitions = new ConcurrentHashMap<String, LoopDescriptor>();
+
+  /**
+   * Constructs a state with only the outer loop on the stack.
+   *
+   * @param preparation to which this state belongs
+   * @param bottomName  name of the outer loop, normally the empty String
+   */
+  LoopState(PluginPreparation preparation, String bottomName)
+  {
+    this.preparation = preparation;
+    this.below = null;
+    this.path = "/" + bottomName;
+    this.depth = 0;
+  }
+
+  private LoopState(LoopState below, String loopName)
+  {
+    this.preparation = below.preparation;
+    this.below = below;
+    this.path = ("/".equals(below.path) ? "" : below.path) + "/" + loopName;
+    this.depth = below.depth + 1;
+  }
+
+  /**
+   * Returns the LoopDescriptor that the plugin selects for a segment in this state.
+   *
+   * @param plugin       whose LoopDescriptors are being considered
+   * @param segment      type of segment encountered
+   * @param currentLevel nesting level of current state
+   * @return descriptor matching query parameters, or null if none
+   */
+  public LoopDescriptor query(Plugin plugin, String segment, int currentLevel)
+  {
+    // The recorded transitions assume that the nesting level matches the
+    // depth of the stack, which is always the case for a well-formed plugin.
+    if (currentLevel != depth)
+      return plugin.query(segment, path, currentLevel);
+
+    LoopDescriptor result = transitions.get(segment);
+    if (result == null)
+    {
+      result = plugin.query(segment, path, currentLevel);
+      if (transitions.size() < MAXIMUM_TRANSITIONS)
+        transitions.put(segment, result == null ? NO_TRANSITION : result);
+      return result;
+    }
+    return result == NO_TRANSITION ? null : result;
+  }
+
+  /**
+   * Returns the state reached by pushing a loop onto the stack.
+   *
+   * @param loopName name of the loop pushed
+   * @return LoopState
+   */
+  public LoopState push(String loopName)
+  {
+    LoopState result = pushed.get(loopName);
+    if (result == null)
+    {
+      result = new LoopState(this, loopName);
+      LoopState previous = pushed.putIfAbsent(loopName, result);
+      if (previous != null)
+        result = previous;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the state reached by popping the top loop off the stack,
+   * or null if the stack holds only the outer loop.
+   *
+   * @return LoopState
+   */
+  public LoopState pop()
+  {
+    return below;
+  }
+
+  /**
+   * Returns the state reached by replacing the outer loop, or null if
+   * the stack holds more than the outer loop.
+   *
+   * @param bottomName name of the new outer loop
+   * @return LoopState
+   */
+  public LoopState replaceBottom(String bottomName)
+  {
+    return depth == 0 ? preparation.getInitialState(bottomName) : null;
+  }
+
+  /**
+   * Returns the String representation of the stack in this state,
+   * which is the same as LoopStack.toString().
+   *
+   * @return path of slash-separated loop names
+   */
+  public String getPath()
+  {
+    return path;
+  }
+
+  /**
+   * Returns the number of loops on the stack above the outer loop.
+   *
+   * @return int depth
+   */
+  public int getDepth()
+  {
+    return depth;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "LoopState " + path + " with " + transitions.size() + " transitions";
+  }
+}
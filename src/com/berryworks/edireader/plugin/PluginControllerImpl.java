@@ -26,8 +26,27 @@ import com.berryworks.edireader.Plugin;
 import com.berryworks.edireader.PluginController;
 import com.berryworks.edireader.tokenizer.Tokenizer;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * Determines and maintains state transitions for the segment looping structure
@@ -57,8 +76,33 @@ public class PluginControllerImpl extends PluginController
 
   public static final String DEFAULT_EDIREADER_PLUGIN_PACKAGE = "com.berryworks.edireader.plugin";
 
-  protected static final Map<String, Plugin> pluginCache = new HashMap<String, Plugin>();
-  protected static String lastPluginLoaded = null;
+  /**
+   * Plugins selected for a standard, document type, version, and release.
+   * Each entry is computed once, by the first thread to need it; other threads needing
+   * the same entry at the same time wait for that computation rather than repeating it.
+   */
+  private static final ConcurrentMap<String, FutureTask<Plugin>> pluginTasks = new ConcurrentHashMap<String, FutureTask<Plugin>>();
+
+  /**
+   * A live view of the plugins selected so far, keyed by standard, document type, version, and release,
+   * with a null value recording that no plugin was found for that key. Plugins still being loaded
+   * are not visible, and a plugin put into this Map is used for its key from then on.
+   */
+  protected static final Map<String, Plugin> pluginCache = new PluginCacheView();
+
+  /**
+   * Plugin instances keyed by fully qualified class name, with a null result
+   * recording that no such plugin is available.
+   */
+  private static final ConcurrentMap<String, FutureTask<Plugin>> pluginClassCache = new ConcurrentHashMap<String, FutureTask<Plugin>>();
+
+  /**
+   * Class names of all the plugins found by preloadPlugins(), keyed by the plugin package
+   * that was scanned. A package is present only if preloadPlugins() completed a scan of it.
+   */
+  protected static final ConcurrentMap<String, Set<String>> preloadedPluginNames = new ConcurrentHashMap<String, Set<String>>();
+
+  protected static volatile String lastPluginLoaded = null;
 
   protected boolean enabled;
   protected final String standard;
@@ -146,7 +190,9 @@ public class PluginControllerImpl extends PluginController
     }
 
     result.documentType = docType;
-    result.loopStack = new LoopStack();
+    result.loopStack = (plugin != null && plugin.isQueryCompilable()) ?
+      new LoopStack(plugin.getOptimizedForm().getInitialState()) :
+      new LoopStack();
     result.plugin = plugin;
     return result;
   }
@@ -174,10 +220,10 @@ public class PluginControllerImpl extends PluginController
 
     boolean result = false;
 
-    LoopDescriptor newDescriptor = plugin.query(
-      segmentName,
-      loopStack.toString(),
-      loopDescriptor.getNestingLevel());
+    LoopState state = loopStack.getState();
+    LoopDescriptor newDescriptor = (state == null || debug) ?
+      plugin.query(segmentName, loopStack.toString(), loopDescriptor.getNestingLevel()) :
+      state.query(plugin, segmentName, loopDescriptor.getNestingLevel());
 
     if (debug)
       trace("considering segment " + segmentName + " using descriptor " + newDescriptor);
@@ -437,46 +483,208 @@ public class PluginControllerImpl extends PluginController
    * @param docRelease
    * @return
    */
-  protected static Plugin loadPlugin(String standard, String docType, String docVersion, String docRelease)
+  protected static Plugin loadPlugin(final String standard, final String docType, final String docVersion, final String docRelease)
   {
-    Plugin result = null;
     String key = standard + "_" + docType + "_" + docVersion + "_" + docRelease;
-    if (pluginCache.containsKey(key))
+    FutureTask<Plugin> cached = pluginTasks.get(key);
+    if (cached != null && cached.isDone())
     {
       if (debug)
         trace("plugin for " + key + " found in cache");
       lastPluginLoaded = key;
-      result = pluginCache.get(key);
-
     }
-    else
+
+    return computeOnce(pluginTasks, key, new Callable<Plugin>()
     {
-      String suffix = System.getProperty("EDIREADER_PLUGIN_SUFFIX");
-      if (docVersion != null && docVersion.length() > 0 && docRelease != null && docRelease.length() > 0)
+      public Plugin call()
       {
-        if (suffix != null && suffix.length() > 0)
-          result = lookForSpecificPlugin(standard, docVersion + "_" + docRelease + "." + standard + "_" + docType + "_" + suffix);
+        return selectPlugin(standard, docType, docVersion, docRelease);
+      }
+    });
+  }
 
-        if (result == null)
-          result = lookForSpecificPlugin(standard, docVersion + "_" + docRelease + "." + standard + "_" + docType);
+  /**
+   * Used within the implementation of loadPlugin to select the most specific plugin available
+   * for a given standard, document type, version, and release.
+   *
+   * @param standard
+   * @param docType
+   * @param docVersion
+   * @param docRelease
+   * @return
+   */
+  protected static Plugin selectPlugin(String standard, String docType, String docVersion, String docRelease)
+  {
+    Plugin result = null;
+    String suffix = System.getProperty("EDIREADER_PLUGIN_SUFFIX");
+    if (docVersion != null && docVersion.length() > 0 && docRelease != null && docRelease.length() > 0)
+    {
+      if (suffix != null && suffix.length() > 0)
+        result = lookForSpecificPlugin(standard, docVersion + "_" + docRelease + "." + standard + "_" + docType + "_" + suffix);
 
-        if (suffix != null && suffix.length() > 0)
-          result = lookForSpecificPlugin(standard, docType + "_" + docVersion + "_" + docRelease + "_" + suffix);
+      if (result == null)
+        result = lookForSpecificPlugin(standard, docVersion + "_" + docRelease + "." + standard + "_" + docType);
 
-        if (result == null)
-          result = lookForSpecificPlugin(standard, docType + "_" + docVersion + "_" + docRelease);
-      }
-      if (result == null && suffix != null && suffix.length() > 0)
-        result = lookForSpecificPlugin(standard, docType + "_" + suffix);
+      if (suffix != null && suffix.length() > 0)
+        result = lookForSpecificPlugin(standard, docType + "_" + docVersion + "_" + docRelease + "_" + suffix);
 
       if (result == null)
-        result = lookForSpecificPlugin(standard, docType);
-      pluginCache.put(key, result);
+        result = lookForSpecificPlugin(standard, docType + "_" + docVersion + "_" + docRelease);
     }
+    if (result == null && suffix != null && suffix.length() > 0)
+      result = lookForSpecificPlugin(standard, docType + "_" + suffix);
+
+    if (result == null)
+      result = lookForSpecificPlugin(standard, docType);
 
     return result;
   }
 
+  /**
+   * Returns the value cached under a key, computing it with the Callable provided if it
+   * is not yet cached. The value for a key is computed only once even if several threads
+   * ask for it at the same time, and a cached value is returned without locking.
+   *
+   * @param cache
+   * @param key
+   * @param loader
+   * @return
+   */
+  private static Plugin computeOnce(ConcurrentMap<String, FutureTask<Plugin>> cache, String key, Callable<Plugin> loader)
+  {
+    FutureTask<Plugin> task = cache.get(key);
+    if (task == null)
+    {
+      FutureTask<Plugin> newTask = new FutureTask<Plugin>(loader);
+      task = cache.putIfAbsent(key, newTask);
+      if (task == null)
+      {
+        task = newTask;
+        newTask.run();
+      }
+    }
+
+    try
+    {
+      return task.get();
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      try
+      {
+        return loader.call();
+      } catch (Exception e1)
+      {
+        throw new RuntimeException(e1);
+      }
+    } catch (ExecutionException e)
+    {
+      cache.remove(key, task);
+      throw new RuntimeException("Unable to load plugin " + key, e.getCause());
+    }
+  }
+
+  /**
+   * Loads and prepares every plugin available in the plugin package, so that threads parsing
+   * documents later do not pay the cost of loading them. This is typically called once at
+   * application startup, before parsing begins in worker threads.
+   * <p/>
+   * Plugins are found by scanning the directories and jar files on the class path that contain
+   * the plugin package, including any version-specific subpackages. If the scan completes, the plugins found are
+   * considered to be the complete set, and subsequent attempts to load a plugin that was not found
+   * are answered without consulting the class loader.
+   *
+   * @return number of plugins loaded
+   */
+  public static int preloadPlugins()
+  {
+    String packageName = pluginPackage();
+    String packagePath = packageName.replace('.', '/');
+    ClassLoader classLoader = PluginControllerImpl.class.getClassLoader();
+    Set<String> classNames = new HashSet<String>();
+    boolean complete = true;
+
+    try
+    {
+      Enumeration<URL> roots = classLoader.getResources(packagePath);
+      while (roots.hasMoreElements())
+      {
+        URL root = roots.nextElement();
+        if ("file".equals(root.getProtocol()))
+          findClassNames(new File(URLDecoder.decode(root.getFile(), "UTF-8")), packageName, classNames);
+        else if ("jar".equals(root.getProtocol()))
+          findClassNames(((JarURLConnection) root.openConnection()).getJarFile(), packagePath, classNames);
+        else
+        {
+          if (debug)
+            trace("cannot scan " + root + " for plugins");
+          complete = false;
+        }
+      }
+    } catch (IOException e)
+    {
+      if (debug)
+        trace("scan for plugins failed: " + e);
+      complete = false;
+    }
+
+    Set<String> pluginNames = new HashSet<String>();
+    for (final String className : classNames)
+    {
+      try
+      {
+        Class<?> candidate = Class.forName(className, false, classLoader);
+        if (!Plugin.class.isAssignableFrom(candidate) || Modifier.isAbstract(candidate.getModifiers()))
+          continue;
+      } catch (Throwable e)
+      {
+        continue;
+      }
+
+      Plugin plugin = computeOnce(pluginClassCache, className, new Callable<Plugin>()
+      {
+        public Plugin call()
+        {
+          return instantiatePlugin(className);
+        }
+      });
+      if (plugin != null)
+        pluginNames.add(className);
+    }
+
+    if (complete)
+      preloadedPluginNames.put(packageName, Collections.unmodifiableSet(pluginNames));
+    if (debug)
+      trace("preloaded " + pluginNames.size() + " plugins from package " + packageName);
+    return pluginNames.size();
+  }
+
+  private static void findClassNames(File directory, String packageName, Set<String> classNames)
+  {
+    File[] files = directory.listFiles();
+    if (files == null)
+      return;
+    for (File file : files)
+    {
+      String name = file.getName();
+      if (file.isDirectory())
+        findClassNames(file, packageName + "." + name, classNames);
+      else if (name.endsWith(".class") && name.indexOf('$') < 0)
+        classNames.add(packageName + "." + name.substring(0, name.length() - ".class".length()));
+    }
+  }
+
+  private static void findClassNames(JarFile jarFile, String packagePath, Set<String> classNames)
+  {
+    Enumeration<JarEntry> entries = jarFile.entries();
+    while (entries.hasMoreElements())
+    {
+      String name = entries.nextElement().getName();
+      if (name.startsWith(packagePath + "/") && name.endsWith(".class") && name.indexOf('$') < 0)
+        classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+    }
+  }
+
   @Override
   public String lastPluginLoaded()
   {
@@ -490,30 +698,57 @@ public class PluginControllerImpl extends PluginController
    * @param docType
    * @return
    */
-  protected static Plugin lookForSpecificPlugin(String standard, String docType)
+  protected static Plugin lookForSpecificPlugin(final String standard, final String docType)
+  {
+    String packageName = pluginPackage();
+    final String pluginName = packageName + "." + standard + "_" + docType;
+    Set<String> preloaded = preloadedPluginNames.get(packageName);
+    if (preloaded != null && !preloaded.contains(pluginName))
+    {
+      if (debug)
+        trace("plugin for " + docType + " not among preloaded plugins");
+      return null;
+    }
+
+    return computeOnce(pluginClassCache, pluginName, new Callable<Plugin>()
+    {
+      public Plugin call()
+      {
+        return instantiatePlugin(pluginName);
+      }
+    });
+  }
+
+  /**
+   * Used only within the internal implementation of this class and its subclasses.
+   *
+   * @param pluginName fully qualified class name of the plugin
+   * @return prepared plugin instance, or null if not available
+   */
+  protected static Plugin instantiatePlugin(String pluginName)
   {
     Plugin pluginFound = null;
     try
     {
-      pluginFound = getInstance(standard, docType);
+      pluginFound = getInstance(pluginName);
       if (debug)
       {
         pluginFound.debug(true);
-        trace("plugin found for document type " + docType + ": "
+        trace("plugin found: " + pluginName + ": "
           + pluginFound.getDocumentName());
       }
     } catch (ClassNotFoundException e)
     {
       if (debug)
-        trace("plugin for " + docType + " not available");
+        trace("plugin " + pluginName + " not available");
     } catch (InstantiationException e)
     {
       if (debug)
-        trace("plugin for " + docType + " could not be instantiated");
+        trace("plugin " + pluginName + " could not be instantiated");
     } catch (IllegalAccessException e)
     {
       if (debug)
-        trace("plugin for " + docType + " caused IllegalAccessException" + e);
+        trace("plugin " + pluginName + " caused IllegalAccessException" + e);
     }
 
     return pluginFound;
@@ -531,9 +766,23 @@ public class PluginControllerImpl extends PluginController
    */
   protected static Plugin getInstance(String standard, String docType) throws ClassNotFoundException,
     InstantiationException, IllegalAccessException
+  {
+    return getInstance(pluginPackage() + "." + standard + "_" + docType);
+  }
+
+  /**
+   * Used only within the internal implementation of this class and its subclasses.
+   *
+   * @param pluginName fully qualified class name of the plugin
+   * @return
+   * @throws ClassNotFoundException
+   * @throws InstantiationException
+   * @throws IllegalAccessException
+   */
+  protected static Plugin getInstance(String pluginName) throws ClassNotFoundException,
+    InstantiationException, IllegalAccessException
   {
     Plugin instance;
-    String pluginName = pluginPackage() + "." + standard + "_" + docType;
     if (debug)
       trace("attempting to load a plugin named " + pluginName);
     Class pluginClass = Class.forName(pluginName);
@@ -570,4 +819,85 @@ public class PluginControllerImpl extends PluginController
     }
     return packageName;
   }
+
+  /**
+   * Presents the plugins of pluginTasks that have been loaded as a Map of Plugin values.
+   */
+  private static class PluginCacheView extends AbstractMap<String, Plugin>
+  {
+    @Override
+    public Plugin get(Object key)
+    {
+      FutureTask<Plugin> task = pluginTasks.get(key);
+      return task == null ? null : loaded(task);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+      FutureTask<Plugin> task = pluginTasks.get(key);
+      return task != null && task.isDone() && !task.isCancelled();
+    }
+
+    @Override
+    public Plugin put(String key, final Plugin plugin)
+    {
+      FutureTask<Plugin> task = new FutureTask<Plugin>(new Callable<Plugin>()
+      {
+        public Plugin call()
+        {
+          return plugin;
+        }
+      });
+      task.run();
+      FutureTask<Plugin> previous = pluginTasks.put(key, task);
+      return previous == null ? null : loaded(previous);
+    }
+
+    @Override
+    public Plugin remove(Object key)
+    {
+      FutureTask<Plugin> previous = pluginTasks.remove(key);
+      return previous == null ? null : loaded(previous);
+    }
+
+    @Override
+    public void clear()
+    {
+      pluginTasks.clear();
+    }
+
+    /**
+     * Returns a snapshot of the plugins loaded so far.
+     */
+    @Override
+    public Set<Map.Entry<String, Plugin>> entrySet()
+    {
+      Map<String, Plugin> result = new HashMap<String, Plugin>();
+      for (Map.Entry<String, FutureTask<Plugin>> entry : pluginTasks.entrySet())
+        if (containsKey(entry.getKey()))
+          result.put(entry.getKey(), loaded(entry.getValue()));
+      return Collections.unmodifiableMap(result).entrySet();
+    }
+
+    private static Plugin loaded(FutureTask<Plugin> task)
+    {
+      if (!task.isDone())
+        return null;
+      try
+      {
+        return task.get();
+      } catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException e)
+      {
+        return null;
+      } catch (CancellationException e)
+      {
+        return null;
+      }
+    }
+  }
 }
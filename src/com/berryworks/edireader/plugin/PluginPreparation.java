@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A runtime data structure that optimizes the LoopDescriptors of a plugin
@@ -36,6 +38,8 @@ public class PluginPreparation
 
   protected final Map<String, List<LoopDescriptor>> segmentMap = new HashMap<String, List<LoopDescriptor>>();
 
+  protected final ConcurrentMap<String, LoopState> initialStates = new ConcurrentHashMap<String, LoopState>();
+
   /**
    * Constructs an instance given an array of LoopDescriptors.
    * <p/>
@@ -74,4 +78,34 @@ public class PluginPreparation
     return segmentMap.get(segment);
   }
 
+  /**
+   * Returns the LoopState in which the parsing of a document begins,
+   * with only the implied outer loop on the stack.
+   *
+   * @return LoopState
+   */
+  public LoopState getInitialState()
+  {
+    return getInitialState("");
+  }
+
+  /**
+   * Returns the LoopState with only an outer loop of a given name on the stack.
+   *
+   * @param bottomName name of the outer loop
+   * @return LoopState
+   */
+  public LoopState getInitialState(String bottomName)
+  {
+    LoopState result = initialStates.get(bottomName);
+    if (result == null)
+    {
+      result = new LoopState(this, bottomName);
+      LoopState previous = initialStates.putIfAbsent(bottomName, result);
+      if (previous != null)
+        result = previous;
+    }
+    return result;
+  }
+
 }
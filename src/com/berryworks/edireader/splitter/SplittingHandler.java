@@ -67,13 +67,12 @@ public class SplittingHandler extends DefaultHandler
 
   public void split(InputSource inputSource) throws IOException, SAXException
   {
-    char[] leftOver = null;
-    EDIReader parser;
-    while ((parser = EDIReaderFactory.createEDIReader(inputSource, leftOver)) != null)
+    EDIReader parser = EDIReaderFactory.createEDIReader(inputSource);
+    while (parser != null)
     {
       parser.setContentHandler(this);
       parser.parse(inputSource);
-      leftOver = parser.getTokenizer().getBuffered();
+      parser = EDIReaderFactory.createEDIReader(parser.getTokenizer());
     }
     handlerFactory.markEndOfStream();
   }
@@ -26,11 +26,12 @@ import com.berryworks.edireader.EDISyntaxException;
 import com.berryworks.edireader.error.ErrorMessages;
 import org.xml.sax.SAXException;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
 {
@@ -52,11 +53,40 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
   protected final StringBuilder recording = new StringBuilder();
   protected boolean recorderOn;
 
+  /**
+   * Number of chars held in the copy buffer before they are passed on in bulk.
+   */
+  public static final int COPY_BUFFER_SIZE = 4096;
+
+  /**
+   * True while the chars read are to be copied to the outputWriter or the recorder.
+   * Such chars are collected in the copy buffer and passed on in bulk at the end of
+   * each segment, whenever the buffer fills, and before either destination changes.
+   */
+  protected boolean copying;
+  private char[] copyBuffer;
+  private int copyLength;
+
+  private int recorderLimit = Integer.MAX_VALUE;
+  private File recorderSpillFile;
+  private Writer spillWriter;
+  private boolean recordingTruncated;
+
   protected int segmentCount;
   protected int segTokenCount;
-  protected int charCount;
+  protected long charCount;
   protected int segCharCount;
-  protected final Reader inputReader;
+
+  /**
+   * Offset, within the entire input, of the first char read by this tokenizer.
+   */
+  protected long startingOffset;
+
+  /**
+   * Char offset, within the entire input, of the first char of the current segment.
+   */
+  protected long segmentStartOffset;
+  protected Reader inputReader;
 
   protected char delimiter = '+';
   protected char subDelimiter = ':';
@@ -73,6 +103,17 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
   protected int repetitionSeparator = -1;
 
   protected char terminator = '.';
+
+  /**
+   * Classification of the chars 0-255, indexed by char value, so that
+   * getChar() can classify a typical char with a single array load.
+   * The table is rebuilt whenever one of the syntax characters changes.
+   * A char beyond the range of the table is classified by comparison
+   * with each of the syntax characters.
+   */
+  protected final CharacterClass[] classTable = new CharacterClass[256];
+  protected boolean tableDriven = true;
+
   protected boolean tokenReady;
   protected boolean repetition;
   protected boolean endOfFile;
@@ -98,7 +139,47 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
 
   public int getCharCount()
   {
-    return charCount;
+    return (int) charCount;
+  }
+
+  public long getCharOffset()
+  {
+    return startingOffset + charCount;
+  }
+
+  public long getSegmentStartOffset()
+  {
+    return segmentStartOffset;
+  }
+
+  /**
+   * Returns -1, since the byte offset is not known to a tokenizer that reads chars.
+   *
+   * @return -1
+   */
+  public long getByteOffset()
+  {
+    return -1;
+  }
+
+  /**
+   * Returns -1, since the byte offset is not known to a tokenizer that reads chars.
+   *
+   * @return -1
+   */
+  public long getSegmentStartByteOffset()
+  {
+    return -1;
+  }
+
+  public void setStartingOffset(long offset)
+  {
+    startingOffset = offset;
+  }
+
+  public void setStartingSegmentCount(int count)
+  {
+    segmentCount = count;
   }
 
   public int getSegmentCharCount()
@@ -129,6 +210,7 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
   public void setRelease(int e)
   {
     release = e;
+    buildClassTable();
   }
 
   /**
@@ -153,11 +235,13 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
     // that no repetition char is in effect, so we set the value to -1 for that
     // case as well.
     repetitionSeparator = e > 0 ? e : -1;
+    buildClassTable();
   }
 
   public void setTerminator(char d)
   {
     terminator = d;
+    buildClassTable();
   }
 
   public char getTerminator()
@@ -173,6 +257,7 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
   public void setDelimiter(char d)
   {
     delimiter = d;
+    buildClassTable();
   }
 
   public char getSubDelimiter()
@@ -183,6 +268,68 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
   public void setSubDelimiter(char sd)
   {
     subDelimiter = sd;
+    buildClassTable();
+  }
+
+  /**
+   * Select whether getChar() classifies chars by table lookup (the default)
+   * or by comparing each char with each of the syntax characters in turn.
+   *
+   * @param b true for table lookup, false for comparisons
+   */
+  public void setTableDriven(boolean b)
+  {
+    tableDriven = b;
+  }
+
+  public boolean isTableDriven()
+  {
+    return tableDriven;
+  }
+
+  /**
+   * Returns the class of a char with respect to the syntax characters now in effect.
+   *
+   * @param c char to be classified
+   * @return CharacterClass
+   */
+  protected CharacterClass classify(char c)
+  {
+    if (tableDriven && c < classTable.length)
+      return classTable[c];
+
+    if (c == delimiter)
+      return CharacterClass.DELIMITER;
+    else if (c == subDelimiter)
+      return CharacterClass.SUB_DELIMITER;
+    else if (c == release)
+      return CharacterClass.RELEASE;
+    else if (c == terminator)
+      return CharacterClass.TERMINATOR;
+    else if (c == repetitionSeparator)
+      return CharacterClass.REPEAT_DELIMITER;
+    else
+      return CharacterClass.DATA;
+  }
+
+  /**
+   * Rebuilds the classification table after a change to the syntax characters.
+   * The entries are filled in the reverse order of the comparisons made by classify()
+   * so that the same precedence applies when two syntax characters are equal.
+   */
+  protected void buildClassTable()
+  {
+    Arrays.fill(classTable, CharacterClass.DATA);
+    if (repetitionSeparator >= 0 && repetitionSeparator < classTable.length)
+      classTable[repetitionSeparator] = CharacterClass.REPEAT_DELIMITER;
+    if (terminator < classTable.length)
+      classTable[terminator] = CharacterClass.TERMINATOR;
+    if (release >= 0 && release < classTable.length)
+      classTable[release] = CharacterClass.RELEASE;
+    if (subDelimiter < classTable.length)
+      classTable[subDelimiter] = CharacterClass.SUB_DELIMITER;
+    if (delimiter < classTable.length)
+      classTable[delimiter] = CharacterClass.DELIMITER;
   }
 
   public void copy(char c)
@@ -190,6 +337,7 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
     if (outputWriter != null)
       try
       {
+        flushCopyBuffer();
         outputWriter.write(c);
       } catch (IOException e)
       {
@@ -197,6 +345,122 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
       }
   }
 
+  /**
+   * Adds a char that has been read to those to be copied. Subclasses call this,
+   * while copying is true, for the current char before reading a fresh one.
+   *
+   * @param c char that has been read
+   * @throws IOException for problem writing the copy or the recording
+   */
+  protected final void copyChar(char c) throws IOException
+  {
+    if (copyLength == copyBuffer.length)
+      flushCopyBuffer();
+    copyBuffer[copyLength++] = c;
+  }
+
+  /**
+   * Adds a run of chars that have been read to those to be copied.
+   *
+   * @param chars  array containing the chars
+   * @param offset index of the first char of the run
+   * @param length number of chars in the run
+   * @throws IOException for problem writing the copy or the recording
+   */
+  protected final void copyChars(char[] chars, int offset, int length) throws IOException
+  {
+    while (length > 0)
+    {
+      if (copyLength == copyBuffer.length)
+        flushCopyBuffer();
+      int n = Math.min(length, copyBuffer.length - copyLength);
+      System.arraycopy(chars, offset, copyBuffer, copyLength, n);
+      copyLength += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Passes the chars in the copy buffer to the outputWriter, unless writing is suspended,
+   * and to the recorder, if it is on.
+   *
+   * @throws IOException for problem writing the copy or the recording
+   */
+  protected void flushCopyBuffer() throws IOException
+  {
+    int n = copyLength;
+    if (n == 0)
+      return;
+    copyLength = 0;
+    if (outputWriter != null && !writingSuspended)
+      outputWriter.write(copyBuffer, 0, n);
+    if (recorderOn)
+      record(copyBuffer, 0, n);
+  }
+
+  private void flushCopyBufferQuietly()
+  {
+    try
+    {
+      flushCopyBuffer();
+    } catch (IOException e)
+    {
+      // ignore, as with copy()
+    }
+  }
+
+  private void updateCopying()
+  {
+    copying = (outputWriter != null && !writingSuspended) || recorderOn;
+    if (copying && copyBuffer == null)
+      copyBuffer = new char[COPY_BUFFER_SIZE];
+  }
+
+  private void record(char[] chars, int offset, int length) throws IOException
+  {
+    if (spillWriter != null)
+    {
+      spillWriter.write(chars, offset, length);
+      return;
+    }
+
+    int room = recorderLimit - recording.length();
+    if (length <= room)
+      recording.append(chars, offset, length);
+    else if (recorderSpillFile != null)
+    {
+      spillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(recorderSpillFile), "UTF-8"));
+      spillWriter.write(recording.toString());
+      spillWriter.write(chars, offset, length);
+      recording.setLength(0);
+    }
+    else
+    {
+      if (room > 0)
+        recording.append(chars, offset, room);
+      recordingTruncated = true;
+    }
+  }
+
+  private void discardRecording()
+  {
+    recording.setLength(0);
+    recordingTruncated = false;
+    copyLength = 0;
+    if (spillWriter != null)
+    {
+      try
+      {
+        spillWriter.close();
+      } catch (IOException e)
+      {
+        // ignore
+      }
+      spillWriter = null;
+    }
+  }
+
   public boolean isEndOfData()
   {
     return endOfFile;
@@ -455,6 +719,256 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
     return t;
   }
 
+  /**
+   * Copies the raw chars of the input, beginning with the segment whose SEGMENT_START
+   * token was just returned by nextToken(), through the segment terminator of the next segment
+   * of a given type. The chars are not tokenized, but release characters are respected
+   * so that a released terminator does not end a segment. This Tokenizer is left
+   * positioned as if skipSegment() had been called on the last segment copied.
+   * <p/>
+   * This allows a sequence of segments, such as a transaction set, to be located
+   * far more cheaply than by tokenizing it, so that it can be parsed elsewhere.
+   * A segment of the given binary type, such as BIN or UNO, gives the length of an octet
+   * sequence in its first element, and that many chars are copied without being examined.
+   * The octet sequence follows either the first element itself, as with BIN, or the
+   * segment terminator and any terminator suffix, as with UNO.
+   *
+   * @param segmentType       type of the last segment to be copied
+   * @param binarySegmentType type of segment introducing an octet sequence, or null
+   * @param binaryInSegment   true if the octet sequence follows the first element of that segment
+   * @param copy              to which the raw chars are appended
+   * @return number of segments copied
+   * @throws EDISyntaxException if the end of input is reached before the last segment
+   * @throws IOException        for problem reading EDI data
+   */
+  public int copySegmentsThrough(String segmentType, String binarySegmentType, boolean binaryInSegment,
+                                 StringBuilder copy) throws IOException, EDISyntaxException
+  {
+    if (tokenReady || state != State.IN_SEGMENT || currentToken.getType() != Token.TokenType.SEGMENT_START)
+      throw new IllegalStateException("copySegmentsThrough() must immediately follow a SEGMENT_START token");
+
+    copy.append(currentToken.getValue());
+    if (!unGot)
+      copy.append(cChar);
+
+    int segments = 1;
+    int segmentStart = 0;
+    boolean typeKnown = true;
+    int lengthStart = -1;
+    int octetsAfterSegment = -1;
+    int octetsPending = -1;
+    while (true)
+    {
+      getChar();
+      if (cClass == CharacterClass.EOF)
+        throw new EDISyntaxException(UNEXPECTED_EOF, this);
+
+      if (octetsPending > 0 && WHITESPACE.indexOf(cChar) == -1)
+      {
+        // An octet sequence following the segment that introduced it
+        copy.append(cChar);
+        copyOctets(octetsPending - 1, copy);
+        octetsPending = -1;
+        continue;
+      }
+
+      if (segmentStart < 0 && WHITESPACE.indexOf(cChar) == -1)
+      {
+        // The first char of a new segment
+        segmentStart = copy.length();
+        typeKnown = false;
+        segments++;
+        segmentCount++;
+        segCharCount = 1;
+        segmentStartOffset = startingOffset + charCount - 1;
+      }
+      copy.append(cChar);
+
+      if (cClass == CharacterClass.RELEASE)
+      {
+        getChar();
+        if (cClass == CharacterClass.EOF)
+          throw new EDISyntaxException(UNEXPECTED_EOF, this);
+        copy.append(cChar);
+        continue;
+      }
+
+      if (cClass != CharacterClass.DELIMITER && cClass != CharacterClass.TERMINATOR)
+        continue;
+
+      if (!typeKnown)
+      {
+        typeKnown = true;
+        if (binarySegmentType != null && cClass == CharacterClass.DELIMITER &&
+          isSegmentType(copy, segmentStart, binarySegmentType))
+          lengthStart = copy.length();
+      }
+      else if (lengthStart >= 0)
+      {
+        int length = parseLength(copy, lengthStart, copy.length() - 1);
+        lengthStart = -1;
+        if (!binaryInSegment)
+          octetsAfterSegment = length;
+        else if (length > 0 && cClass == CharacterClass.DELIMITER)
+          copyOctets(length, copy);
+      }
+
+      if (cClass == CharacterClass.TERMINATOR)
+      {
+        if (segmentStart >= 0 && isSegmentType(copy, segmentStart, segmentType))
+          break;
+        segmentStart = -1;
+        lengthStart = -1;
+        octetsPending = octetsAfterSegment;
+        octetsAfterSegment = -1;
+      }
+    }
+
+    currentToken.type = Token.TokenType.SEGMENT_END;
+    currentToken.value.setLength(0);
+    currentToken.subElementIndex = 0;
+    state = State.EXPECTING_SEGMENT;
+    scanTerminatorSuffix();
+    return segments;
+  }
+
+  private void copyOctets(int n, StringBuilder copy) throws IOException, EDISyntaxException
+  {
+    for (int i = 0; i < n; i++)
+    {
+      getChar();
+      if (cClass == CharacterClass.EOF)
+        throw new EDISyntaxException(UNEXPECTED_EOF, this);
+      copy.append(cChar);
+    }
+  }
+
+  /**
+   * Returns the value of a length element, or -1 if it is not a number.
+   */
+  private static int parseLength(StringBuilder copy, int start, int end)
+  {
+    if (start >= end || end - start > 9)
+      return -1;
+    int result = 0;
+    for (int i = start; i < end; i++)
+    {
+      char c = copy.charAt(i);
+      if (c < '0' || c > '9')
+        return -1;
+      result = 10 * result + (c - '0');
+    }
+    return result;
+  }
+
+  /**
+   * Skips segments, between segments, until reaching a segment of one of the given types,
+   * so that the next call to nextToken() returns the SEGMENT_START token of that segment.
+   * Segments are skipped at the character level, looking only for release characters
+   * and segment terminators, except that a segment beginning with the same char as one of
+   * the given types is tokenized as far as its segment type. The segments skipped are
+   * counted just as if they had been tokenized.
+   * <p/>
+   * Since the segments are skipped without regard to their content, a segment such as BIN
+   * whose length is given by an element must be among the given types.
+   *
+   * @param segmentTypes types of segment at which to stop
+   * @return number of segments skipped
+   * @throws EDISyntaxException if the end of input is reached first
+   * @throws IOException        for problem reading EDI data
+   */
+  public int skipSegmentsUntil(String... segmentTypes) throws IOException, EDISyntaxException
+  {
+    if (tokenReady || state != State.EXPECTING_SEGMENT)
+      throw new IllegalStateException("skipSegmentsUntil() must be called between segments");
+
+    int skipped = 0;
+    while (true)
+    {
+      getChar();
+      if (cClass == CharacterClass.EOF)
+        throw new EDISyntaxException(UNEXPECTED_EOF, this);
+
+      if (isFirstCharOf(cChar, segmentTypes))
+      {
+        ungetChar();
+        advance();
+        if (currentToken.getType() == Token.TokenType.SEGMENT_START)
+          for (String segmentType : segmentTypes)
+            if (currentToken.valueEquals(segmentType))
+              return skipped;
+        tokenReady = false;
+        skipped++;
+        if (!unGot && cClass == CharacterClass.TERMINATOR)
+        {
+          // The segment ended with its segment type
+          state = State.EXPECTING_SEGMENT;
+          scanTerminatorSuffix();
+          continue;
+        }
+      }
+      else
+      {
+        segmentCount++;
+        segTokenCount = 1;
+        segCharCount = 1;
+        segmentStartOffset = startingOffset + charCount - 1;
+        skipped++;
+        if (cClass == CharacterClass.TERMINATOR)
+        {
+          scanTerminatorSuffix();
+          continue;
+        }
+        if (cClass == CharacterClass.RELEASE)
+        {
+          getChar();
+          if (cClass == CharacterClass.EOF)
+            throw new EDISyntaxException(UNEXPECTED_EOF, this);
+        }
+      }
+
+      // Scan the remainder of the segment for its terminator
+      while (true)
+      {
+        if (!unGot)
+          skipRun();
+        getChar();
+        if (cClass == CharacterClass.EOF)
+          throw new EDISyntaxException(UNEXPECTED_EOF, this);
+        if (cClass == CharacterClass.RELEASE)
+        {
+          getChar();
+          if (cClass == CharacterClass.EOF)
+            throw new EDISyntaxException(UNEXPECTED_EOF, this);
+        }
+        else if (cClass == CharacterClass.TERMINATOR)
+          break;
+      }
+      state = State.EXPECTING_SEGMENT;
+      scanTerminatorSuffix();
+    }
+  }
+
+  private static boolean isFirstCharOf(char c, String[] segmentTypes)
+  {
+    for (String segmentType : segmentTypes)
+      if (segmentType.charAt(0) == c)
+        return true;
+    return false;
+  }
+
+  private boolean isSegmentType(StringBuilder copy, int segmentStart, String segmentType)
+  {
+    int n = segmentType.length();
+    if (copy.length() < segmentStart + n + 1)
+      return false;
+    for (int i = 0; i < n; i++)
+      if (copy.charAt(segmentStart + i) != segmentType.charAt(i))
+        return false;
+    char c = copy.charAt(segmentStart + n);
+    return c == delimiter || c == terminator;
+  }
+
   /**
    * Scans a series of data characters up to the first character other than a
    * data character.
@@ -473,9 +987,14 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
    */
   protected CharacterClass scanData(int limit) throws IOException, EDISyntaxException
   {
+    // The fast path is taken only when nothing needs to observe the data chars
+    // one at a time: no put-back char and no length limit.
+    boolean bulk = limit == 0;
     loop:
     while (true)
     {
+      if (bulk && !unGot)
+        scanDataRun();
       getChar();
       switch (cClass)
       {
@@ -506,6 +1025,53 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
     return cClass;
   }
 
+  /**
+   * Appends to the value of the current token the run of DATA characters that
+   * can be seen without reading further input, stopping before the first character
+   * of any other class. A release character therefore ends the run and is handled
+   * by scanData() in the normal way.
+   * <p/>
+   * Upon return, cChar references the last character appended, and charCount and
+   * segCharCount reflect the characters consumed, and the chars passed over are copied
+   * if copying is true. The default implementation appends nothing, leaving scanData()
+   * to proceed one char at a time.
+   *
+   * @return number of characters appended
+   * @throws IOException for problem writing the copy or the recording
+   */
+  protected int scanDataRun() throws IOException
+  {
+    return 0;
+  }
+
+  /**
+   * Skips the run of chars, other than release characters and segment terminators,
+   * that can be seen without reading further input. This allows the remainder of a segment
+   * to be skipped without examining each char with getChar().
+   * <p/>
+   * Upon return, cChar references the last character skipped, and charCount and
+   * segCharCount reflect the characters consumed, and the chars passed over are copied
+   * if copying is true. The default implementation skips nothing.
+   *
+   * @return number of characters skipped
+   * @throws IOException for problem writing the copy or the recording
+   */
+  protected int skipRun() throws IOException
+  {
+    return 0;
+  }
+
+  /**
+   * Returns true if a char may be skipped by skipRun().
+   *
+   * @param c char to be classified
+   * @return true unless it is a release character or segment terminator
+   */
+  protected final boolean isSkippable(char c)
+  {
+    return c != terminator && c != release;
+  }
+
   /**
    * Equivalent to scanData(infinite)
    *
@@ -534,6 +1100,8 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
       getChar();
     } while (cClass != CharacterClass.EOF && WHITESPACE.indexOf(cChar) != -1);
     ungetChar();
+    if (copying)
+      flushCopyBuffer();
   }
 
   public char[] getChars(int n) throws IOException, EDISyntaxException
@@ -563,17 +1131,90 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
    */
   public void setWriter(Writer writer)
   {
+    flushCopyBufferQuietly();
     outputWriter = writer;
+    updateCopying();
   }
 
   /**
-   * Return the recording.
+   * Return the recording. If it has spilled to the file set by setRecorderSpillFile(),
+   * it is read back from the file.
    *
    * @return The recording value
    */
   public String getRecording()
   {
-    return recording.toString();
+    flushCopyBufferQuietly();
+    if (spillWriter == null)
+      return recording.toString();
+
+    StringBuilder sb = new StringBuilder();
+    try
+    {
+      spillWriter.flush();
+      Reader reader = new InputStreamReader(new FileInputStream(recorderSpillFile), "UTF-8");
+      try
+      {
+        char[] buf = new char[COPY_BUFFER_SIZE];
+        int n;
+        while ((n = reader.read(buf)) != -1)
+          sb.append(buf, 0, n);
+      } finally
+      {
+        reader.close();
+      }
+    } catch (IOException e)
+    {
+      throw new RuntimeException("Unable to read the recording from " + recorderSpillFile, e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Limits the number of chars of the recording held in memory. Once the limit would be
+   * exceeded, the recording spills to the file set by setRecorderSpillFile(), if any, and
+   * otherwise stops growing, with isRecordingTruncated() returning true.
+   * There is no limit by default.
+   *
+   * @param limit maximum number of chars
+   */
+  public void setRecorderLimit(int limit)
+  {
+    if (limit < 0)
+      throw new IllegalArgumentException("Recorder limit must not be negative: " + limit);
+    recorderLimit = limit;
+  }
+
+  public int getRecorderLimit()
+  {
+    return recorderLimit;
+  }
+
+  /**
+   * Sets a file to which the recording spills, encoded in UTF-8, when it grows beyond
+   * the recorder limit. The file is overwritten when the recording first spills to it.
+   *
+   * @param file spill file, or null to truncate the recording at the limit instead
+   */
+  public void setRecorderSpillFile(File file)
+  {
+    recorderSpillFile = file;
+  }
+
+  public File getRecorderSpillFile()
+  {
+    return recorderSpillFile;
+  }
+
+  /**
+   * Returns true if chars have been left out of the recording because it reached
+   * the recorder limit with no spill file.
+   *
+   * @return true if the recording is incomplete
+   */
+  public boolean isRecordingTruncated()
+  {
+    return recordingTruncated;
   }
 
 
@@ -595,7 +1236,9 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
    */
   public void suspendWriting(boolean b)
   {
+    flushCopyBufferQuietly();
     writingSuspended = b;
+    updateCopying();
   }
 
   /**
@@ -605,11 +1248,21 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
    */
   public void setRecorder(boolean b)
   {
+    flushCopyBufferQuietly();
     recorderOn = b;
+    updateCopying();
     if (EDIReader.debug)
       trace("recorder turned " + (b ? "on" : "off"));
   }
 
+  /**
+   * Constructs an instance that reads its input by some means other than a Reader.
+   */
+  protected AbstractTokenizer()
+  {
+    this(null);
+  }
+
   public AbstractTokenizer(Reader source)
   {
     state = State.EXPECTING_SEGMENT;
@@ -617,6 +1270,76 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
     inputReader = source;
     tokenReady = false;
     currentToken = new TokenImpl(this);
+    buildClassTable();
+  }
+
+  /**
+   * Returns this tokenizer to the state of a newly constructed one reading from
+   * a different source, while keeping its buffers so that they need not be allocated again.
+   * Subclasses that buffer input override this method to discard or replace
+   * their buffered chars.
+   *
+   * @param source of input chars
+   */
+  protected void reset(Reader source)
+  {
+    state = State.EXPECTING_SEGMENT;
+    outputWriter = null;
+    writingSuspended = false;
+    recorderOn = false;
+    copying = false;
+    discardRecording();
+    segmentCount = 0;
+    segTokenCount = 0;
+    charCount = 0;
+    segCharCount = 0;
+    startingOffset = 0;
+    segmentStartOffset = 0;
+    inputReader = source;
+    recorderLimit = Integer.MAX_VALUE;
+    recorderSpillFile = null;
+    delimiter = '+';
+    subDelimiter = ':';
+    subSubDelimiter = '&';
+    release = -1;
+    repetitionSeparator = -1;
+    terminator = '.';
+    tokenReady = false;
+    repetition = false;
+    endOfFile = false;
+    cClass = null;
+    cChar = 0;
+    unGot = false;
+    currentToken.reset();
+    buildClassTable();
+  }
+
+  public void rearm()
+  {
+    state = State.EXPECTING_SEGMENT;
+    outputWriter = null;
+    writingSuspended = false;
+    recorderOn = false;
+    copying = false;
+    discardRecording();
+    segmentCount = 0;
+    segTokenCount = 0;
+    segCharCount = 0;
+    startingOffset += charCount;
+    charCount = 0;
+    delimiter = '+';
+    subDelimiter = ':';
+    subSubDelimiter = '&';
+    release = -1;
+    repetitionSeparator = -1;
+    terminator = '.';
+    tokenReady = false;
+    repetition = false;
+    currentToken.reset();
+    buildClassTable();
+    // A char that was put back is classified again, as if it were read afresh
+    if (unGot && !endOfFile)
+      cClass = classify(cChar);
   }
 
   /**
@@ -632,10 +1355,36 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
     int subElementIndex;
     boolean lastSubElement;
     StringBuilder value;
+    private char[] valueBuffer = new char[64];
     private String segmentType = "";
-    private final char[] digits = {'0', '1', '2', '3', '4', '5', '6', '7',
+    private String[] elementIds = NO_ELEMENT_IDS;
+    private static final char[] digits = {'0', '1', '2', '3', '4', '5', '6', '7',
       '8', '9'};
 
+    /**
+     * Element ids (for example, N101, N102, ...) already formed for each segment type,
+     * shared by all tokenizers in the JVM. Each entry also holds the interned
+     * instance of the segment type String used by every token. Caching stops once MAX_CACHED_SEGMENT_TYPES
+     * segment types have been seen, and element ids beyond MAX_CACHED_ELEMENT_INDEX are
+     * formed on demand, so that malformed input cannot grow the cache without limit.
+     */
+    private static final ConcurrentMap<String, SegmentTypeEntry> elementIdCache =
+      new ConcurrentHashMap<String, SegmentTypeEntry>();
+    private static final int MAX_CACHED_SEGMENT_TYPES = 2000;
+    private static final int MAX_CACHED_ELEMENT_INDEX = 99;
+    private static final String[] NO_ELEMENT_IDS = new String[0];
+
+    private static class SegmentTypeEntry
+    {
+      final String segmentType;
+      final String[] elementIds = new String[MAX_CACHED_ELEMENT_INDEX + 1];
+
+      SegmentTypeEntry(String segmentType)
+      {
+        this.segmentType = segmentType;
+      }
+    }
+
     public TokenImpl(Tokenizer tokenizer)
     {
       this.tokenizer = tokenizer;
@@ -645,6 +1394,17 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
         value.setLength(0);
     }
 
+    void reset()
+    {
+      type = TokenType.UNKNOWN;
+      index = 0;
+      subElementIndex = 0;
+      lastSubElement = false;
+      value.setLength(0);
+      segmentType = "";
+      elementIds = NO_ELEMENT_IDS;
+    }
+
     public TokenType getType()
     {
       return type;
@@ -708,9 +1468,28 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
       return ca;
     }
 
+    public CharSequence getValueCharSequence()
+    {
+      return value;
+    }
+
+    public char[] getValueBuffer()
+    {
+      int length = value.length();
+      if (length > valueBuffer.length)
+        valueBuffer = new char[Math.max(length, 2 * valueBuffer.length)];
+      value.getChars(0, length, valueBuffer, 0);
+      return valueBuffer;
+    }
+
+    public int getValueLength()
+    {
+      return value.length();
+    }
+
     public boolean valueEquals(String v)
     {
-      return value.toString().equals(v);
+      return v != null && v.contentEquals(value);
     }
 
     public String getSegmentType()
@@ -720,10 +1499,33 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
 
     public void setSegmentType(StringBuilder sb) throws EDISyntaxException
     {
-      segmentType = new String(sb);
-      if ("".equals(segmentType))
+      if (sb.length() == 0)
         throw new EDISyntaxException(
           ErrorMessages.INVALID_BEGINNING_OF_SEGMENT, tokenizer);
+
+      // Consecutive segments are frequently of the same type
+      if (segmentType.contentEquals(sb))
+        return;
+
+      String type = new String(sb);
+      SegmentTypeEntry entry = elementIdCache.get(type);
+      if (entry == null && elementIdCache.size() < MAX_CACHED_SEGMENT_TYPES)
+      {
+        entry = new SegmentTypeEntry(type.intern());
+        SegmentTypeEntry previous = elementIdCache.putIfAbsent(entry.segmentType, entry);
+        if (previous != null)
+          entry = previous;
+      }
+      if (entry == null)
+      {
+        segmentType = type;
+        elementIds = NO_ELEMENT_IDS;
+      }
+      else
+      {
+        segmentType = entry.segmentType;
+        elementIds = entry.elementIds;
+      }
     }
 
     public Token[] getSubTokens()
@@ -749,8 +1551,20 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
      */
     public String getElementId()
     {
-      StringBuilder rval = new StringBuilder(getSegmentType());
       int n = getIndex();
+      if (n < elementIds.length)
+      {
+        String id = elementIds[n];
+        if (id == null)
+          elementIds[n] = id = formElementId(segmentType, n);
+        return id;
+      }
+      return formElementId(segmentType, n);
+    }
+
+    private static String formElementId(String segmentType, int n)
+    {
+      StringBuilder rval = new StringBuilder(segmentType);
       if (n < 10)
       {
         rval.append('0');
@@ -825,6 +1639,7 @@ public abstract class AbstractTokenizer implements Tokenizer, ErrorMessages
             segmentCount++;
             segTokenCount = 1;
             segCharCount = 1;
+            segmentStartOffset = startingOffset + charCount - 1;
             currentToken.type = Token.TokenType.SEGMENT_START;
             currentToken.value.setLength(1);
             currentToken.value.setCharAt(0, cChar);
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.tokenizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An InputStream of EDI input in a single-byte character encoding, held in a ByteBuffer
+ * that an EDITokenizerBytes can scan directly.
+ * <p/>
+ * The ByteBuffer either holds an entire file, mapped into memory, or is refilled
+ * from an underlying InputStream as its bytes are consumed. Since the stream is
+ * shared by the tokenizers of successive interchanges in the same input, its position
+ * always marks the first byte not yet consumed by any of them.
+ *
+ * @see EDITokenizerBytes
+ */
+public class ByteBufferInputStream extends InputStream
+{
+  public static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Decode tables already created, by character encoding. The tables are never modified.
+   */
+  private static final ConcurrentMap<Charset, char[]> decodeTables = new ConcurrentHashMap<Charset, char[]>();
+
+  private final ByteBuffer buffer;
+  private final ReadableByteChannel channel;
+  private final Charset charset;
+  private final char[] decodeTable;
+  private boolean endOfFile;
+
+  /**
+   * Constructs an instance that reads bytes from an InputStream as they are needed.
+   *
+   * @param inputStream source of bytes
+   * @param charset     single-byte character encoding of the bytes
+   */
+  public ByteBufferInputStream(InputStream inputStream, Charset charset)
+  {
+    this.channel = Channels.newChannel(inputStream);
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.buffer.flip();
+    this.charset = charset;
+    this.decodeTable = decodeTableFor(charset);
+  }
+
+  /**
+   * Constructs an instance over bytes that are already in a ByteBuffer, such as a MappedByteBuffer.
+   *
+   * @param buffer  holding all of the bytes, from its position to its limit
+   * @param charset single-byte character encoding of the bytes
+   */
+  public ByteBufferInputStream(ByteBuffer buffer, Charset charset)
+  {
+    this.channel = null;
+    this.buffer = buffer;
+    this.charset = charset;
+    this.decodeTable = decodeTableFor(charset);
+  }
+
+  /**
+   * Creates an instance for a file, mapping the file into memory if it is not
+   * too large to be mapped as a single buffer.
+   *
+   * @param file    containing EDI input
+   * @param charset single-byte character encoding of the file
+   * @return ByteBufferInputStream
+   * @throws IOException if the file cannot be opened
+   */
+  public static ByteBufferInputStream open(File file, Charset charset) throws IOException
+  {
+    FileInputStream fileInputStream = new FileInputStream(file);
+    FileChannel fileChannel = fileInputStream.getChannel();
+    long size = fileChannel.size();
+    if (size > Integer.MAX_VALUE)
+      return new ByteBufferInputStream(fileInputStream, charset);
+
+    try
+    {
+      return new ByteBufferInputStream(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset);
+    } finally
+    {
+      // The mapping remains valid after the channel is closed
+      fileInputStream.close();
+    }
+  }
+
+  /**
+   * Returns true if chars in a given encoding can be decoded one byte at a time
+   * by an EDITokenizerBytes.
+   *
+   * @param charset character encoding
+   * @return boolean
+   */
+  public static boolean isSingleByte(Charset charset)
+  {
+    if (charset == null || !charset.canEncode())
+      return false;
+    return charset.newEncoder().maxBytesPerChar() == 1.0f && charset.newDecoder().maxCharsPerByte() == 1.0f;
+  }
+
+  private static char[] decodeTableFor(Charset charset)
+  {
+    char[] result = decodeTables.get(charset);
+    if (result == null)
+    {
+      result = createDecodeTable(charset);
+      decodeTables.putIfAbsent(charset, result);
+    }
+    return result;
+  }
+
+  /**
+   * Decodes each of the 256 possible byte values, replacing any that are
+   * malformed or unmappable in the same way as an InputStreamReader.
+   */
+  private static char[] createDecodeTable(Charset charset)
+  {
+    if (!isSingleByte(charset))
+      throw new IllegalArgumentException(charset + " is not a single-byte character encoding");
+
+    byte[] bytes = new byte[256];
+    for (int b = 0; b < 256; b++)
+      bytes[b] = (byte) b;
+
+    CharsetDecoder decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE)
+      .replaceWith("\uFFFD");
+    CharBuffer chars;
+    try
+    {
+      chars = decoder.decode(ByteBuffer.wrap(bytes));
+    } catch (CharacterCodingException e)
+    {
+      throw new IllegalArgumentException(charset + " cannot be decoded one byte at a time", e);
+    }
+    if (chars.remaining() != 256)
+      throw new IllegalArgumentException(charset + " is not a single-byte character encoding");
+
+    char[] result = new char[256];
+    chars.get(result);
+    return result;
+  }
+
+  /**
+   * Makes at least n bytes available in the buffer, from its position, if the input
+   * has that many remaining.
+   *
+   * @param n number of bytes needed
+   * @return true if n bytes are available, false if the input ended first
+   * @throws IOException if problem reading the underlying InputStream
+   */
+  public boolean ensure(int n) throws IOException
+  {
+    if (buffer.remaining() >= n)
+      return true;
+    if (channel == null || endOfFile)
+      return false;
+
+    int target = Math.min(n, buffer.capacity());
+    buffer.compact();
+    try
+    {
+      while (buffer.position() < target)
+      {
+        if (channel.read(buffer) < 0)
+        {
+          endOfFile = true;
+          break;
+        }
+      }
+    } finally
+    {
+      buffer.flip();
+    }
+    return buffer.remaining() >= n;
+  }
+
+  /**
+   * Returns the buffer from which bytes are consumed, advancing its position.
+   *
+   * @return ByteBuffer
+   */
+  public ByteBuffer getBuffer()
+  {
+    return buffer;
+  }
+
+  /**
+   * Returns the table giving the char for each of the 256 byte values.
+   *
+   * @return char[256]
+   */
+  public char[] getDecodeTable()
+  {
+    return decodeTable;
+  }
+
+  public Charset getCharset()
+  {
+    return charset;
+  }
+
+  /**
+   * Returns true if the buffer already holds all of the remaining bytes of the input,
+   * as it does when a file is mapped into memory, so that it never needs to be refilled.
+   *
+   * @return boolean
+   */
+  public boolean isComplete()
+  {
+    return channel == null;
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    return ensure(1) ? buffer.get() & 0xff : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException
+  {
+    if (len == 0)
+      return 0;
+    if (!ensure(1))
+      return -1;
+    int n = Math.min(len, buffer.remaining());
+    buffer.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public int available()
+  {
+    return buffer.remaining();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (channel != null)
+      channel.close();
+  }
+}
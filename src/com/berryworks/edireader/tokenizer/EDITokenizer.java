@@ -52,6 +52,21 @@ public class EDITokenizer extends AbstractTokenizer
   public EDITokenizer(Reader source, char[] preRead)
   {
     this(source);
+    putPreRead(preRead);
+  }
+
+  public void reset(Reader source, char[] preRead)
+  {
+    reset(source);
+    bufferUsed = 0;
+    bufferIndex = 0;
+    putPreRead(preRead);
+    if (EDIReader.debug)
+      trace("Reset an EDITokenizer for reuse");
+  }
+
+  private void putPreRead(char[] preRead)
+  {
     if (preRead == null || preRead.length == 0)
       return;
     if (preRead.length > buffer.length)
@@ -107,16 +122,8 @@ public class EDITokenizer extends AbstractTokenizer
     // Read a fresh character from the input source.
     // But first copy the current one to an outputWriter
     // or the recorder if necessary.
-    if (outputWriter != null)
-    {
-      // We do have an outputWriter wanting data, but do we have
-      // a current character to write? And make sure writing is
-      // not suspended.
-      if ((!endOfFile) && (!writingSuspended))
-        outputWriter.write(cChar);
-    }
-    if (recorderOn)
-      recording.append(cChar);
+    if (copying && !endOfFile)
+      copyChar(cChar);
 
     if (bufferIndex >= bufferUsed)
     {
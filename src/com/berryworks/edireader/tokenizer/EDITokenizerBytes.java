@@ -0,0 +1,404 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.tokenizer;
+
+import com.berryworks.edireader.EDIReader;
+import com.berryworks.edireader.EDISyntaxException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Interprets EDI input in a single-byte character encoding as a sequence of primitive syntactic tokens.
+ * <p/>
+ * Unlike EDITokenizerNIO, which reads chars that a Reader has already decoded, this implementation
+ * scans the bytes of a ByteBufferInputStream directly, decoding each byte with a table lookup only
+ * as it is classified or appended to the value of a token. There is no separate decoding pass, and
+ * when the input is a memory-mapped file the bytes are never copied into an intermediate buffer.
+ * <p/>
+ * Successive interchanges in the same input share the ByteBufferInputStream, so getBuffered()
+ * returns only a char that has been put back with ungetChar() and any pre-read chars not yet consumed.
+ * <p/>
+ * An instance can be reused for other byte input with reset(ByteBufferInputStream, char[]).
+ * When reset(Reader, char[]) is called instead, it reads chars from the Reader, one at a time
+ * and without byte offsets, until it is reset again.
+ *
+ * @see ByteBufferInputStream
+ */
+public class EDITokenizerBytes extends AbstractTokenizer
+{
+
+  private static final int CHAR_BUFFER_SIZE = 4096;
+  private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0);
+
+  private ByteBufferInputStream byteInput;
+  private ByteBuffer buffer;
+  private char[] decodeTable;
+
+  /**
+   * Chars to be returned before any more input is read: the pre-read chars, or chars
+   * read from charInput into charBuffer.
+   */
+  private char[] preRead;
+  private int preReadIndex;
+  private int preReadLength;
+
+  /**
+   * Source of chars, if the tokenizer has been reset to read from a Reader, and otherwise null.
+   */
+  private Reader charInput;
+  private char[] charBuffer;
+  private char[] scratch = new char[256];
+
+  public EDITokenizerBytes(ByteBufferInputStream source)
+  {
+    this(source, null);
+  }
+
+  public EDITokenizerBytes(ByteBufferInputStream source, char[] preRead)
+  {
+    super();
+    bind(source, preRead);
+    if (EDIReader.debug)
+      trace("Constructed a new EDITokenizerBytes");
+  }
+
+  /**
+   * Returns a String representation of the current state of the tokenizer
+   * for testing and debugging purposes.
+   *
+   * @return String representation
+   */
+  @Override
+  public String toString()
+  {
+    String result = "tokenizer state:";
+    result += " segmentCount=" + segmentCount;
+    result += " charCount=" + charCount;
+    result += " segTokenCount=" + segTokenCount;
+    result += " segCharCount=" + segCharCount;
+    result += " currentToken=" + currentToken;
+    result += " buffer.limit=" + buffer.limit();
+    result += " buffer.position=" + buffer.position();
+    return result;
+  }
+
+  /**
+   * Gets the next character of input. <pr>Sets cChar, cClass
+   *
+   * @throws java.io.IOException for problem reading EDI data
+   */
+  public void getChar() throws IOException
+  {
+    if (unGot)
+    {
+      // The current character has been "put back" with ungetChar()
+      // after having been seen with getChar(). Therefore, this call
+      // to getChar() can simply reget the current character.
+      unGot = false;
+      charCount++;
+      segCharCount++;
+      return;
+    }
+
+    // Read a fresh character from the input source.
+    // But first copy the current one to an outputWriter
+    // or the recorder if necessary.
+    if (copying && !endOfFile)
+      copyChar(cChar);
+
+    if (preReadIndex < preReadLength || fillChars(1))
+    {
+      cChar = preRead[preReadIndex++];
+      cClass = classify(cChar);
+    }
+    else if (charInput != null || (!buffer.hasRemaining() && !byteInput.ensure(1)))
+    {
+      endOfFile = true;
+      cClass = CharacterClass.EOF;
+      if (EDIReader.debug)
+        trace("end-of-file encountered");
+    }
+    else
+    {
+      cChar = decodeTable[buffer.get() & 0xff];
+      cClass = classify(cChar);
+    }
+    charCount++;
+    segCharCount++;
+  }
+
+  @Override
+  protected int scanDataRun() throws IOException
+  {
+    if (charInput != null || preReadIndex < preReadLength)
+      return 0;
+
+    int start = buffer.position();
+    int end = buffer.limit();
+
+    // Decode the run into a scratch array, which is then appended in bulk
+    char[] chars = scratch;
+    int n = 0;
+    if (buffer.hasArray())
+    {
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset();
+      for (int i = offset + start; i < offset + end; i++)
+      {
+        char c = decodeTable[array[i] & 0xff];
+        if (classify(c) != CharacterClass.DATA)
+          break;
+        if (n == chars.length)
+          chars = scratch = Arrays.copyOf(chars, 2 * n);
+        chars[n++] = c;
+      }
+    }
+    else
+    {
+      for (int i = start; i < end; i++)
+      {
+        char c = decodeTable[buffer.get(i) & 0xff];
+        if (classify(c) != CharacterClass.DATA)
+          break;
+        if (n == chars.length)
+          chars = scratch = Arrays.copyOf(chars, 2 * n);
+        chars[n++] = c;
+      }
+    }
+
+    if (n > 0)
+    {
+      if (copying)
+      {
+        copyChar(cChar);
+        copyChars(chars, 0, n - 1);
+      }
+      currentToken.value.append(chars, 0, n);
+      buffer.position(start + n);
+      cChar = chars[n - 1];
+      charCount += n;
+      segCharCount += n;
+    }
+    return n;
+  }
+
+  @Override
+  protected int skipRun() throws IOException
+  {
+    if (charInput != null || preReadIndex < preReadLength)
+      return 0;
+
+    int start = buffer.position();
+    int end = buffer.limit();
+    int i = start;
+    if (buffer.hasArray())
+    {
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset();
+      while (i < end && isSkippable(decodeTable[array[offset + i] & 0xff]))
+        i++;
+    }
+    else
+    {
+      while (i < end && isSkippable(decodeTable[buffer.get(i) & 0xff]))
+        i++;
+    }
+
+    int n = i - start;
+    if (n > 0)
+    {
+      if (copying)
+      {
+        copyChar(cChar);
+        for (int j = start; j < i - 1; j++)
+          copyChar(decodeTable[buffer.get(j) & 0xff]);
+      }
+      buffer.position(i);
+      cChar = decodeTable[buffer.get(i - 1) & 0xff];
+      charCount += n;
+      segCharCount += n;
+    }
+    return n;
+  }
+
+  /**
+   * Returns the byte offset of the next byte to be read, which is the same as its char offset
+   * since each char is a single byte.
+   *
+   * @return byte offset
+   */
+  @Override
+  public long getByteOffset()
+  {
+    return charInput == null ? getCharOffset() : -1;
+  }
+
+  @Override
+  public long getSegmentStartByteOffset()
+  {
+    return charInput == null ? getSegmentStartOffset() : -1;
+  }
+
+  public char[] getBuffered()
+  {
+    int pending = preReadLength - preReadIndex;
+    if (endOfFile || (pending == 0 && !unGot))
+      return new char[0];
+
+    char[] result = new char[pending + (unGot ? 1 : 0)];
+    int j = 0;
+    if (unGot)
+      result[j++] = cChar;
+    for (int i = preReadIndex; i < preReadIndex + pending; i++)
+      result[j++] = preRead[i];
+    return result;
+  }
+
+  /**
+   * Look ahead into the source of input chars and return the next n chars to
+   * be seen, without disturbing the normal operation of getChar().
+   *
+   * @param n number of chars to return
+   * @return char[] containing upcoming input chars
+   * @throws java.io.IOException for problem reading EDI data
+   * @throws com.berryworks.edireader.EDISyntaxException
+   *
+   */
+  public char[] lookahead(int n) throws IOException, EDISyntaxException
+  {
+    if (EDIReader.debug)
+      trace("EDITokenizerBytes.lookahead(" + n + ")");
+
+    char[] rval = new char[n];
+
+    // The 1st char is grabbed using the tokenizer's built-in
+    // getChar() / ungetChar() mechanism. This allows things to work
+    // properly whether or not the next char has already been gotten.
+    getChar();
+    rval[0] = cChar;
+    ungetChar();
+
+    int j = 1;
+    fillChars(n - 1);
+    for (int i = preReadIndex; i < preReadLength && j < n; i++)
+      rval[j++] = preRead[i];
+
+    if (j < n && charInput == null)
+    {
+      byteInput.ensure(n - j);
+      for (int i = buffer.position(); i < buffer.limit() && j < n; i++)
+        rval[j++] = decodeTable[buffer.get(i) & 0xff];
+    }
+
+    // If more lookahead chars were requested than were satisfied for any reason,
+    // then fill the return value with '?' to the requested length.
+    for (; j < n;) rval[j++] = '?';
+
+    return rval;
+  }
+
+  /**
+   * Prepares this tokenizer to read chars from a Reader as if it were newly constructed.
+   * Until it is reset again, it reads the Reader a char at a time without the bulk scanning
+   * used for bytes, and the byte offset of its input is unknown.
+   *
+   * @param source  of input chars
+   * @param preRead chars of input data to be used before reading from the source, or null
+   */
+  public void reset(Reader source, char[] preRead)
+  {
+    reset(source);
+    byteInput = null;
+    buffer = NO_BYTES;
+    charInput = source;
+    setPreRead(preRead);
+    if (EDIReader.debug)
+      trace("Reset an EDITokenizerBytes to read chars");
+  }
+
+  /**
+   * Prepares this tokenizer to read the bytes of another ByteBufferInputStream
+   * as if it were newly constructed.
+   *
+   * @param source  of input bytes
+   * @param preRead chars of input data to be used before reading from the source, or null
+   */
+  public void reset(ByteBufferInputStream source, char[] preRead)
+  {
+    reset((Reader) null);
+    bind(source, preRead);
+    if (EDIReader.debug)
+      trace("Reset an EDITokenizerBytes for reuse");
+  }
+
+  private void bind(ByteBufferInputStream source, char[] preRead)
+  {
+    byteInput = source;
+    buffer = source.getBuffer();
+    decodeTable = source.getDecodeTable();
+    charInput = null;
+    setPreRead(preRead);
+  }
+
+  private void setPreRead(char[] chars)
+  {
+    preRead = chars;
+    preReadIndex = 0;
+    preReadLength = chars == null ? 0 : chars.length;
+  }
+
+  /**
+   * When reading from a Reader, reads until at least n chars are pending or the Reader is exhausted,
+   * keeping any chars still pending.
+   *
+   * @param n number of chars wanted
+   * @return true if at least one char is pending
+   * @throws IOException if thrown by the Reader
+   */
+  private boolean fillChars(int n) throws IOException
+  {
+    int pending = preReadLength - preReadIndex;
+    if (charInput == null || pending >= n)
+      return pending > 0;
+
+    // Move the pending chars to the front of a buffer owned by this tokenizer
+    if (charBuffer == null || charBuffer.length < n)
+      charBuffer = new char[Math.max(n, CHAR_BUFFER_SIZE)];
+    if (pending > 0)
+      System.arraycopy(preRead, preReadIndex, charBuffer, 0, pending);
+    preRead = charBuffer;
+    preReadIndex = 0;
+    preReadLength = pending;
+
+    while (preReadLength < n)
+    {
+      int count = charInput.read(charBuffer, preReadLength, charBuffer.length - preReadLength);
+      if (count < 0)
+        break;
+      preReadLength += count;
+    }
+    return preReadLength > 0;
+  }
+
+}
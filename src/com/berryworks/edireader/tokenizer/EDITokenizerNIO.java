@@ -41,30 +41,104 @@ public class EDITokenizerNIO extends AbstractTokenizer
 {
 
   public static final int BUFFER_SIZE = 1000;
-  private final CharBuffer charBuffer = CharBuffer.wrap(new char[BUFFER_SIZE]);
+
+  /**
+   * Largest size to which an adaptive buffer grows.
+   */
+  public static final int MAXIMUM_ADAPTIVE_BUFFER_SIZE = 64 * 1024;
+
+  private CharBuffer charBuffer;
+
+  /**
+   * True if the buffer grows as long as reads keep filling it, so that
+   * large inputs are read with fewer and larger calls to the Reader.
+   */
+  private boolean adaptive;
+
+  /**
+   * True once the Reader has returned end-of-file. Chars may remain in the
+   * buffer, so endOfFile is not set until they have been consumed.
+   */
+  private boolean sourceExhausted;
 
   public EDITokenizerNIO(Reader source)
+  {
+    this(source, null, BUFFER_SIZE);
+  }
+
+  public EDITokenizerNIO(Reader source, char[] preRead)
+  {
+    this(source, preRead, BUFFER_SIZE);
+  }
+
+  /**
+   * Constructs an instance with an input buffer of a designated size.
+   *
+   * @param source     of input chars
+   * @param preRead    chars of input data to be used before reading from the source, or null
+   * @param bufferSize initial capacity of the input buffer, in chars
+   */
+  public EDITokenizerNIO(Reader source, char[] preRead, int bufferSize)
   {
     super(source);
+    if (bufferSize < 1)
+      throw new IllegalArgumentException("Tokenizer buffer size must be positive: " + bufferSize);
+    charBuffer = CharBuffer.wrap(new char[bufferSize]);
     charBuffer.flip();
     if (EDIReader.debug)
       trace("Constructed a new EDITokenizer");
+    putPreRead(preRead);
   }
 
-  public EDITokenizerNIO(Reader source, char[] preRead)
+  public void reset(Reader source, char[] preRead)
+  {
+    reset(source);
+    sourceExhausted = false;
+    charBuffer.clear();
+    charBuffer.flip();
+    putPreRead(preRead);
+    if (EDIReader.debug)
+      trace("Reset an EDITokenizer for reuse");
+  }
+
+  private void putPreRead(char[] preRead)
   {
-    this(source);
     if (preRead == null || preRead.length == 0)
       return;
 
     if (preRead.length > charBuffer.capacity())
-      throw new RuntimeException("Attempt to create EDITokenizer with " + preRead.length +
-        " pre-read chars, which is greater than the internal buffer size of " + charBuffer.capacity());
+      charBuffer = CharBuffer.wrap(new char[preRead.length]);
     charBuffer.clear();
     charBuffer.put(preRead);
     charBuffer.flip();
   }
 
+  /**
+   * Sets whether the input buffer grows, up to MAXIMUM_ADAPTIVE_BUFFER_SIZE, each time
+   * a read from the Reader fills it.
+   *
+   * @param adaptive true to let the buffer grow
+   */
+  public void setAdaptive(boolean adaptive)
+  {
+    this.adaptive = adaptive;
+  }
+
+  public boolean isAdaptive()
+  {
+    return adaptive;
+  }
+
+  /**
+   * Returns the current capacity of the input buffer, in chars.
+   *
+   * @return int capacity
+   */
+  public int getBufferSize()
+  {
+    return charBuffer.capacity();
+  }
+
   /**
    * Returns a String representation of the current state of the tokenizer
    * for testing and debugging purposes.
@@ -106,20 +180,14 @@ public class EDITokenizerNIO extends AbstractTokenizer
     // Read a fresh character from the input source.
     // But first copy the current one to an outputWriter
     // or the recorder if necessary.
-    if (outputWriter != null)
-    {
-      // We do have an outputWriter wanting data, but do we have
-      // a current character to write? And make sure writing is
-      // not suspended.
-      if ((!endOfFile) && (!writingSuspended))
-        outputWriter.write(cChar);
-    }
-    if (recorderOn)
-      recording.append(cChar);
+    if (copying && !endOfFile)
+      copyChar(cChar);
 
     if (charBuffer.remaining() == 0)
     {
       readUntilBufferProvidesAtLeast(1);
+      if (charBuffer.remaining() == 0)
+        endOfFile = true;
     }
 
     if (endOfFile)
@@ -131,23 +199,69 @@ public class EDITokenizerNIO extends AbstractTokenizer
     else
     {
       cChar = charBuffer.get();
-      if (cChar == delimiter)
-        cClass = CharacterClass.DELIMITER;
-      else if (cChar == subDelimiter)
-        cClass = CharacterClass.SUB_DELIMITER;
-      else if (cChar == release)
-        cClass = CharacterClass.RELEASE;
-      else if (cChar == terminator)
-        cClass = CharacterClass.TERMINATOR;
-      else if (cChar == repetitionSeparator)
-        cClass = CharacterClass.REPEAT_DELIMITER;
-      else
-        cClass = CharacterClass.DATA;
+      cClass = classify(cChar);
     }
     charCount++;
     segCharCount++;
   }
 
+  @Override
+  protected int scanDataRun() throws IOException
+  {
+    char[] array = charBuffer.array();
+    int offset = charBuffer.arrayOffset();
+    int start = charBuffer.position();
+    int end = charBuffer.limit();
+
+    int i = start;
+    while (i < end && classify(array[offset + i]) == CharacterClass.DATA)
+      i++;
+
+    int n = i - start;
+    if (n > 0)
+    {
+      if (copying)
+      {
+        copyChar(cChar);
+        copyChars(array, offset + start, n - 1);
+      }
+      currentToken.value.append(array, offset + start, n);
+      charBuffer.position(i);
+      cChar = array[offset + i - 1];
+      charCount += n;
+      segCharCount += n;
+    }
+    return n;
+  }
+
+  @Override
+  protected int skipRun() throws IOException
+  {
+    char[] array = charBuffer.array();
+    int offset = charBuffer.arrayOffset();
+    int start = charBuffer.position();
+    int end = charBuffer.limit();
+
+    int i = start;
+    while (i < end && isSkippable(array[offset + i]))
+      i++;
+
+    int n = i - start;
+    if (n > 0)
+    {
+      if (copying)
+      {
+        copyChar(cChar);
+        copyChars(array, offset + start, n - 1);
+      }
+      charBuffer.position(i);
+      cChar = array[offset + i - 1];
+      charCount += n;
+      segCharCount += n;
+    }
+    return n;
+  }
+
   public char[] getBuffered()
   {
     char[] result = new char[0];
@@ -198,16 +312,15 @@ public class EDITokenizerNIO extends AbstractTokenizer
     if (charBuffer.remaining() < n - 1)
     {
       if (EDIReader.debug)
-        if (EDIReader.debug)
-          trace("buffering more data to satisfy lookahead(" + n + ")");
-      charBuffer.compact();
+        trace("buffering more data to satisfy lookahead(" + n + ")");
       readUntilBufferProvidesAtLeast(n - 1);
     }
 
     // Move chars from the buffer into the return value,
     // up to the length of the buffer
     int j = 1;
-    for (int i = charBuffer.position(); i < charBuffer.position() + n - 1; i++)
+    int end = Math.min(charBuffer.limit(), charBuffer.position() + n - 1);
+    for (int i = charBuffer.position(); i < end; i++)
       rval[j++] = charBuffer.get(i);
 
     // If more lookahead chars were requested than were satisfied for any reason,
@@ -219,10 +332,18 @@ public class EDITokenizerNIO extends AbstractTokenizer
 
   private void readUntilBufferProvidesAtLeast(int needed) throws IOException
   {
+    if (needed > charBuffer.capacity())
+      growBuffer(needed);
 
-    while (charBuffer.remaining() < needed)
+    while (charBuffer.remaining() < needed && !sourceExhausted)
     {
-      charBuffer.compact();
+      // Only the unread tail of the buffer needs to be kept, and on the usual
+      // path through getChar() there is none, so the buffer is simply cleared.
+      if (charBuffer.hasRemaining())
+        charBuffer.compact();
+      else
+        charBuffer.clear();
+
       int n;
       while ((n = inputReader.read(charBuffer)) == 0)
       {
@@ -232,12 +353,26 @@ public class EDITokenizerNIO extends AbstractTokenizer
       if (n < 0)
       {
         if (EDIReader.debug) trace("hit end of file in readUntil...");
-        endOfFile = true;
-        break;
+        sourceExhausted = true;
       }
+      boolean filled = !charBuffer.hasRemaining();
       charBuffer.flip();
+
+      if (filled && adaptive && charBuffer.capacity() < MAXIMUM_ADAPTIVE_BUFFER_SIZE)
+        growBuffer(Math.min(2 * charBuffer.capacity(), MAXIMUM_ADAPTIVE_BUFFER_SIZE));
     }
   }
 
+  /**
+   * Replaces the buffer with a larger one, keeping its unread chars.
+   */
+  private void growBuffer(int capacity)
+  {
+    if (EDIReader.debug) trace("growing buffer to " + capacity + " chars");
+    CharBuffer larger = CharBuffer.wrap(new char[capacity]);
+    larger.put(charBuffer);
+    larger.flip();
+    charBuffer = larger;
+  }
 
-}
\ No newline at end of file
+}
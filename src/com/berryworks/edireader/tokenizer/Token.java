@@ -92,6 +92,35 @@ public interface Token
   public char[] getValueChars();
 
 
+  /**
+   * Gets the same thing as <code>getValue</code> without constructing a
+   * new object. The CharSequence is reused by the tokenizer, so its content
+   * is valid only until the next token is read.
+   *
+   * @return The value as a CharSequence
+   */
+  public CharSequence getValueCharSequence();
+
+
+  /**
+   * Gets the same thing as <code>getValueChars</code> without constructing a
+   * new array. The value occupies the first <code>getValueLength()</code>
+   * chars of the returned array, which is reused by the tokenizer and is
+   * therefore valid only until the next token is read.
+   *
+   * @return shared array holding the value
+   */
+  public char[] getValueBuffer();
+
+
+  /**
+   * Gets the number of chars in the value of the token.
+   *
+   * @return length of the value
+   */
+  public int getValueLength();
+
+
   /**
    * Returns true if the value of this token equals
    * the argument.
@@ -23,6 +23,7 @@ package com.berryworks.edireader.tokenizer;
 import com.berryworks.edireader.EDISyntaxException;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -71,10 +72,76 @@ public interface Tokenizer
 
   int getSegmentCharCount();
 
+  /**
+   * Returns the offset, within the entire input, of the next char to be read.
+   * Unlike getCharCount(), this does not wrap for inputs of more than 2GB, and it
+   * continues from one interchange to the next if setStartingOffset() is used when
+   * a new tokenizer takes over from a previous one.
+   *
+   * @return char offset
+   */
+  long getCharOffset();
+
+  /**
+   * Returns the char offset, within the entire input, of the first char of the current segment.
+   *
+   * @return char offset
+   */
+  long getSegmentStartOffset();
+
+  /**
+   * Returns the offset, within the entire input, of the next byte to be read,
+   * or -1 if the tokenizer reads chars whose byte offsets are not known.
+   *
+   * @return byte offset, or -1
+   */
+  long getByteOffset();
+
+  /**
+   * Returns the byte offset, within the entire input, of the first byte of the current segment,
+   * or -1 if the tokenizer reads chars whose byte offsets are not known.
+   *
+   * @return byte offset, or -1
+   */
+  long getSegmentStartByteOffset();
+
+  /**
+   * Sets the offset, within the entire input, of the first char read by this tokenizer,
+   * including any pre-read chars.
+   *
+   * @param offset char offset
+   */
+  void setStartingOffset(long offset);
+
+  /**
+   * Sets the number of segments considered to precede the input of this tokenizer,
+   * so that segment numbers continue from those of another tokenizer.
+   *
+   * @param count number of segments
+   */
+  void setStartingSegmentCount(int count);
+
   String getRecording();
 
   void setRecorder(boolean b);
 
+  /**
+   * Limits the number of chars of the recording held in memory. Beyond the limit, the recording
+   * spills to the file set by setRecorderSpillFile(), or else is truncated.
+   *
+   * @param limit maximum number of chars
+   */
+  void setRecorderLimit(int limit);
+
+  /**
+   * Sets a file to which the recording spills when it grows beyond the recorder limit.
+   *
+   * @param file spill file, or null to truncate the recording at the limit instead
+   */
+  void setRecorderSpillFile(File file);
+
+  boolean isRecordingTruncated();
+
   /**
    * Look ahead into the source of input chars and return the next n chars to
    * be seen, without disturbing the normal operation of getChar().
@@ -104,6 +171,11 @@ public interface Tokenizer
 
   Token skipSegment() throws SAXException, IOException;
 
+  int copySegmentsThrough(String segmentType, String binarySegmentType, boolean binaryInSegment,
+                          StringBuilder copy) throws IOException, EDISyntaxException;
+
+  int skipSegmentsUntil(String... segmentTypes) throws IOException, EDISyntaxException;
+
   void ungetToken();
 
   String nextSimpleValue(boolean required, boolean returnNullAtSegmentEnd) throws SAXException,
@@ -127,4 +199,21 @@ public interface Tokenizer
    * @throws java.io.IOException for problem reading EDI data
    */
   void getChar() throws IOException;
+
+  /**
+   * Prepares this tokenizer to read a new source of input chars as if it were newly constructed,
+   * reusing its internal buffers.
+   *
+   * @param source  of input chars
+   * @param preRead chars of input data to be used before reading from the source, or null
+   */
+  void reset(Reader source, char[] preRead);
+
+  /**
+   * Prepares this tokenizer to read the next interchange of the same input, keeping the chars it
+   * has already read but not yet returned. The syntax characters revert to their defaults, so that
+   * they can be established anew by the preview of the next interchange, and the segment count
+   * starts again from zero. Char offsets continue from the previous interchange.
+   */
+  void rearm();
 }
@@ -55,10 +55,10 @@ public class Splitter
   {
     Writer writer = null;
 
-    char[] leftOver = null;
     try
     {
-      while ((parser = EDIReaderFactory.createEDIReader(inputSource, leftOver)) != null)
+      parser = EDIReaderFactory.createEDIReader(inputSource);
+      while (parser != null)
       {
         String outputFilename = handlerFactory.generateName();
         System.out.println(newLine + "EDI interchange written to: " + outputFilename);
@@ -68,7 +68,7 @@ public class Splitter
         parser.parse(inputSource);
         writer.close();
         writer = null;
-        leftOver = parser.getTokenizer().getBuffered();
+        parser = EDIReaderFactory.createEDIReader(parser.getTokenizer());
       }
     } finally
     {
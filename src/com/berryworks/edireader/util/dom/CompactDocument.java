@@ -0,0 +1,494 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.util.dom;
+
+import com.berryworks.edireader.EDIReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compact, read-only, in-memory representation of the XML generated by EDIReader,
+ * as an alternative to a W3C DOM for large documents.
+ * <p/>
+ * There is no object per node. Each element is a node identified by an int, its position
+ * in document order, and its name, parent, extent and text are held in int arrays.
+ * The text of every node is held in a single shared char array, and the names and attribute
+ * values in a dictionary of Strings in which each distinct String appears once.
+ * Since the descendants of a node are exactly the nodes that follow it up to its extent,
+ * the segments and loops within any part of the document are found by binary search
+ * of the arrays listing the segment and loop nodes in document order.
+ * <p/>
+ * A CompactDocument is built by a CompactDocumentBuilder receiving the SAX events of an
+ * EDIReader, and it can emit those SAX events again with replay(), or build a DOM with toDocument().
+ * Methods returning a node return -1 if there is no such node.
+ */
+public class CompactDocument
+{
+  private final String[] strings;
+  private final int nodeCount;
+  private final int[] names;
+  private final int[] uris;
+  private final int[] parents;
+  private final int[] ends;
+  private final int[] textStarts;
+  private final int[] textLengths;
+  private final int[] attributeStarts;
+  private final int[] attributeNames;
+  private final int[] attributeValues;
+  private final char[] text;
+  private final int[] segments;
+  private final int[] loops;
+  private final String idAttribute;
+  private final String subElementTag;
+  private final String sequenceAttribute;
+
+  CompactDocument(String[] strings, int nodeCount, int[] names, int[] uris, int[] parents, int[] ends,
+                  int[] textStarts, int[] textLengths, int[] attributeStarts, int[] attributeNames,
+                  int[] attributeValues, char[] text, int[] segments, int[] loops,
+                  String idAttribute, String subElementTag, String sequenceAttribute)
+  {
+    this.strings = strings;
+    this.nodeCount = nodeCount;
+    this.names = names;
+    this.uris = uris;
+    this.parents = parents;
+    this.ends = ends;
+    this.textStarts = textStarts;
+    this.textLengths = textLengths;
+    this.attributeStarts = attributeStarts;
+    this.attributeNames = attributeNames;
+    this.attributeValues = attributeValues;
+    this.text = text;
+    this.segments = segments;
+    this.loops = loops;
+    this.idAttribute = idAttribute;
+    this.subElementTag = subElementTag;
+    this.sequenceAttribute = sequenceAttribute;
+  }
+
+  /**
+   * Parses EDI input, which may contain several interchanges, into a CompactDocument.
+   *
+   * @param inputSource EDI input
+   * @return CompactDocument
+   * @throws IOException  for problem reading the EDI input
+   * @throws SAXException if invalid EDI is detected
+   */
+  public static CompactDocument parse(InputSource inputSource) throws IOException, SAXException
+  {
+    EDIReader ediReader = new EDIReader();
+    CompactDocumentBuilder builder = new CompactDocumentBuilder(ediReader.getXMLTags());
+    ediReader.setContentHandler(builder);
+    ediReader.parse(inputSource);
+    return builder.getDocument();
+  }
+
+  public int getNodeCount()
+  {
+    return nodeCount;
+  }
+
+  public int getRoot()
+  {
+    return nodeCount > 0 ? 0 : -1;
+  }
+
+  public String getName(int node)
+  {
+    return strings[names[node]];
+  }
+
+  public int getParent(int node)
+  {
+    return parents[node];
+  }
+
+  public int getFirstChild(int node)
+  {
+    int child = node + 1;
+    return child < ends[node] ? child : -1;
+  }
+
+  public int getNextSibling(int node)
+  {
+    int parent = parents[node];
+    int sibling = ends[node];
+    return parent >= 0 && sibling < ends[parent] ? sibling : -1;
+  }
+
+  /**
+   * Returns the first child of a node with a given name.
+   *
+   * @param node parent node
+   * @param name element name
+   * @return child node, or -1
+   */
+  public int getChild(int node, String name)
+  {
+    for (int child = getFirstChild(node); child >= 0; child = getNextSibling(child))
+      if (strings[names[child]].equals(name))
+        return child;
+    return -1;
+  }
+
+  /**
+   * Returns the character content of a node, or null if it has none.
+   * Since EDIReader generates text only within elements having no child elements,
+   * this is the text of an element, sub-element or package.
+   *
+   * @param node node
+   * @return text, or null
+   */
+  public String getText(int node)
+  {
+    int start = textStarts[node];
+    return start < 0 ? null : new String(text, start, textLengths[node]);
+  }
+
+  public int getAttributeCount(int node)
+  {
+    return attributeStarts[node + 1] - attributeStarts[node];
+  }
+
+  public String getAttributeName(int node, int index)
+  {
+    return strings[attributeNames[attributeStarts[node] + index]];
+  }
+
+  public String getAttributeValue(int node, int index)
+  {
+    return strings[attributeValues[attributeStarts[node] + index]];
+  }
+
+  /**
+   * Returns the value of a node's attribute, or null if it has no such attribute.
+   *
+   * @param node node
+   * @param name attribute name
+   * @return value, or null
+   */
+  public String getAttribute(int node, String name)
+  {
+    for (int i = attributeStarts[node], end = attributeStarts[node + 1]; i < end; i++)
+      if (strings[attributeNames[i]].equals(name))
+        return strings[attributeValues[i]];
+    return null;
+  }
+
+  public int getSegmentCount()
+  {
+    return segments.length;
+  }
+
+  /**
+   * Returns the segment at a given index among all the segments of the document.
+   *
+   * @param index 0 for the first segment
+   * @return segment node
+   */
+  public int getSegment(int index)
+  {
+    return segments[index];
+  }
+
+  public String getSegmentId(int segment)
+  {
+    return getAttribute(segment, idAttribute);
+  }
+
+  /**
+   * Returns the segments of the document with a given segment ID.
+   *
+   * @param id segment ID, such as "N1"
+   * @return segment nodes in document order
+   */
+  public int[] getSegments(String id)
+  {
+    return getSegments(getRoot(), id);
+  }
+
+  /**
+   * Returns the segments within a node, such as a transaction or a loop, with a given segment ID.
+   *
+   * @param node node within which to look, at any depth
+   * @param id   segment ID, or null for all segments
+   * @return segment nodes in document order
+   */
+  public int[] getSegments(int node, String id)
+  {
+    return select(segments, node, id);
+  }
+
+  public int getLoopCount()
+  {
+    return loops.length;
+  }
+
+  public int getLoop(int index)
+  {
+    return loops[index];
+  }
+
+  public String getLoopId(int loop)
+  {
+    return getAttribute(loop, idAttribute);
+  }
+
+  public int[] getLoops(String id)
+  {
+    return getLoops(getRoot(), id);
+  }
+
+  /**
+   * Returns the loops within a node, at any depth, with a given loop ID.
+   *
+   * @param node node within which to look
+   * @param id   loop ID, or null for all loops
+   * @return loop nodes in document order
+   */
+  public int[] getLoops(int node, String id)
+  {
+    return select(loops, node, id);
+  }
+
+  /**
+   * Returns the innermost loop enclosing a node.
+   *
+   * @param node node
+   * @return loop node, or -1 if the node is not within a loop
+   */
+  public int getEnclosingLoop(int node)
+  {
+    int i = Arrays.binarySearch(loops, node);
+    if (i < 0)
+      i = -i - 1;
+    while (--i >= 0)
+      if (ends[loops[i]] > node)
+        return loops[i];
+    return -1;
+  }
+
+  /**
+   * Returns the element at a given position within a segment. The position is the number
+   * following the segment ID in the element's ID, so that position 3 of a BEG segment is
+   * the element BEG03. If the element is repeated, the first occurrence is returned.
+   *
+   * @param segment  segment node
+   * @param position 1 for the first element
+   * @return element node, or -1 if the element is absent
+   */
+  public int getElement(int segment, int position)
+  {
+    return getElement(segment, position, 0);
+  }
+
+  /**
+   * Returns an occurrence of a repeated element at a given position within a segment.
+   *
+   * @param segment    segment node
+   * @param position   1 for the first element
+   * @param repetition 0 for the first occurrence
+   * @return element node, or -1 if there is no such occurrence
+   */
+  public int getElement(int segment, int position, int repetition)
+  {
+    String segmentId = getSegmentId(segment);
+    int prefixLength = segmentId == null ? 0 : segmentId.length();
+    for (int child = getFirstChild(segment); child >= 0; child = getNextSibling(child))
+    {
+      String id = getAttribute(child, idAttribute);
+      if (id != null && positionOf(id, prefixLength) == position && repetition-- == 0)
+        return child;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the text of the element at a given position within a segment.
+   *
+   * @param segment  segment node
+   * @param position 1 for the first element
+   * @return text, or null if the element is absent or composite
+   */
+  public String getElementText(int segment, int position)
+  {
+    int element = getElement(segment, position);
+    return element < 0 ? null : getText(element);
+  }
+
+  /**
+   * Returns the text of a sub-element of the composite element at a given position within
+   * a segment. An element that is not composite is treated as having a single sub-element.
+   *
+   * @param segment  segment node
+   * @param position 1 for the first element
+   * @param sequence 1 for the first sub-element
+   * @return text, or null if the sub-element is absent
+   */
+  public String getSubElementText(int segment, int position, int sequence)
+  {
+    int element = getElement(segment, position);
+    if (element < 0)
+      return null;
+    if (getFirstChild(element) < 0)
+      return sequence == 1 ? getText(element) : null;
+
+    String s = String.valueOf(sequence);
+    for (int child = getFirstChild(element); child >= 0; child = getNextSibling(child))
+      if (strings[names[child]].equals(subElementTag) && s.equals(getAttribute(child, sequenceAttribute)))
+        return getText(child);
+    return null;
+  }
+
+  /**
+   * Makes the SAX calls that would describe this document, beginning with startDocument()
+   * and ending with endDocument().
+   *
+   * @param contentHandler to receive the SAX calls
+   * @throws SAXException if thrown by the ContentHandler
+   */
+  public void replay(ContentHandler contentHandler) throws SAXException
+  {
+    contentHandler.startDocument();
+    if (nodeCount > 0)
+      replay(getRoot(), contentHandler);
+    contentHandler.endDocument();
+  }
+
+  /**
+   * Makes the startElement(), characters() and endElement() calls that would describe
+   * a node and its descendants. Attributes are presented with the CDATA type, as EDIReader presents them.
+   *
+   * @param node           node
+   * @param contentHandler to receive the SAX calls
+   * @throws SAXException if thrown by the ContentHandler
+   */
+  public void replay(int node, ContentHandler contentHandler) throws SAXException
+  {
+    AttributesImpl attributes = new AttributesImpl();
+    int[] open = new int[16];
+    int depth = 0;
+    for (int i = node, end = ends[node]; i < end; i++)
+    {
+      while (depth > 0 && ends[open[depth - 1]] <= i)
+        endElement(open[--depth], contentHandler);
+
+      attributes.clear();
+      for (int a = attributeStarts[i], limit = attributeStarts[i + 1]; a < limit; a++)
+      {
+        String name = strings[attributeNames[a]];
+        attributes.addAttribute("", name, name, "CDATA", strings[attributeValues[a]]);
+      }
+      String name = strings[names[i]];
+      contentHandler.startElement(strings[uris[i]], name, name, attributes);
+      if (textStarts[i] >= 0)
+        contentHandler.characters(text, textStarts[i], textLengths[i]);
+
+      if (depth == open.length)
+        open = Arrays.copyOf(open, 2 * depth);
+      open[depth++] = i;
+    }
+    while (depth > 0)
+      endElement(open[--depth], contentHandler);
+  }
+
+  private void endElement(int node, ContentHandler contentHandler) throws SAXException
+  {
+    String name = strings[names[node]];
+    contentHandler.endElement(strings[uris[node]], name, name);
+  }
+
+  /**
+   * Builds a W3C DOM equivalent to this document.
+   *
+   * @return Document
+   * @throws ParserConfigurationException if a DocumentBuilder cannot be created
+   */
+  public Document toDocument() throws ParserConfigurationException
+  {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document document = factory.newDocumentBuilder().newDocument();
+
+    Element[] elements = new Element[nodeCount];
+    for (int i = 0; i < nodeCount; i++)
+    {
+      String uri = strings[uris[i]];
+      Element element = document.createElementNS(uri.length() == 0 ? null : uri, strings[names[i]]);
+      for (int a = attributeStarts[i], limit = attributeStarts[i + 1]; a < limit; a++)
+        element.setAttribute(strings[attributeNames[a]], strings[attributeValues[a]]);
+      if (textStarts[i] >= 0)
+        element.appendChild(document.createTextNode(new String(text, textStarts[i], textLengths[i])));
+
+      if (parents[i] < 0)
+        document.appendChild(element);
+      else
+        elements[parents[i]].appendChild(element);
+      elements[i] = element;
+    }
+    return document;
+  }
+
+  private int[] select(int[] candidates, int node, String id)
+  {
+    if (node < 0)
+      return new int[0];
+
+    int from = Arrays.binarySearch(candidates, node);
+    if (from < 0)
+      from = -from - 1;
+    int to = Arrays.binarySearch(candidates, ends[node]);
+    if (to < 0)
+      to = -to - 1;
+
+    int[] result = new int[to - from];
+    int n = 0;
+    for (int i = from; i < to; i++)
+      if (id == null || id.equals(getAttribute(candidates[i], idAttribute)))
+        result[n++] = candidates[i];
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  private static int positionOf(String id, int prefixLength)
+  {
+    int length = id.length();
+    if (length <= prefixLength)
+      return -1;
+    int position = 0;
+    for (int i = prefixLength; i < length; i++)
+    {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9')
+        return -1;
+      position = 10 * position + c - '0';
+    }
+    return position;
+  }
+}
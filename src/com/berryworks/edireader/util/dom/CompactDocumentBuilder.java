@@ -0,0 +1,243 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.util.dom;
+
+import com.berryworks.edireader.DefaultXMLTags;
+import com.berryworks.edireader.XMLTags;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This implementation of a SAX ContentHandler builds a CompactDocument from the
+ * SAX events generated by EDIReader, in place of the W3C DOM built by DomBuildingSaxHandler.
+ * <p/>
+ * The node arrays grow by doubling as elements are started, the text of each element is
+ * appended to a single char array, and each name and attribute value is looked up in a
+ * dictionary so that repeated names and values, such as element IDs, are held only once.
+ */
+public class CompactDocumentBuilder extends DefaultHandler
+{
+  private final XMLTags xmlTags;
+  private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+  private final List<String> strings = new ArrayList<String>();
+  private int nodeCount;
+  private int[] names;
+  private int[] uris;
+  private int[] parents;
+  private int[] ends;
+  private int[] textStarts;
+  private int[] textLengths;
+  private int[] attributeStarts;
+  private int attributeCount;
+  private int[] attributeNames;
+  private int[] attributeValues;
+  private char[] text;
+  private int textLength;
+  private int segmentCount;
+  private int[] segments;
+  private int loopCount;
+  private int[] loops;
+  private int current;
+
+  public CompactDocumentBuilder()
+  {
+    this(new DefaultXMLTags());
+  }
+
+  /**
+   * Constructs a CompactDocumentBuilder for an EDIReader that has been
+   * configured with setXMLTags().
+   *
+   * @param xmlTags tags used by the EDIReader
+   */
+  public CompactDocumentBuilder(XMLTags xmlTags)
+  {
+    this.xmlTags = xmlTags;
+    reset();
+  }
+
+  @Override
+  public void startDocument() throws SAXException
+  {
+    reset();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+  {
+    String name = localName == null || localName.length() == 0 ? qName : localName;
+
+    if (nodeCount == names.length)
+    {
+      int capacity = 2 * nodeCount;
+      names = Arrays.copyOf(names, capacity);
+      uris = Arrays.copyOf(uris, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      textStarts = Arrays.copyOf(textStarts, capacity);
+      textLengths = Arrays.copyOf(textLengths, capacity);
+      attributeStarts = Arrays.copyOf(attributeStarts, capacity + 1);
+    }
+    int node = nodeCount++;
+    names[node] = intern(name);
+    uris[node] = intern(uri == null ? "" : uri);
+    parents[node] = current;
+    ends[node] = nodeCount;
+    textStarts[node] = -1;
+    textLengths[node] = 0;
+    attributeStarts[node] = attributeCount;
+
+    int n = attributes == null ? 0 : attributes.getLength();
+    if (attributeCount + n > attributeNames.length)
+    {
+      int capacity = Math.max(2 * attributeNames.length, attributeCount + n);
+      attributeNames = Arrays.copyOf(attributeNames, capacity);
+      attributeValues = Arrays.copyOf(attributeValues, capacity);
+    }
+    for (int i = 0; i < n; i++)
+    {
+      String attributeName = attributes.getLocalName(i);
+      if (attributeName == null || attributeName.length() == 0)
+        attributeName = attributes.getQName(i);
+      attributeNames[attributeCount] = intern(attributeName);
+      attributeValues[attributeCount++] = intern(attributes.getValue(i));
+    }
+    attributeStarts[nodeCount] = attributeCount;
+
+    if (name.equals(xmlTags.getSegTag()))
+    {
+      if (segmentCount == segments.length)
+        segments = Arrays.copyOf(segments, 2 * segmentCount);
+      segments[segmentCount++] = node;
+    }
+    else if (name.equals(xmlTags.getLoopTag()))
+    {
+      if (loopCount == loops.length)
+        loops = Arrays.copyOf(loops, 2 * loopCount);
+      loops[loopCount++] = node;
+    }
+
+    current = node;
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException
+  {
+    if (current < 0)
+      return;
+    ends[current] = nodeCount;
+    current = parents[current];
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException
+  {
+    if (current < 0 || length == 0)
+      return;
+
+    int existing = textLengths[current];
+    if (textLength + existing + length > text.length)
+      text = Arrays.copyOf(text, Math.max(2 * text.length, textLength + existing + length));
+
+    if (textStarts[current] < 0)
+      textStarts[current] = textLength;
+    else if (textStarts[current] + existing != textLength)
+    {
+      // Text of another node intervened, so move this node's text to the end
+      System.arraycopy(text, textStarts[current], text, textLength, existing);
+      textStarts[current] = textLength;
+      textLength += existing;
+    }
+    System.arraycopy(ch, start, text, textLength, length);
+    textLength += length;
+    textLengths[current] = existing + length;
+  }
+
+  /**
+   * Returns the CompactDocument built from the SAX events received since the last startDocument().
+   *
+   * @return CompactDocument
+   */
+  public CompactDocument getDocument()
+  {
+    return new CompactDocument(
+      strings.toArray(new String[strings.size()]),
+      nodeCount,
+      Arrays.copyOf(names, nodeCount),
+      Arrays.copyOf(uris, nodeCount),
+      Arrays.copyOf(parents, nodeCount),
+      Arrays.copyOf(ends, nodeCount),
+      Arrays.copyOf(textStarts, nodeCount),
+      Arrays.copyOf(textLengths, nodeCount),
+      Arrays.copyOf(attributeStarts, nodeCount + 1),
+      Arrays.copyOf(attributeNames, attributeCount),
+      Arrays.copyOf(attributeValues, attributeCount),
+      Arrays.copyOf(text, textLength),
+      Arrays.copyOf(segments, segmentCount),
+      Arrays.copyOf(loops, loopCount),
+      xmlTags.getIdAttribute(),
+      xmlTags.getSubElementTag(),
+      xmlTags.getSubElementSequence());
+  }
+
+  private int intern(String s)
+  {
+    Integer index = dictionary.get(s);
+    if (index == null)
+    {
+      index = strings.size();
+      dictionary.put(s, index);
+      strings.add(s);
+    }
+    return index;
+  }
+
+  private void reset()
+  {
+    dictionary.clear();
+    strings.clear();
+    nodeCount = 0;
+    names = new int[256];
+    uris = new int[256];
+    parents = new int[256];
+    ends = new int[256];
+    textStarts = new int[256];
+    textLengths = new int[256];
+    attributeStarts = new int[257];
+    attributeCount = 0;
+    attributeNames = new int[256];
+    attributeValues = new int[256];
+    text = new char[4096];
+    textLength = 0;
+    segmentCount = 0;
+    segments = new int[64];
+    loopCount = 0;
+    loops = new int[16];
+    current = -1;
+  }
+}
@@ -26,20 +26,63 @@ import org.w3c.dom.NodeList;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import java.util.HashMap;
 import java.util.ListIterator;
+import java.util.Map;
 
 
+/**
+ * The Elements selected by an XPath expression evaluated against a DOM.
+ * <p/>
+ * Neither an XPath nor a compiled XPathExpression is thread-safe, so each thread reuses
+ * its own XPath and compiles each expression once, instead of doing so for every XPathElements.
+ * For repeated extraction from EDI input without a DOM, see EDIPath.
+ */
 public class XPathElements extends AbstractElementList
 {
+  private static final int CACHE_LIMIT = 256;
+
+  private static final ThreadLocal<XPath> xPaths = new ThreadLocal<XPath>()
+  {
+    @Override
+    protected XPath initialValue()
+    {
+      return XPathFactory.newInstance().newXPath();
+    }
+  };
+
+  private static final ThreadLocal<Map<String, XPathExpression>> expressions =
+    new ThreadLocal<Map<String, XPathExpression>>()
+    {
+      @Override
+      protected Map<String, XPathExpression> initialValue()
+      {
+        return new HashMap<String, XPathExpression>();
+      }
+    };
 
-  protected final XPath xPath = XPathFactory.newInstance().newXPath();
+  protected final XPath xPath = xPaths.get();
   private NodeList nodeList;
 
   public XPathElements(Node node, String path) throws XPathExpressionException
   {
-    this.nodeList = (NodeList) xPath.evaluate(path, node, XPathConstants.NODESET);
+    this.nodeList = (NodeList) compile(path).evaluate(node, XPathConstants.NODESET);
+  }
+
+  private XPathExpression compile(String path) throws XPathExpressionException
+  {
+    Map<String, XPathExpression> cache = expressions.get();
+    XPathExpression expression = cache.get(path);
+    if (expression == null)
+    {
+      expression = xPath.compile(path);
+      if (cache.size() < CACHE_LIMIT)
+        cache.put(path, expression);
+    }
+    return expression;
   }
 
   @Override
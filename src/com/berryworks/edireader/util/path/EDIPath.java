@@ -0,0 +1,262 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.util.path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compiled path selecting values from EDI input, evaluated by an EDIPathEvaluator.
+ * <p/>
+ * A path selects either an element or sub-element of the segments with a given ID,
+ * optionally within given loops, or an attribute of an interchange, group or transaction.
+ * The steps of a path are separated by '/':
+ * <ul>
+ * <li><code>BEG/03</code> selects the third element of each BEG segment.</li>
+ * <li><code>N1/N3/01</code> selects the first element of each N3 segment whose innermost
+ * loop is an N1 loop. Any number of loop IDs may precede the segment ID, and each must match
+ * the loop at that level of nesting, counting outward from the segment. A <code>*</code> matches
+ * any loop ID, or any segment ID in place of one.</li>
+ * <li><code>/2000A/2010AA/NM1/03</code>, beginning with '/', requires the loop IDs to describe
+ * every loop enclosing the segment, so that a segment within no loop is matched by <code>/BEG/03</code>.</li>
+ * <li><code>N9/01/2</code> selects the second sub-element of each N901 composite element.
+ * An element that is not composite is treated as having a single sub-element, and a path
+ * without a sub-element step selects the first sub-element of a composite element.</li>
+ * <li><code>transaction/@DocType</code> selects an attribute of each transaction, and similarly
+ * of each interchange or group, using the names of those XML elements.</li>
+ * </ul>
+ * Element positions and sub-element sequence numbers have at most three digits, so that
+ * a numeric loop ID such as 2300 is never taken for one.
+ * Compiled paths are immutable and thread-safe. Paths compiled from the same expression are equal,
+ * and compile() also shares a single instance for each of the first 1024 distinct expressions it is given.
+ */
+public class EDIPath
+{
+  private static final int CACHE_LIMIT = 1024;
+  private static final ConcurrentMap<String, EDIPath> cache = new ConcurrentHashMap<String, EDIPath>();
+
+  private final String expression;
+  private final boolean anchored;
+  private final String[] loopIds;
+  private final String segmentId;
+  private final int position;
+  private final int sequence;
+  private final String envelopeTag;
+  private final String attribute;
+
+  private EDIPath(String expression, boolean anchored, String[] loopIds, String segmentId,
+                  int position, int sequence, String envelopeTag, String attribute)
+  {
+    this.expression = expression;
+    this.anchored = anchored;
+    this.loopIds = loopIds;
+    this.segmentId = segmentId;
+    this.position = position;
+    this.sequence = sequence;
+    this.envelopeTag = envelopeTag;
+    this.attribute = attribute;
+  }
+
+  /**
+   * Returns the compiled form of a path expression.
+   *
+   * @param expression path expression
+   * @return EDIPath
+   * @throws IllegalArgumentException if the expression is not a valid path
+   */
+  public static EDIPath compile(String expression)
+  {
+    EDIPath path = cache.get(expression);
+    if (path == null)
+    {
+      path = parse(expression);
+      if (cache.size() < CACHE_LIMIT)
+      {
+        EDIPath existing = cache.putIfAbsent(expression, path);
+        if (existing != null)
+          path = existing;
+      }
+    }
+    return path;
+  }
+
+  private static EDIPath parse(String expression)
+  {
+    String s = expression.trim();
+    boolean anchored = s.startsWith("/");
+    if (anchored)
+      s = s.substring(1);
+
+    String[] steps = s.split("/", -1);
+    for (String step : steps)
+      if (step.length() == 0)
+        throw invalid(expression, "empty step");
+
+    // An attribute of an interchange, group or transaction
+    if (steps[steps.length - 1].startsWith("@"))
+    {
+      if (steps.length != 2 || anchored || steps[1].length() == 1)
+        throw invalid(expression, "an attribute must follow a single interchange, group or transaction step");
+      return new EDIPath(expression, false, null, null, 0, 0, steps[0], steps[1].substring(1));
+    }
+
+    // Loops, a segment, an element and perhaps a sub-element
+    int n = steps.length;
+    int sequence = 0;
+    int position;
+    if (n >= 3 && isNumber(steps[n - 1]) && isNumber(steps[n - 2]))
+    {
+      sequence = Integer.parseInt(steps[--n]);
+      position = Integer.parseInt(steps[--n]);
+    }
+    else if (n >= 2 && isNumber(steps[n - 1]))
+      position = Integer.parseInt(steps[--n]);
+    else
+      throw invalid(expression, "the last step must be an element position or an attribute");
+    if (position < 1 || sequence < 0)
+      throw invalid(expression, "positions are numbered from 1");
+
+    String segmentId = wildcard(steps[--n]);
+    List<String> loopIds = new ArrayList<String>();
+    for (int i = 0; i < n; i++)
+      loopIds.add(wildcard(steps[i]));
+    return new EDIPath(expression, anchored, loopIds.toArray(new String[loopIds.size()]), segmentId,
+      position, sequence, null, null);
+  }
+
+  private static String wildcard(String step)
+  {
+    return "*".equals(step) ? null : step;
+  }
+
+  private static boolean isNumber(String step)
+  {
+    for (int i = 0; i < step.length(); i++)
+      if (!Character.isDigit(step.charAt(i)))
+        return false;
+    return step.length() > 0 && step.length() <= 3;
+  }
+
+  private static IllegalArgumentException invalid(String expression, String reason)
+  {
+    return new IllegalArgumentException("Invalid EDI path " + expression + ": " + reason);
+  }
+
+  public String getExpression()
+  {
+    return expression;
+  }
+
+  /**
+   * Returns the segment ID selected by this path, or null if any segment ID matches or
+   * this path selects an attribute.
+   *
+   * @return segment ID
+   */
+  public String getSegmentId()
+  {
+    return segmentId;
+  }
+
+  public int getPosition()
+  {
+    return position;
+  }
+
+  /**
+   * Returns the sub-element sequence number selected by this path, or 0 if none was given.
+   *
+   * @return sequence number
+   */
+  public int getSequence()
+  {
+    return sequence;
+  }
+
+  public boolean isAttributePath()
+  {
+    return attribute != null;
+  }
+
+  public String getEnvelopeTag()
+  {
+    return envelopeTag;
+  }
+
+  public String getAttribute()
+  {
+    return attribute;
+  }
+
+  /**
+   * Tests whether the loops enclosing a segment satisfy this path.
+   *
+   * @param loops IDs of the enclosing loops, outermost first
+   * @param depth number of enclosing loops
+   * @return true if they satisfy this path
+   */
+  boolean matchesLoops(String[] loops, int depth)
+  {
+    int k = loopIds.length;
+    if (anchored ? k != depth : k > depth)
+      return false;
+    for (int i = 0, j = depth - k; i < k; i++, j++)
+      if (loopIds[i] != null && !loopIds[i].equals(loops[j]))
+        return false;
+    return true;
+  }
+
+  /**
+   * Tests whether this path selects the element, or sub-element of a composite element,
+   * at a given position.
+   *
+   * @param elementPosition position of the element within its segment
+   * @param subElement      sequence of the sub-element, or 0 for an element that is not composite
+   * @return true if selected
+   */
+  boolean selects(int elementPosition, int subElement)
+  {
+    if (elementPosition != position)
+      return false;
+    int wanted = sequence == 0 ? 1 : sequence;
+    return subElement == 0 ? wanted == 1 : wanted == subElement;
+  }
+
+  @Override
+  public boolean equals(Object target)
+  {
+    return target instanceof EDIPath && expression.equals(((EDIPath) target).expression);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return expression.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return expression;
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.util.path;
+
+import com.berryworks.edireader.DefaultXMLTags;
+import com.berryworks.edireader.EDIReader;
+import com.berryworks.edireader.XMLTags;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This implementation of a SAX ContentHandler evaluates any number of EDIPaths
+ * in a single pass over the SAX events generated by EDIReader, collecting the values
+ * each one selects, in document order, without building a DOM.
+ * <p/>
+ * The paths are indexed by segment ID, so that the work done at the start of a segment
+ * depends only on the paths that name that segment, and text is gathered only for the
+ * elements that some path selects. An EDIPathEvaluator may be used for one document after
+ * another; the values collected are discarded when the next document starts. It can also
+ * be given the events of a CompactDocument by its replay() method.
+ * A subclass may override matched() to act on each value as it is found instead of collecting it.
+ */
+public class EDIPathEvaluator extends DefaultHandler
+{
+  private static final int[] NONE = new int[0];
+
+  private final XMLTags xmlTags;
+  private final List<EDIPath> paths = new ArrayList<EDIPath>();
+  private final Map<EDIPath, Integer> indexes = new HashMap<EDIPath, Integer>();
+  private final List<List<String>> values = new ArrayList<List<String>>();
+  private Map<String, int[]> bySegment;
+  private int[] anySegment;
+  private Map<String, int[]> byEnvelope;
+  private String[] loops = new String[16];
+  private int loopDepth;
+  private int[] active = new int[16];
+  private int activeCount;
+  private String segmentId;
+  private int elementPosition;
+  private boolean composite;
+  private int subElement;
+  private boolean capturing;
+  private final StringBuilder capture = new StringBuilder();
+
+  public EDIPathEvaluator()
+  {
+    this(new DefaultXMLTags());
+  }
+
+  /**
+   * Constructs an EDIPathEvaluator for an EDIReader that has been
+   * configured with setXMLTags().
+   *
+   * @param xmlTags tags used by the EDIReader
+   */
+  public EDIPathEvaluator(XMLTags xmlTags)
+  {
+    this.xmlTags = xmlTags;
+  }
+
+  /**
+   * Adds a path to be evaluated, returning its index among the paths of this evaluator.
+   * Adding a path that has already been added returns the same index.
+   *
+   * @param path compiled path
+   * @return index of the path
+   */
+  public int add(EDIPath path)
+  {
+    Integer index = indexes.get(path);
+    if (index == null)
+    {
+      index = paths.size();
+      paths.add(path);
+      indexes.put(path, index);
+      values.add(new ArrayList<String>());
+      bySegment = null;
+    }
+    return index;
+  }
+
+  /**
+   * Compiles and adds a path to be evaluated.
+   *
+   * @param expression path expression
+   * @return index of the path
+   * @throws IllegalArgumentException if the expression is not a valid path
+   */
+  public int add(String expression)
+  {
+    return add(EDIPath.compile(expression));
+  }
+
+  public List<EDIPath> getPaths()
+  {
+    return Collections.unmodifiableList(paths);
+  }
+
+  /**
+   * Parses EDI input, which may contain several interchanges, evaluating the paths over it.
+   *
+   * @param inputSource EDI input
+   * @throws IOException  for problem reading the EDI input
+   * @throws SAXException if invalid EDI is detected
+   */
+  public void evaluate(InputSource inputSource) throws IOException, SAXException
+  {
+    EDIReader ediReader = new EDIReader();
+    ediReader.setXMLTags(xmlTags);
+    ediReader.setContentHandler(this);
+    ediReader.parse(inputSource);
+  }
+
+  /**
+   * Returns the values selected by a path in the current or most recent document.
+   *
+   * @param index index of the path
+   * @return values in document order
+   */
+  public List<String> getValues(int index)
+  {
+    return values.get(index);
+  }
+
+  /**
+   * Returns the values selected by a path in the current or most recent document.
+   *
+   * @param path a path that has been added
+   * @return values in document order
+   */
+  public List<String> getValues(EDIPath path)
+  {
+    Integer index = indexes.get(path);
+    if (index == null)
+      throw new IllegalArgumentException("EDI path " + path + " has not been added");
+    return values.get(index);
+  }
+
+  /**
+   * Returns the first value selected by a path in the current or most recent document.
+   *
+   * @param path a path that has been added
+   * @return first value, or null if the path selected nothing
+   */
+  public String getValue(EDIPath path)
+  {
+    List<String> list = getValues(path);
+    return list.isEmpty() ? null : list.get(0);
+  }
+
+  /**
+   * Called for each value selected by a path. By default, the value is collected.
+   *
+   * @param index index of the path
+   * @param value selected value
+   * @throws SAXException to abandon parsing
+   */
+  protected void matched(int index, String value) throws SAXException
+  {
+    values.get(index).add(value);
+  }
+
+  @Override
+  public void startDocument() throws SAXException
+  {
+    if (bySegment == null)
+      buildIndex();
+    for (List<String> list : values)
+      list.clear();
+    loopDepth = 0;
+    activeCount = 0;
+    capturing = false;
+    capture.setLength(0);
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+  {
+    if (bySegment == null)
+      buildIndex();
+    String name = localName == null || localName.length() == 0 ? qName : localName;
+
+    if (name.equals(xmlTags.getElementTag()))
+    {
+      if (activeCount == 0)
+        return;
+      String id = attributes.getValue(xmlTags.getIdAttribute());
+      elementPosition = id == null ? -1 : positionOf(id, segmentId == null ? 0 : segmentId.length());
+      composite = "yes".equals(attributes.getValue(xmlTags.getCompositeIndicator()));
+      subElement = 0;
+      capturing = !composite && isSelected();
+    }
+    else if (name.equals(xmlTags.getSubElementTag()))
+    {
+      if (activeCount == 0 || !composite)
+        return;
+      subElement = positionOf(attributes.getValue(xmlTags.getSubElementSequence()), 0);
+      capturing = isSelected();
+    }
+    else if (name.equals(xmlTags.getSegTag()))
+    {
+      segmentId = attributes.getValue(xmlTags.getIdAttribute());
+      activeCount = 0;
+      int[] candidates = segmentId == null ? null : bySegment.get(segmentId);
+      if (candidates != null)
+        activate(candidates);
+      activate(anySegment);
+    }
+    else if (name.equals(xmlTags.getLoopTag()))
+    {
+      if (loopDepth == loops.length)
+        loops = Arrays.copyOf(loops, 2 * loopDepth);
+      loops[loopDepth++] = attributes.getValue(xmlTags.getIdAttribute());
+    }
+    else
+    {
+      int[] candidates = byEnvelope.get(name);
+      if (candidates == null)
+        return;
+      for (int index : candidates)
+      {
+        String value = attributes.getValue(paths.get(index).getAttribute());
+        if (value != null)
+          matched(index, value);
+      }
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException
+  {
+    if (capturing)
+    {
+      String value = capture.toString();
+      capture.setLength(0);
+      capturing = false;
+      for (int i = 0; i < activeCount; i++)
+        if (paths.get(active[i]).selects(elementPosition, subElement))
+          matched(active[i], value);
+      return;
+    }
+
+    String name = localName == null || localName.length() == 0 ? qName : localName;
+    if (name.equals(xmlTags.getSegTag()))
+      activeCount = 0;
+    else if (name.equals(xmlTags.getLoopTag()) && loopDepth > 0)
+      loops[--loopDepth] = null;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException
+  {
+    if (capturing)
+      capture.append(ch, start, length);
+  }
+
+  private void activate(int[] candidates)
+  {
+    for (int index : candidates)
+    {
+      if (!paths.get(index).matchesLoops(loops, loopDepth))
+        continue;
+      if (activeCount == active.length)
+        active = Arrays.copyOf(active, 2 * activeCount);
+      active[activeCount++] = index;
+    }
+  }
+
+  private boolean isSelected()
+  {
+    for (int i = 0; i < activeCount; i++)
+      if (paths.get(active[i]).selects(elementPosition, subElement))
+        return true;
+    return false;
+  }
+
+  private void buildIndex()
+  {
+    Map<String, List<Integer>> segmentLists = new HashMap<String, List<Integer>>();
+    Map<String, List<Integer>> envelopeLists = new HashMap<String, List<Integer>>();
+    List<Integer> anyList = new ArrayList<Integer>();
+    for (int i = 0; i < paths.size(); i++)
+    {
+      EDIPath path = paths.get(i);
+      if (path.isAttributePath())
+        listFor(envelopeLists, tagFor(path.getEnvelopeTag())).add(i);
+      else if (path.getSegmentId() == null)
+        anyList.add(i);
+      else
+        listFor(segmentLists, path.getSegmentId()).add(i);
+    }
+
+    bySegment = toArrays(segmentLists);
+    byEnvelope = toArrays(envelopeLists);
+    anySegment = anyList.isEmpty() ? NONE : toArray(anyList);
+  }
+
+  /**
+   * Maps the interchange, group and transaction steps of a path, which use the default
+   * tags, onto the tags actually in use.
+   */
+  private String tagFor(String step)
+  {
+    XMLTags defaults = DefaultXMLTags.getInstance();
+    if (step.equals(defaults.getInterchangeTag()))
+      return xmlTags.getInterchangeTag();
+    if (step.equals(defaults.getGroupTag()))
+      return xmlTags.getGroupTag();
+    if (step.equals(defaults.getDocumentTag()))
+      return xmlTags.getDocumentTag();
+    return step;
+  }
+
+  private static List<Integer> listFor(Map<String, List<Integer>> lists, String key)
+  {
+    List<Integer> list = lists.get(key);
+    if (list == null)
+    {
+      list = new ArrayList<Integer>();
+      lists.put(key, list);
+    }
+    return list;
+  }
+
+  private static Map<String, int[]> toArrays(Map<String, List<Integer>> lists)
+  {
+    Map<String, int[]> result = new HashMap<String, int[]>();
+    for (Map.Entry<String, List<Integer>> entry : lists.entrySet())
+      result.put(entry.getKey(), toArray(entry.getValue()));
+    return result;
+  }
+
+  private static int[] toArray(List<Integer> list)
+  {
+    int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = list.get(i);
+    return result;
+  }
+
+  private static int positionOf(String id, int prefixLength)
+  {
+    if (id == null)
+      return -1;
+    int length = id.length();
+    if (length <= prefixLength)
+      return -1;
+    int position = 0;
+    for (int i = prefixLength; i < length; i++)
+    {
+      char c = id.charAt(i);
+      if (c < '0' || c > '9')
+        return -1;
+      position = 10 * position + c - '0';
+    }
+    return position;
+  }
+}
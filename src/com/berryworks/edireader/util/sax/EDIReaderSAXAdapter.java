@@ -63,7 +63,7 @@ public class EDIReaderSAXAdapter extends DefaultHandler
   public void startElement(String namespace, String localName, String qName,
                            Attributes atts) throws SAXException
   {
-    int charCount = getCharCount(localName, atts);
+    long charCount = getCharOffset(localName, atts);
     int segmentCharCount = getSegmentCount(localName, atts);
 
     if (localName.startsWith(xmlTags.getInterchangeTag()))
@@ -130,6 +130,19 @@ public class EDIReaderSAXAdapter extends DefaultHandler
     return 0;
   }
 
+  /**
+   * Returns the char offset to be passed to the hooks for the element being started or ended.
+   * By default, this is the value of getCharCount().
+   */
+  protected long getCharOffset(String localName, Attributes attributes)
+  {
+    return getCharCount(localName, attributes);
+  }
+
+  /**
+   * @deprecated override getCharOffset(), which is not limited to the range of an int
+   */
+  @Deprecated
   protected int getCharCount(String localName, Attributes attributes)
   {
     return 0;
@@ -139,7 +152,7 @@ public class EDIReaderSAXAdapter extends DefaultHandler
   public void endElement(String namespace, String localName, String qName)
     throws SAXException
   {
-    int charCount = getCharCount(localName, null);
+    long charCount = getCharOffset(localName, null);
     int segmentCharCount = getSegmentCount(localName, null);
 
     if (localName.startsWith(xmlTags.getInterchangeTag()))
@@ -189,6 +202,15 @@ public class EDIReaderSAXAdapter extends DefaultHandler
     if (elementString != null) elementString += s;
   }
 
+  /**
+   * Tests whether a char offset can be passed to the deprecated hooks taking an int,
+   * which are called by default from the hooks taking a long only if it can.
+   */
+  private static boolean isIntRange(long charCount)
+  {
+    return charCount <= Integer.MAX_VALUE;
+  }
+
   public void preface()
   {
   }
@@ -197,18 +219,58 @@ public class EDIReaderSAXAdapter extends DefaultHandler
   {
   }
 
+  protected void beginInterchange(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      beginInterchange((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override beginInterchange(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void beginInterchange(int charCount, int segmentCharCount)
   {
   }
 
+  protected void endInterchange(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endInterchange((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endInterchange(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endInterchange(int charCount, int segmentCharCount)
   {
   }
 
+  protected void beginExplicitGroup(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      beginExplicitGroup((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override beginExplicitGroup(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void beginExplicitGroup(int charCount, int segmentCharCount)
   {
   }
 
+  protected void endExplicitGroup(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endExplicitGroup((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endExplicitGroup(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endExplicitGroup(int charCount, int segmentCharCount)
   {
   }
@@ -234,11 +296,33 @@ public class EDIReaderSAXAdapter extends DefaultHandler
   {
   }
 
+  protected void beginDocument(long charCount, int segmentCharCount,
+                               Attributes attributes)
+  {
+    if (isIntRange(charCount))
+      beginDocument((int) charCount, segmentCharCount, attributes);
+  }
+
+  /**
+   * @deprecated override beginDocument(long, int, Attributes), which is not called with a char offset
+   * beyond the range of an int
+   */
+  @Deprecated
   protected void beginDocument(int charCount, int segmentCharCount,
                                Attributes attributes)
   {
   }
 
+  protected void endDocument(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endDocument((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endDocument(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endDocument(int charCount, int segmentCharCount)
   {
   }
@@ -247,6 +331,16 @@ public class EDIReaderSAXAdapter extends DefaultHandler
   {
   }
 
+  protected void endSegment(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endSegment((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endSegment(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endSegment(int charCount, int segmentCharCount)
   {
   }
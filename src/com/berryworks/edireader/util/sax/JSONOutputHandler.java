@@ -0,0 +1,597 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader.util.sax;
+
+import com.berryworks.edireader.DefaultXMLTags;
+import com.berryworks.edireader.XMLTags;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This implementation of a SAX ContentHandler writes the structure generated by EDIReader
+ * as compact JSON, directly to a Writer or OutputStream, as the EDI input is parsed.
+ * <p/>
+ * The root is an object with an array of interchanges. Each interchange, group, and transaction
+ * is an object whose members are its XML attributes, followed by an array of the groups,
+ * transactions, or segments within it. A sender or receiver is an object with the attributes of
+ * its address. A loop is an object with its id as the member "loop" and an array of the segments
+ * and loops within it.
+ * <p/>
+ * By default, a segment is an object with its id as the member "Id" and each of its elements as
+ * a member named by the element id, such as "BEG01". With setSegmentsAsArrays(true), a segment is
+ * instead an array of its id followed by its elements by position, with null for an omitted element.
+ * A repeated element, separated by the repetition separator, is an array of its values.
+ * A composite element is an object with each of its sub-elements as a member named by its sequence
+ * number, or with setCompositesAsArrays(true), an array of its sub-elements by position.
+ * <p/>
+ * Only the element being written is held in memory, so memory use does not depend on the size
+ * of a transaction.
+ */
+public class JSONOutputHandler extends DefaultHandler
+{
+  private static final int BUFFER_SIZE = 8192;
+
+  private enum Kind
+  {
+    ROOT, INTERCHANGE, PARTY, ADDRESS, GROUP, TRANSACTION, LOOP, SEGMENT, ELEMENT, SUBELEMENT, PACKAGE, OTHER
+  }
+
+  private final Writer writer;
+  private final XMLTags xmlTags;
+  private final Map<String, Kind> kinds = new HashMap<String, Kind>();
+  private final StringBuilder out = new StringBuilder(2 * BUFFER_SIZE);
+  private final StringBuilder value = new StringBuilder();
+  private char[] chars = new char[2 * BUFFER_SIZE];
+  private final List<Frame> frames = new ArrayList<Frame>();
+  private int depth;
+
+  private boolean segmentsAsArrays;
+  private boolean compositesAsArrays;
+
+  /**
+   * Constructs a JSONOutputHandler writing to a Writer.
+   *
+   * @param writer destination of the JSON text
+   */
+  public JSONOutputHandler(Writer writer)
+  {
+    this(writer, new DefaultXMLTags());
+  }
+
+  /**
+   * Constructs a JSONOutputHandler writing to a Writer, for an EDIReader
+   * configured with setXMLTags().
+   *
+   * @param writer  destination of the JSON text
+   * @param xmlTags tags used by the EDIReader
+   */
+  public JSONOutputHandler(Writer writer, XMLTags xmlTags)
+  {
+    this.writer = writer;
+    this.xmlTags = xmlTags;
+    kinds.put(xmlTags.getRootTag(), Kind.ROOT);
+    kinds.put(xmlTags.getInterchangeTag(), Kind.INTERCHANGE);
+    kinds.put(xmlTags.getSenderTag(), Kind.PARTY);
+    kinds.put(xmlTags.getReceiverTag(), Kind.PARTY);
+    kinds.put(xmlTags.getAddressTag(), Kind.ADDRESS);
+    kinds.put(xmlTags.getGroupTag(), Kind.GROUP);
+    kinds.put(xmlTags.getDocumentTag(), Kind.TRANSACTION);
+    kinds.put(xmlTags.getLoopTag(), Kind.LOOP);
+    kinds.put(xmlTags.getSegTag(), Kind.SEGMENT);
+    kinds.put(xmlTags.getElementTag(), Kind.ELEMENT);
+    kinds.put(xmlTags.getSubElementTag(), Kind.SUBELEMENT);
+    kinds.put(xmlTags.getPackageTag(), Kind.PACKAGE);
+  }
+
+  /**
+   * Constructs a JSONOutputHandler writing UTF-8 encoded JSON to an OutputStream.
+   *
+   * @param outputStream destination of the JSON
+   * @throws IOException if UTF-8 is not supported
+   */
+  public JSONOutputHandler(OutputStream outputStream) throws IOException
+  {
+    this(new OutputStreamWriter(outputStream, "UTF-8"));
+  }
+
+  /**
+   * Sets whether each segment is written as an array of its elements by position,
+   * instead of as an object with a member for each element.
+   *
+   * @param segmentsAsArrays true for arrays
+   */
+  public void setSegmentsAsArrays(boolean segmentsAsArrays)
+  {
+    this.segmentsAsArrays = segmentsAsArrays;
+  }
+
+  public boolean isSegmentsAsArrays()
+  {
+    return segmentsAsArrays;
+  }
+
+  /**
+   * Sets whether each composite element is written as an array of its sub-elements by position,
+   * instead of as an object with a member for each sub-element.
+   *
+   * @param compositesAsArrays true for arrays
+   */
+  public void setCompositesAsArrays(boolean compositesAsArrays)
+  {
+    this.compositesAsArrays = compositesAsArrays;
+  }
+
+  public boolean isCompositesAsArrays()
+  {
+    return compositesAsArrays;
+  }
+
+  @Override
+  public void startDocument()
+  {
+    depth = 0;
+    out.setLength(0);
+    value.setLength(0);
+  }
+
+  @Override
+  public void endDocument() throws SAXException
+  {
+    flush();
+    try
+    {
+      writer.flush();
+    } catch (IOException e)
+    {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes)
+    throws SAXException
+  {
+    Kind kind = kinds.get(qName);
+    if (kind == null)
+      kind = Kind.OTHER;
+    Frame parent = depth == 0 ? null : frames.get(depth - 1);
+    Frame frame = push(kind);
+
+    if (parent == null)
+    {
+      out.append('{');
+      if (kind != Kind.ROOT)
+        writeAttributes(frame, attributes);
+      return;
+    }
+
+    switch (parent.kind)
+    {
+      case SEGMENT:
+        startSegmentElement(parent, frame, attributes);
+        return;
+      case ELEMENT:
+        startSubElement(parent, attributes);
+        return;
+      case PARTY:
+        parent.count++;
+        out.append('{');
+        writeAttributes(frame, attributes);
+        return;
+    }
+
+    closeText(parent);
+    if (kind == Kind.PARTY)
+    {
+      closeArray(parent);
+      writeName(parent, qName);
+      return;
+    }
+
+    openArray(parent, arrayName(kind, qName));
+    switch (kind)
+    {
+      case SEGMENT:
+        frame.segmentId = attributes.getValue(xmlTags.getIdAttribute());
+        if (segmentsAsArrays)
+        {
+          out.append('[');
+          writeString(frame.segmentId);
+        }
+        else
+        {
+          out.append('{');
+          writeAttributes(frame, attributes);
+        }
+        break;
+      case LOOP:
+        out.append("{\"loop\":");
+        writeString(attributes.getValue(xmlTags.getIdAttribute()));
+        frame.count = 1;
+        break;
+      case PACKAGE:
+        out.append("{\"package\":\"");
+        break;
+      default:
+        out.append('{');
+        writeAttributes(frame, attributes);
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException
+  {
+    Frame frame = frames.get(--depth);
+    switch (frame.kind)
+    {
+      case PARTY:
+        if (frame.count == 0)
+          out.append("null");
+        break;
+      case ADDRESS:
+        out.append('}');
+        break;
+      case SEGMENT:
+        flushPendingElement(frame);
+        out.append(segmentsAsArrays ? ']' : '}');
+        break;
+      case ELEMENT:
+        if (frame.composite)
+          value.append(compositesAsArrays ? ']' : '}');
+        else
+          value.append('"');
+        break;
+      case SUBELEMENT:
+        value.append('"');
+        break;
+      case PACKAGE:
+        out.append("\"}");
+        break;
+      default:
+        closeText(frame);
+        closeArray(frame);
+        out.append('}');
+    }
+    if (out.length() >= BUFFER_SIZE)
+      flush();
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException
+  {
+    if (depth == 0)
+      return;
+    Frame frame = frames.get(depth - 1);
+    switch (frame.kind)
+    {
+      case ELEMENT:
+        if (!frame.composite)
+          escape(ch, start, length, value);
+        break;
+      case SUBELEMENT:
+        escape(ch, start, length, value);
+        break;
+      case PACKAGE:
+        escape(ch, start, length, out);
+        break;
+      case OTHER:
+        if (!frame.textOpen)
+        {
+          closeArray(frame);
+          writeName(frame, "text");
+          out.append('"');
+          frame.textOpen = true;
+        }
+        escape(ch, start, length, out);
+        break;
+    }
+    if (out.length() >= BUFFER_SIZE)
+      flush();
+  }
+
+  private Frame push(Kind kind)
+  {
+    Frame frame;
+    if (depth < frames.size())
+      frame = frames.get(depth);
+    else
+    {
+      frame = new Frame();
+      frames.add(frame);
+    }
+    depth++;
+    frame.reset(kind);
+    return frame;
+  }
+
+  /**
+   * Begins an element of a segment. The value of the previous element is still pending,
+   * since it becomes an array if this element repeats it.
+   */
+  private void startSegmentElement(Frame segment, Frame frame, Attributes attributes)
+  {
+    String id = attributes.getValue(xmlTags.getIdAttribute());
+    if (id != null && id.equals(segment.pendingId))
+    {
+      if (!segment.pendingRepeated)
+      {
+        value.insert(0, '[');
+        segment.pendingRepeated = true;
+      }
+      value.append(',');
+    }
+    else
+    {
+      flushPendingElement(segment);
+      segment.pendingId = id;
+    }
+
+    frame.composite = "yes".equals(attributes.getValue(xmlTags.getCompositeIndicator()));
+    if (frame.composite)
+      value.append(compositesAsArrays ? '[' : '{');
+    else
+      value.append('"');
+  }
+
+  private void startSubElement(Frame element, Attributes attributes)
+  {
+    int sequence = parsePosition(attributes.getValue(xmlTags.getSubElementSequence()), element.count + 1);
+    if (compositesAsArrays)
+    {
+      for (; element.count < sequence - 1; element.count++)
+        value.append(element.count == 0 ? "null" : ",null");
+      if (element.count > 0)
+        value.append(',');
+      value.append('"');
+      element.count = sequence;
+    }
+    else
+    {
+      if (element.count++ > 0)
+        value.append(',');
+      value.append('"').append(sequence).append("\":\"");
+    }
+  }
+
+  private void flushPendingElement(Frame segment)
+  {
+    String id = segment.pendingId;
+    if (id == null && value.length() == 0)
+      return;
+
+    if (segmentsAsArrays)
+    {
+      int position = segment.count + 1;
+      String segmentId = segment.segmentId;
+      if (id != null && segmentId != null && id.startsWith(segmentId))
+        position = parsePosition(id.substring(segmentId.length()), position);
+      for (; segment.count < position - 1; segment.count++)
+        out.append(",null");
+      out.append(',');
+      segment.count = position;
+    }
+    else
+    {
+      writeName(segment, id);
+    }
+    out.append(value);
+    if (segment.pendingRepeated)
+      out.append(']');
+
+    value.setLength(0);
+    segment.pendingId = null;
+    segment.pendingRepeated = false;
+  }
+
+  private static int parsePosition(String s, int defaultPosition)
+  {
+    try
+    {
+      return Integer.parseInt(s);
+    } catch (NumberFormatException e)
+    {
+      return defaultPosition;
+    }
+  }
+
+  private String arrayName(Kind kind, String tag)
+  {
+    switch (kind)
+    {
+      case INTERCHANGE:
+        return "interchanges";
+      case GROUP:
+        return "groups";
+      case TRANSACTION:
+        return "transactions";
+      case LOOP:
+      case SEGMENT:
+      case PACKAGE:
+        return "segments";
+      default:
+        return tag;
+    }
+  }
+
+  private void openArray(Frame frame, String name)
+  {
+    if (name.equals(frame.arrayName))
+    {
+      out.append(',');
+      return;
+    }
+    closeArray(frame);
+    writeName(frame, name);
+    out.append('[');
+    frame.arrayName = name;
+  }
+
+  private void closeArray(Frame frame)
+  {
+    if (frame.arrayName != null)
+    {
+      out.append(']');
+      frame.arrayName = null;
+    }
+  }
+
+  private void closeText(Frame frame)
+  {
+    if (frame.textOpen)
+    {
+      out.append('"');
+      frame.textOpen = false;
+    }
+  }
+
+  private void writeName(Frame frame, String name)
+  {
+    if (frame.count++ > 0)
+      out.append(',');
+    writeString(name);
+    out.append(':');
+  }
+
+  private void writeAttributes(Frame frame, Attributes attributes)
+  {
+    for (int i = 0, n = attributes.getLength(); i < n; i++)
+    {
+      writeName(frame, attributes.getQName(i));
+      writeString(attributes.getValue(i));
+    }
+  }
+
+  private void writeString(String s)
+  {
+    out.append('"');
+    for (int i = 0, n = s.length(); i < n; i++)
+      escape(s.charAt(i), out);
+    out.append('"');
+  }
+
+  private static void escape(char[] ch, int start, int length, StringBuilder sb)
+  {
+    int run = start;
+    int end = start + length;
+    for (int i = start; i < end; i++)
+    {
+      char c = ch[i];
+      if (c < ' ' || c == '"' || c == '\\')
+      {
+        sb.append(ch, run, i - run);
+        escape(c, sb);
+        run = i + 1;
+      }
+    }
+    sb.append(ch, run, end - run);
+  }
+
+  private static void escape(char c, StringBuilder sb)
+  {
+    switch (c)
+    {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (c < ' ')
+        {
+          sb.append("\\u00");
+          sb.append(Character.forDigit(c >> 4, 16));
+          sb.append(Character.forDigit(c & 0xF, 16));
+        }
+        else
+          sb.append(c);
+    }
+  }
+
+  private void flush() throws SAXException
+  {
+    int n = out.length();
+    if (n == 0)
+      return;
+    if (chars.length < n)
+      chars = new char[2 * n];
+    out.getChars(0, n, chars, 0);
+    out.setLength(0);
+    try
+    {
+      writer.write(chars, 0, n);
+    } catch (IOException e)
+    {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * The state of one element that has been started and not yet ended.
+   */
+  private static class Frame
+  {
+    Kind kind;
+
+    /**
+     * Number of members written to an object, or of items written to an array.
+     */
+    int count;
+    String arrayName;
+    boolean textOpen;
+    boolean composite;
+    String segmentId;
+    String pendingId;
+    boolean pendingRepeated;
+
+    void reset(Kind kind)
+    {
+      this.kind = kind;
+      count = 0;
+      arrayName = null;
+      textOpen = false;
+      composite = false;
+      segmentId = null;
+      pendingId = null;
+      pendingRepeated = false;
+    }
+  }
+}
@@ -63,7 +63,7 @@ public class SAXAdapter extends DefaultHandler
   public void startElement(String namespace, String localName, String qName,
                            Attributes atts) throws SAXException
   {
-    int charCount = getCharCount();
+    long charCount = getCharOffset();
     int segmentCharCount = getSegmentCount();
 
     if (localName.startsWith(xmlTags.getInterchangeTag()))
@@ -131,6 +131,19 @@ public class SAXAdapter extends DefaultHandler
     return 0;
   }
 
+  /**
+   * Returns the char offset to be passed to the hooks for the element being started or ended.
+   * By default, this is the value of getCharCount().
+   */
+  protected long getCharOffset()
+  {
+    return getCharCount();
+  }
+
+  /**
+   * @deprecated override getCharOffset(), which is not limited to the range of an int
+   */
+  @Deprecated
   protected int getCharCount()
   {
     return 0;
@@ -140,7 +153,7 @@ public class SAXAdapter extends DefaultHandler
   public void endElement(String namespace, String localName, String qName)
     throws SAXException
   {
-    int charCount = getCharCount();
+    long charCount = getCharOffset();
     int segmentCharCount = getSegmentCount();
 
     if (localName.startsWith(xmlTags.getInterchangeTag()))
@@ -190,6 +203,15 @@ public class SAXAdapter extends DefaultHandler
     if (elementString != null) elementString += s;
   }
 
+  /**
+   * Tests whether a char offset can be passed to the deprecated hooks taking an int,
+   * which are called by default from the hooks taking a long only if it can.
+   */
+  private static boolean isIntRange(long charCount)
+  {
+    return charCount <= Integer.MAX_VALUE;
+  }
+
   public void preface()
   {
   }
@@ -198,18 +220,58 @@ public class SAXAdapter extends DefaultHandler
   {
   }
 
+  protected void beginInterchange(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      beginInterchange((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override beginInterchange(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void beginInterchange(int charCount, int segmentCharCount)
   {
   }
 
+  protected void endInterchange(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endInterchange((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endInterchange(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endInterchange(int charCount, int segmentCharCount)
   {
   }
 
+  protected void beginExplicitGroup(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      beginExplicitGroup((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override beginExplicitGroup(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void beginExplicitGroup(int charCount, int segmentCharCount)
   {
   }
 
+  protected void endExplicitGroup(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endExplicitGroup((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endExplicitGroup(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endExplicitGroup(int charCount, int segmentCharCount)
   {
   }
@@ -235,11 +297,33 @@ public class SAXAdapter extends DefaultHandler
   {
   }
 
+  protected void beginDocument(long charCount, int segmentCharCount,
+                               String title)
+  {
+    if (isIntRange(charCount))
+      beginDocument((int) charCount, segmentCharCount, title);
+  }
+
+  /**
+   * @deprecated override beginDocument(long, int, String), which is not called with a char offset
+   * beyond the range of an int
+   */
+  @Deprecated
   protected void beginDocument(int charCount, int segmentCharCount,
                                String title)
   {
   }
 
+  protected void endDocument(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endDocument((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endDocument(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endDocument(int charCount, int segmentCharCount)
   {
   }
@@ -248,6 +332,16 @@ public class SAXAdapter extends DefaultHandler
   {
   }
 
+  protected void endSegment(long charCount, int segmentCharCount)
+  {
+    if (isIntRange(charCount))
+      endSegment((int) charCount, segmentCharCount);
+  }
+
+  /**
+   * @deprecated override endSegment(long, int), which is not called with a char offset beyond the range of an int
+   */
+  @Deprecated
   protected void endSegment(int charCount, int segmentCharCount)
   {
   }
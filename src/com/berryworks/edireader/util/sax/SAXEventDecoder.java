@@ -0,0 +1,225 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.util.sax;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads SAX events written by SAXEventEncoder and makes the corresponding calls
+ * to a ContentHandler.
+ * <p/>
+ * A single AttributesImpl and a single char array are reused for every event,
+ * so a ContentHandler that retains the Attributes passed to startElement
+ * or the array passed to characters must copy them, as the SAX API requires in any case.
+ */
+public class SAXEventDecoder
+{
+  private static final int BUFFER_SIZE = 8192;
+
+  private final InputStream inputStream;
+  private final List<String> dictionary = new ArrayList<String>();
+  private final AttributesImpl attributes = new AttributesImpl();
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private char[] chars = new char[256];
+  private boolean headerRead;
+
+  public SAXEventDecoder(InputStream inputStream)
+  {
+    this.inputStream = inputStream;
+  }
+
+  /**
+   * Reads the next event and makes the corresponding call to a ContentHandler.
+   * An end-of-stream marker results in no call.
+   *
+   * @param contentHandler to receive the SAX call
+   * @return code of the event read, or -1 if the input is exhausted
+   * @throws IOException  if the input is unreadable, truncated or not of the expected form
+   * @throws SAXException if thrown by the ContentHandler
+   */
+  public int next(ContentHandler contentHandler) throws IOException, SAXException
+  {
+    if (!headerRead)
+    {
+      for (byte b : SAXEventEncoder.HEADER)
+        if (readByte() != b)
+          throw new StreamCorruptedException("Not a stream of SAX events");
+      headerRead = true;
+    }
+
+    if (position == limit && !fill())
+      return -1;
+
+    int code = buffer[position++];
+    switch (code)
+    {
+      case SAXEventEncoder.START_DOCUMENT:
+        contentHandler.startDocument();
+        break;
+
+      case SAXEventEncoder.END_DOCUMENT:
+        contentHandler.endDocument();
+        break;
+
+      case SAXEventEncoder.START_ELEMENT:
+      {
+        String uri = readName();
+        String localName = readName();
+        String qName = readName();
+        attributes.clear();
+        for (int n = readVarint(); n > 0; n--)
+        {
+          String attributeUri = readName();
+          String attributeLocalName = readName();
+          String attributeQName = readName();
+          String type = readName();
+          attributes.addAttribute(attributeUri, attributeLocalName, attributeQName, type, readString());
+        }
+        contentHandler.startElement(uri, localName, qName, attributes);
+        break;
+      }
+
+      case SAXEventEncoder.END_ELEMENT:
+      {
+        String uri = readName();
+        String localName = readName();
+        String qName = readName();
+        contentHandler.endElement(uri, localName, qName);
+        break;
+      }
+
+      case SAXEventEncoder.CHARACTERS:
+      {
+        int count = readChars();
+        contentHandler.characters(chars, 0, count);
+        break;
+      }
+
+      case SAXEventEncoder.END_OF_STREAM:
+        break;
+
+      default:
+        throw new StreamCorruptedException("Unknown SAX event code " + code);
+    }
+    return code;
+  }
+
+  private String readName() throws IOException
+  {
+    int n = readVarint();
+    if (n == SAXEventEncoder.NULL_NAME)
+      return null;
+    if (n >= SAXEventEncoder.FIRST_INDEX)
+    {
+      int index = n - SAXEventEncoder.FIRST_INDEX;
+      if (index >= dictionary.size())
+        throw new StreamCorruptedException("Undefined name index " + index);
+      return dictionary.get(index);
+    }
+
+    String name = readString();
+    if (dictionary.size() < SAXEventEncoder.DICTIONARY_LIMIT)
+      dictionary.add(name);
+    return name;
+  }
+
+  private String readString() throws IOException
+  {
+    int count = readChars();
+    return new String(chars, 0, count);
+  }
+
+  /**
+   * Reads a length-prefixed run of chars into the chars array.
+   *
+   * @return number of chars read
+   */
+  private int readChars() throws IOException
+  {
+    int count = readVarint();
+    if (count > chars.length)
+      chars = new char[Math.max(count, 2 * chars.length)];
+
+    for (int i = 0; i < count; i++)
+    {
+      int b = readByte();
+      if (b < 0x80)
+        chars[i] = (char) b;
+      else if (b < 0xE0)
+        chars[i] = (char) (((b & 0x1F) << 6) | (readByte() & 0x3F));
+      else
+      {
+        int b2 = readByte();
+        chars[i] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (readByte() & 0x3F));
+      }
+    }
+    return count;
+  }
+
+  private int readVarint() throws IOException
+  {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7)
+    {
+      int b = readByte();
+      value |= (b & 0x7F) << shift;
+      if (b < 0x80)
+      {
+        if (value < 0)
+          break;
+        return value;
+      }
+    }
+    throw new StreamCorruptedException("Malformed length or index");
+  }
+
+  private int readByte() throws IOException
+  {
+    if (position == limit && !fill())
+      throw new EOFException();
+    return buffer[position++] & 0xFF;
+  }
+
+  private boolean fill() throws IOException
+  {
+    int n;
+    do
+    {
+      n = inputStream.read(buffer, 0, BUFFER_SIZE);
+    } while (n == 0);
+    if (n < 0)
+      return false;
+    position = 0;
+    limit = n;
+    return true;
+  }
+}
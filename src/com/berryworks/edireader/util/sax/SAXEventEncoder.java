@@ -0,0 +1,243 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+package com.berryworks.edireader.util.sax;
+
+import org.xml.sax.Attributes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes SAX events to an OutputStream in a compact binary form that SAXEventDecoder
+ * can read back, as a faster and smaller alternative to Java serialization of SAXObjects.
+ * <p/>
+ * The stream begins with a 4-byte header. Each event is then written as a one-byte code
+ * followed by its operands. Counts and lengths are written as unsigned varints of 7 bits
+ * per byte, and strings and character data are prefixed by their length in chars, with each
+ * char taking 1 to 3 bytes as in UTF-8. Element and attribute names, namespace URIs and
+ * attribute types are written through a dictionary: the first occurrence of a name is written
+ * in full and assigned the next index, and later occurrences are written as that index alone.
+ * Both sides maintain the dictionary in the same way, so it is never written as such.
+ * The dictionary spans every document written to the stream.
+ */
+public class SAXEventEncoder
+{
+  static final byte[] HEADER = {'S', 'A', 'X', 1};
+
+  static final int START_DOCUMENT = 1;
+  static final int END_DOCUMENT = 2;
+  static final int START_ELEMENT = 3;
+  static final int END_ELEMENT = 4;
+  static final int CHARACTERS = 5;
+  static final int END_OF_STREAM = 6;
+
+  /**
+   * Operand values of a name: NULL_NAME for null, NEW_NAME followed by the name itself,
+   * or the name's dictionary index plus FIRST_INDEX.
+   */
+  static final int NULL_NAME = 0;
+  static final int NEW_NAME = 1;
+  static final int FIRST_INDEX = 2;
+
+  /**
+   * Maximum number of names in the dictionary. Names first seen once it is full are
+   * always written in full.
+   */
+  static final int DICTIONARY_LIMIT = 4096;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputStream outputStream;
+  private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int length;
+
+  public SAXEventEncoder(OutputStream outputStream) throws IOException
+  {
+    this.outputStream = outputStream;
+    outputStream.write(HEADER);
+  }
+
+  public void startDocument() throws IOException
+  {
+    reserve(1);
+    buffer[length++] = START_DOCUMENT;
+  }
+
+  public void endDocument() throws IOException
+  {
+    reserve(1);
+    buffer[length++] = END_DOCUMENT;
+  }
+
+  public void startElement(String uri, String localName, String qName, Attributes attributes) throws IOException
+  {
+    reserve(1);
+    buffer[length++] = START_ELEMENT;
+    writeName(uri);
+    writeName(localName);
+    writeName(qName);
+
+    int n = attributes == null ? 0 : attributes.getLength();
+    writeVarint(n);
+    for (int i = 0; i < n; i++)
+    {
+      writeName(attributes.getURI(i));
+      writeName(attributes.getLocalName(i));
+      writeName(attributes.getQName(i));
+      writeName(attributes.getType(i));
+      writeString(attributes.getValue(i));
+    }
+  }
+
+  public void endElement(String uri, String localName, String qName) throws IOException
+  {
+    reserve(1);
+    buffer[length++] = END_ELEMENT;
+    writeName(uri);
+    writeName(localName);
+    writeName(qName);
+  }
+
+  public void characters(char[] ch, int start, int count) throws IOException
+  {
+    reserve(1);
+    buffer[length++] = CHARACTERS;
+    writeVarint(count);
+    writeChars(ch, start, count);
+  }
+
+  /**
+   * Writes a marker after which SAXEventDecoder reports the end of the stream.
+   *
+   * @throws IOException if thrown by the OutputStream
+   */
+  public void endOfStream() throws IOException
+  {
+    reserve(1);
+    buffer[length++] = END_OF_STREAM;
+  }
+
+  /**
+   * Writes any buffered events to the OutputStream and flushes it.
+   *
+   * @throws IOException if thrown by the OutputStream
+   */
+  public void flush() throws IOException
+  {
+    drain();
+    outputStream.flush();
+  }
+
+  public void close() throws IOException
+  {
+    drain();
+    outputStream.close();
+  }
+
+  private void writeName(String name) throws IOException
+  {
+    if (name == null)
+    {
+      writeVarint(NULL_NAME);
+      return;
+    }
+
+    Integer index = dictionary.get(name);
+    if (index != null)
+    {
+      writeVarint(index + FIRST_INDEX);
+      return;
+    }
+
+    if (dictionary.size() < DICTIONARY_LIMIT)
+      dictionary.put(name, dictionary.size());
+    writeVarint(NEW_NAME);
+    writeString(name);
+  }
+
+  private void writeString(String s) throws IOException
+  {
+    int n = s.length();
+    writeVarint(n);
+    for (int i = 0; i < n; i++)
+    {
+      reserve(3);
+      writeChar(s.charAt(i));
+    }
+  }
+
+  private void writeChars(char[] ch, int start, int count) throws IOException
+  {
+    for (int i = start, end = start + count; i < end; i++)
+    {
+      reserve(3);
+      writeChar(ch[i]);
+    }
+  }
+
+  private void writeChar(char c)
+  {
+    if (c < 0x80)
+    {
+      buffer[length++] = (byte) c;
+    }
+    else if (c < 0x800)
+    {
+      buffer[length++] = (byte) (0xC0 | (c >> 6));
+      buffer[length++] = (byte) (0x80 | (c & 0x3F));
+    }
+    else
+    {
+      buffer[length++] = (byte) (0xE0 | (c >> 12));
+      buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[length++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void writeVarint(int value) throws IOException
+  {
+    reserve(5);
+    while ((value & ~0x7F) != 0)
+    {
+      buffer[length++] = (byte) (0x80 | (value & 0x7F));
+      value >>>= 7;
+    }
+    buffer[length++] = (byte) value;
+  }
+
+  private void reserve(int n) throws IOException
+  {
+    if (length + n > BUFFER_SIZE)
+      drain();
+  }
+
+  private void drain() throws IOException
+  {
+    if (length > 0)
+    {
+      outputStream.write(buffer, 0, length);
+      length = 0;
+    }
+  }
+}
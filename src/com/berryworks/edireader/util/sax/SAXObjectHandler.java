@@ -25,24 +25,24 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 /**
  * This implementation of a SAX ContentHandler
  * turns the sequence of SAX method calls received from
- * a parser into a stream of serialized Java objects.
+ * a parser into a stream of events in the compact binary form
+ * written by SAXEventEncoder, which SAXObjectReader can play back.
  */
 public class SAXObjectHandler extends DefaultHandler
 {
 
-  private ObjectOutputStream objectStream;
+  private SAXEventEncoder encoder;
   private int sAXEventsWritten;
   private boolean disabled;
 
   public SAXObjectHandler(OutputStream outputStream) throws IOException
   {
-    objectStream = new ObjectOutputStream(outputStream);
+    encoder = new SAXEventEncoder(outputStream);
   }
 
   @Override
@@ -53,7 +53,7 @@ public class SAXObjectHandler extends DefaultHandler
 
     try
     {
-      objectStream.writeObject(new SAXStartDocument());
+      encoder.startDocument();
       sAXEventsWritten++;
     } catch (IOException e)
     {
@@ -70,7 +70,8 @@ public class SAXObjectHandler extends DefaultHandler
 
     try
     {
-      objectStream.writeObject(new SAXEndDocument());
+      encoder.endDocument();
+      encoder.flush();
       sAXEventsWritten++;
     } catch (IOException e)
     {
@@ -87,7 +88,7 @@ public class SAXObjectHandler extends DefaultHandler
 
     try
     {
-      objectStream.writeObject(new SAXStartElement(uri, localName, qName, attributes));
+      encoder.startElement(uri, localName, qName, attributes);
       sAXEventsWritten++;
     } catch (IOException e)
     {
@@ -104,7 +105,7 @@ public class SAXObjectHandler extends DefaultHandler
 
     try
     {
-      objectStream.writeObject(new SAXEndElement(uri, localName, qName));
+      encoder.endElement(uri, localName, qName);
       sAXEventsWritten++;
     } catch (IOException e)
     {
@@ -121,7 +122,7 @@ public class SAXObjectHandler extends DefaultHandler
 
     try
     {
-      objectStream.writeObject(new SAXCharacters(ch, start, length));
+      encoder.characters(ch, start, length);
       sAXEventsWritten++;
     } catch (IOException e)
     {
@@ -140,7 +141,8 @@ public class SAXObjectHandler extends DefaultHandler
     if (disabled)
       return;
 
-    objectStream.writeObject(new SAXEndOfStreamMarker());
+    encoder.endOfStream();
+    encoder.flush();
   }
 
   public void disable()
@@ -148,7 +150,7 @@ public class SAXObjectHandler extends DefaultHandler
     disabled = true;
     try
     {
-      objectStream.close();
+      encoder.close();
     } catch (IOException ignore)
     {
     }
@@ -26,18 +26,17 @@ import org.xml.sax.helpers.DefaultHandler;
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 /**
  * This class implements a playback facility so that
- * a stream of SAXObjects can be used to make calls to
+ * a stream of SAX events written by SAXObjectHandler can be used to make calls to
  * an arbitrary SAX ContentHandler.
  */
 public class SAXObjectReader implements XMLReader
 {
 
   private ContentHandler contentHandler;
-  private ObjectInputStream inputStream;
+  private SAXEventDecoder decoder;
 
   public void setContentHandler(ContentHandler contentHandler)
   {
@@ -49,49 +48,28 @@ public class SAXObjectReader implements XMLReader
     return contentHandler;
   }
 
+  /**
+   * Makes the calls for the events of the next document in the stream, returning
+   * after its endDocument call. An EOFException is thrown if the stream ends,
+   * or an end-of-stream marker is reached, before that.
+   */
   public void parse(InputSource input) throws IOException, SAXException
   {
     /**
-     * Parse may be called multiple times, so establish the inputStream
-     * only on the first call. Thereafter, just read further into the inputStream
+     * Parse may be called multiple times, so establish the decoder
+     * only on the first call. Thereafter, just read further into the input stream
      * used on the previous call.
      */
-    if (inputStream == null)
-    {
-      System.err.println(getClass().getName() + " parsing first time on input stream");
-      inputStream = new ObjectInputStream(input.getByteStream());
-    }
-    else
-      System.err.println(getClass().getName() + " parsing again on the same input stream");
+    if (decoder == null)
+      decoder = new SAXEventDecoder(input.getByteStream());
 
-    try
+    while (true)
     {
-      while (true)
-      {
-        Object o = inputStream.readObject();
-        if (o == null)
-        {
-          System.err.println("SAXObjectReader got null from readObject(), parse throwing EOFException");
-          throw new EOFException();
-        }
-        else
-        {
-//                    System.err.println("object of type " + o.getClass().getName());
-        }
-        SAXObject saxObject = (SAXObject) o;
-        saxObject.saxCall(contentHandler);
-        if (saxObject instanceof SAXEndDocument)
-        {
-          System.err.println("SAXObjectReader noted the end document, parse returning");
-          break;
-        }
-        else if (saxObject instanceof SAXEndOfStreamMarker)
-          throw new EOFException();
-      }
-
-    } catch (ClassNotFoundException e)
-    {
-      e.printStackTrace();
+      int code = decoder.next(contentHandler);
+      if (code == SAXEventEncoder.END_DOCUMENT)
+        break;
+      else if (code == SAXEventEncoder.END_OF_STREAM || code < 0)
+        throw new EOFException();
     }
   }
 
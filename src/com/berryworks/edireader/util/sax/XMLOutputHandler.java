@@ -0,0 +1,434 @@
+/*
+ * Copyright 2005-2011 by BerryWorks Software, LLC. All rights reserved.
+ *
+ * This file is part of EDIReader. You may obtain a license for its use directly from
+ * BerryWorks Software, and you may also choose to use this software under the terms of the
+ * GPL version 3. Other products in the EDIReader software suite are available only by licensing
+ * with BerryWorks. Only those files bearing the GPL statement below are available under the GPL.
+ *
+ * EDIReader is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * EDIReader is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with EDIReader.  If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.berryworks.edireader.util.sax;
+
+import com.berryworks.edireader.DefaultXMLTags;
+import com.berryworks.edireader.XMLTags;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This implementation of a SAX ContentHandler writes the XML generated by EDIReader
+ * directly to a Writer or OutputStream, producing the same text as an identity
+ * Transformer with a StreamResult at a fraction of the cost.
+ * <p/>
+ * The start and end tags of the XMLTags vocabulary are prepared in advance, and those of
+ * any other element or attribute name are prepared once when first seen. Text is examined
+ * for chars that need escaping with a single table lookup per char and otherwise copied in
+ * runs to an internal buffer, which is written to the Writer in large blocks.
+ * The output is optionally indented, with each element beginning on a new line.
+ */
+public class XMLOutputHandler extends DefaultHandler
+{
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Replacement for each char below 160 that cannot appear as itself, in text and in
+   * attribute values respectively, or null. These follow the JDK's XML serializer.
+   */
+  private static final String[] TEXT_ESCAPES = new String[160];
+  private static final String[] ATTRIBUTE_ESCAPES = new String[160];
+
+  static
+  {
+    for (int c = 0; c < 32; c++)
+      TEXT_ESCAPES[c] = ATTRIBUTE_ESCAPES[c] = "&#" + c + ";";
+    for (int c = 127; c < 160; c++)
+      TEXT_ESCAPES[c] = "&#" + c + ";";
+    TEXT_ESCAPES['\t'] = null;
+    TEXT_ESCAPES['\n'] = "\n".equals(LINE_SEPARATOR) ? null : LINE_SEPARATOR;
+    TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = "&lt;";
+    TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = "&gt;";
+    TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = "&amp;";
+    ATTRIBUTE_ESCAPES['"'] = "&quot;";
+  }
+
+  private final Writer writer;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int length;
+  private char[] scratch = new char[256];
+
+  private final Map<String, Tag> tags = new HashMap<String, Tag>();
+  private final Map<String, char[]> attributeNames = new HashMap<String, char[]>();
+  private final List<String> prefixMappings = new ArrayList<String>();
+  private final List<String> defaultNamespaces = new ArrayList<String>();
+
+  private int indent;
+  private int depth;
+  private boolean startTagOpen;
+  private boolean childElements;
+
+  /**
+   * Constructs an XMLOutputHandler writing to a Writer.
+   *
+   * @param writer destination of the XML text
+   */
+  public XMLOutputHandler(Writer writer)
+  {
+    this(writer, new DefaultXMLTags());
+  }
+
+  /**
+   * Constructs an XMLOutputHandler writing to a Writer, prepared for the tags
+   * of an EDIReader configured with setXMLTags().
+   *
+   * @param writer  destination of the XML text
+   * @param xmlTags tags used by the EDIReader
+   */
+  public XMLOutputHandler(Writer writer, XMLTags xmlTags)
+  {
+    this.writer = writer;
+    String[] names = {xmlTags.getRootTag(), xmlTags.getInterchangeTag(), xmlTags.getSenderTag(),
+      xmlTags.getReceiverTag(), xmlTags.getAddressTag(), xmlTags.getGroupTag(), xmlTags.getDocumentTag(),
+      xmlTags.getLoopTag(), xmlTags.getSegTag(), xmlTags.getElementTag(), xmlTags.getCompositeTag(),
+      xmlTags.getSubElementTag(), xmlTags.getAddendaTag(), xmlTags.getPackageTag(),
+      xmlTags.getAcknowledgementTag()};
+    for (String name : names)
+      getTag(name);
+    String[] attributes = {xmlTags.getIdAttribute(), xmlTags.getQualifierAttribute(),
+      xmlTags.getSubElementSequence(), xmlTags.getCompositeIndicator(), xmlTags.getControl()};
+    for (String name : attributes)
+      getAttributeName(name);
+  }
+
+  /**
+   * Constructs an XMLOutputHandler writing UTF-8 encoded XML to an OutputStream.
+   *
+   * @param outputStream destination of the XML
+   * @throws IOException if UTF-8 is not supported
+   */
+  public XMLOutputHandler(OutputStream outputStream) throws IOException
+  {
+    this(new OutputStreamWriter(outputStream, "UTF-8"));
+  }
+
+  /**
+   * Sets the number of spaces by which each level of nested elements is indented.
+   * Zero, the default, produces no line breaks or indentation at all.
+   *
+   * @param indent number of spaces
+   */
+  public void setIndent(int indent)
+  {
+    if (indent < 0)
+      throw new IllegalArgumentException("Indent must not be negative: " + indent);
+    this.indent = indent;
+  }
+
+  public int getIndent()
+  {
+    return indent;
+  }
+
+  @Override
+  public void startDocument() throws SAXException
+  {
+    depth = 0;
+    startTagOpen = false;
+    childElements = false;
+    defaultNamespaces.clear();
+    put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+  }
+
+  @Override
+  public void endDocument() throws SAXException
+  {
+    if (indent > 0)
+      put(LINE_SEPARATOR);
+    flushBuffer();
+    try
+    {
+      writer.flush();
+    } catch (IOException e)
+    {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri)
+  {
+    prefixMappings.add(prefix);
+    prefixMappings.add(uri);
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes)
+    throws SAXException
+  {
+    if (startTagOpen)
+      put('>');
+    if (indent > 0)
+      newLine();
+
+    Tag tag = getTag(qName);
+    put(tag.open);
+
+    String defaultNamespace = depth == 0 ? "" : defaultNamespaces.get(depth - 1);
+    for (int i = 0; i < prefixMappings.size(); i += 2)
+    {
+      String prefix = prefixMappings.get(i);
+      if (prefix.length() == 0)
+      {
+        putNamespace("", prefixMappings.get(i + 1));
+        defaultNamespace = prefixMappings.get(i + 1);
+      }
+      else
+        putNamespace(prefix, prefixMappings.get(i + 1));
+    }
+    prefixMappings.clear();
+    if (uri != null && uri.length() > 0 && qName.indexOf(':') < 0 && !uri.equals(defaultNamespace))
+    {
+      putNamespace("", uri);
+      defaultNamespace = uri;
+    }
+    if (defaultNamespaces.size() > depth)
+      defaultNamespaces.set(depth, defaultNamespace);
+    else
+      defaultNamespaces.add(defaultNamespace);
+
+    for (int i = 0, n = attributes.getLength(); i < n; i++)
+    {
+      put(getAttributeName(attributes.getQName(i)));
+      String value = attributes.getValue(i);
+      int valueLength = value.length();
+      if (scratch.length < valueLength)
+        scratch = new char[Math.max(valueLength, 2 * scratch.length)];
+      value.getChars(0, valueLength, scratch, 0);
+      putEscaped(scratch, 0, valueLength, ATTRIBUTE_ESCAPES);
+      put('"');
+    }
+
+    startTagOpen = true;
+    childElements = false;
+    depth++;
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException
+  {
+    depth--;
+    if (startTagOpen)
+    {
+      put('/');
+      put('>');
+      startTagOpen = false;
+    }
+    else
+    {
+      if (indent > 0 && childElements)
+        newLine();
+      put(getTag(qName).close);
+    }
+    childElements = true;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException
+  {
+    if (length == 0)
+      return;
+    if (startTagOpen)
+    {
+      put('>');
+      startTagOpen = false;
+    }
+    putEscaped(ch, start, start + length, TEXT_ESCAPES);
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+  {
+    characters(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException
+  {
+    if (startTagOpen)
+    {
+      put('>');
+      startTagOpen = false;
+    }
+    put("<?");
+    put(target);
+    if (data != null && data.length() > 0)
+    {
+      put(' ');
+      put(data);
+    }
+    put("?>");
+  }
+
+  private void newLine() throws SAXException
+  {
+    put(LINE_SEPARATOR);
+    for (int i = depth * indent; i > 0; i--)
+      put(' ');
+  }
+
+  private void putNamespace(String prefix, String uri) throws SAXException
+  {
+    put(prefix.length() == 0 ? " xmlns=\"" : " xmlns:" + prefix + "=\"");
+    put(uri);
+    put('"');
+  }
+
+  private Tag getTag(String name)
+  {
+    Tag tag = tags.get(name);
+    if (tag == null)
+    {
+      tag = new Tag(name);
+      tags.put(name, tag);
+    }
+    return tag;
+  }
+
+  private char[] getAttributeName(String name)
+  {
+    char[] chars = attributeNames.get(name);
+    if (chars == null)
+    {
+      chars = (" " + name + "=\"").toCharArray();
+      attributeNames.put(name, chars);
+    }
+    return chars;
+  }
+
+  /**
+   * Writes the chars from start to end, replacing those for which the table
+   * has a replacement and copying the runs between them.
+   */
+  private void putEscaped(char[] ch, int start, int end, String[] escapes) throws SAXException
+  {
+    int run = start;
+    for (int i = start; i < end; i++)
+    {
+      char c = ch[i];
+      if (c < 160 && escapes[c] != null)
+      {
+        put(ch, run, i - run);
+        put(escapes[c]);
+        run = i + 1;
+      }
+    }
+    put(ch, run, end - run);
+  }
+
+  private void put(char c) throws SAXException
+  {
+    if (length == buffer.length)
+      flushBuffer();
+    buffer[length++] = c;
+  }
+
+  private void put(char[] chars) throws SAXException
+  {
+    put(chars, 0, chars.length);
+  }
+
+  private void put(char[] chars, int offset, int count) throws SAXException
+  {
+    if (count > buffer.length - length)
+    {
+      flushBuffer();
+      if (count > buffer.length)
+      {
+        try
+        {
+          writer.write(chars, offset, count);
+        } catch (IOException e)
+        {
+          throw new SAXException(e);
+        }
+        return;
+      }
+    }
+    System.arraycopy(chars, offset, buffer, length, count);
+    length += count;
+  }
+
+  private void put(String s) throws SAXException
+  {
+    int count = s.length();
+    if (count > buffer.length - length)
+    {
+      flushBuffer();
+      if (count > buffer.length)
+      {
+        try
+        {
+          writer.write(s);
+        } catch (IOException e)
+        {
+          throw new SAXException(e);
+        }
+        return;
+      }
+    }
+    s.getChars(0, count, buffer, length);
+    length += count;
+  }
+
+  private void flushBuffer() throws SAXException
+  {
+    if (length == 0)
+      return;
+    try
+    {
+      writer.write(buffer, 0, length);
+    } catch (IOException e)
+    {
+      throw new SAXException(e);
+    } finally
+    {
+      length = 0;
+    }
+  }
+
+  /**
+   * The text of the start and end tags for an element name.
+   */
+  private static class Tag
+  {
+    final char[] open;
+    final char[] close;
+
+    Tag(String name)
+    {
+      open = ("<" + name).toCharArray();
+      close = ("</" + name + ">").toCharArray();
+    }
+  }
+}